@@ -27,6 +27,7 @@ package wyc;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import wyil.*;
 import wyil.lang.*;
@@ -37,12 +38,44 @@ import wyc.stages.*;
 public class Compiler implements Logger {	
 	protected ModuleLoader loader;
 	protected ArrayList<Transform> stages;
+	
+	/**
+	 * The pipeline from which the stages were instantiated (if known). This
+	 * is needed to compile modules in parallel, since each module then
+	 * requires its own instance of each stage.
+	 */
+	protected Pipeline pipeline;
+	
+	/**
+	 * The number of threads to compile with.
+	 */
+	protected int parallelism = 1;
 
 	public Compiler(ModuleLoader loader, List<Transform> stages) {
 		this.loader = loader;		
 		this.stages = new ArrayList<Transform>(stages);				
 	}
 	
+	public Compiler(ModuleLoader loader, Pipeline pipeline) {
+		this(loader, pipeline.instantiate());
+		this.pipeline = pipeline;
+	}
+	
+	/**
+	 * Set the number of threads to compile with. When this is more than one,
+	 * files are parsed in parallel. Furthermore, if this compiler was
+	 * constructed from a pipeline, then modules are put through the pipeline
+	 * in parallel.
+	 * 
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("invalid parallelism: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+	
 	/**
 	 * The logout output stream is used to write log information about the
 	 * status of compilation. The default stream just discards everything.
@@ -64,29 +97,80 @@ public class Compiler implements Logger {
 
 	public List<WhileyFile> compile(List<File> files) throws IOException {
 		long startTime = System.currentTimeMillis();
-		
-		ArrayList<WhileyFile> wyfiles = new ArrayList<WhileyFile>();
-		for (File f : files) {
-			WhileyFile wf = innerParse(f);			
-			wyfiles.add(wf);			
-			loader.preregister(wf.skeleton(),wf.filename);			
-		}
-				
-		for (WhileyFile m : wyfiles) {
-			resolveNames(m);			
+		ForkJoinPool pool = null;
+		if(parallelism > 1) {
+			pool = new ForkJoinPool(parallelism);
 		}
 		
-		List<Module> modules = buildModules(wyfiles);				
-		for(Module m : modules) {
-			loader.register(m);
+		try {
+			List<WhileyFile> wyfiles = parse(files, pool);
+			for (WhileyFile wf : wyfiles) {
+				loader.preregister(wf.skeleton(),wf.filename);			
+			}
+
+			for (WhileyFile m : wyfiles) {
+				resolveNames(m);			
+			}
+
+			List<Module> modules = buildModules(wyfiles);				
+			for(Module m : modules) {
+				loader.register(m);
+			}
+			if(pool != null && pipeline != null) {
+				finishCompilation(modules, pool);
+			} else {
+				for(Module m : modules) {
+					finishCompilation(m);
+				}
+			}
+
+			long endTime = System.currentTimeMillis();
+			logTotalTime("Compiled " + files.size() + " file(s)",endTime-startTime);
+
+			return wyfiles;
+		} finally {
+			if(pool != null) {
+				pool.shutdown();
+			}
 		}
-		for(Module m : modules) {
-			finishCompilation(m);
+	}
+	
+	/**
+	 * Parse the given files, using the given pool (if any) to parse them in
+	 * parallel. The files are returned in the order given. If any fail to
+	 * parse, then the error for the first such file is thrown.
+	 * 
+	 * @param files
+	 * @param pool
+	 * @return
+	 * @throws IOException
+	 */
+	protected List<WhileyFile> parse(List<File> files, ForkJoinPool pool)
+			throws IOException {
+		ArrayList<WhileyFile> wyfiles = new ArrayList<WhileyFile>();
+		if(pool == null) {
+			for (File f : files) {
+				wyfiles.add(innerParse(f));
+			}
+		} else {
+			ArrayList<Callable<WhileyFile>> tasks = new ArrayList<Callable<WhileyFile>>();
+			for (final File f : files) {
+				tasks.add(new Callable<WhileyFile>() {
+					public WhileyFile call() throws IOException {
+						return innerParse(f);
+					}
+				});
+			}
+			for(Future<WhileyFile> f : pool.invokeAll(tasks)) {
+				try {
+					wyfiles.add(f.get());
+				} catch(ExecutionException e) {
+					rethrow(e.getCause());
+				} catch(InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
 		}
-		
-		long endTime = System.currentTimeMillis();
-		logTotalTime("Compiled " + files.size() + " file(s)",endTime-startTime);
-		
 		return wyfiles;
 	}
 		
@@ -122,6 +206,11 @@ public class Compiler implements Logger {
 	 * @param wf
 	 */
 	public void finishCompilation(Module module) throws IOException {				
+		finishCompilation(module, stages);
+	}
+	
+	protected void finishCompilation(Module module, List<Transform> stages)
+			throws IOException {
 		// Register the updated file
 		loader.register(module);
 		
@@ -130,6 +219,148 @@ public class Compiler implements Logger {
 		}		
 	}
 	
+	/**
+	 * <p>
+	 * Put the given modules through the second half of the compilation
+	 * pipeline in parallel, using the given pool. Each module gets its own
+	 * instance of every stage, since stages are not safe to share between
+	 * threads.
+	 * </p>
+	 * 
+	 * <p>
+	 * A module which refers to another module being compiled is not started
+	 * until that module is finished. This mirrors the sequential case as far
+	 * as possible. Modules which refer to each other (directly or indirectly)
+	 * cannot all wait for each other, so in that case some wait is dropped.
+	 * If any modules fail, then the error for the first one (in the given
+	 * order) is thrown.
+	 * </p>
+	 * 
+	 * @param modules
+	 * @param pool
+	 * @throws IOException
+	 */
+	protected void finishCompilation(List<Module> modules, ForkJoinPool pool)
+			throws IOException {
+		HashMap<ModuleID, ModuleTask> tasks = new HashMap<ModuleID, ModuleTask>();
+		ArrayList<ModuleTask> inorder = new ArrayList<ModuleTask>();
+		for(Module m : modules) {
+			ModuleTask task = new ModuleTask(m);
+			tasks.put(m.id(), task);
+			inorder.add(task);
+		}
+		
+		// order tasks so that each comes after those it depends on
+		final ArrayList<ModuleTask> order = new ArrayList<ModuleTask>();
+		HashSet<ModuleTask> visited = new HashSet<ModuleTask>();
+		for(ModuleTask task : inorder) {
+			if(!visited.contains(task)) {
+				order(task, tasks, visited, order);
+			}
+		}
+		
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				for(ModuleTask task : order) {
+					task.fork();
+				}
+				for(ModuleTask task : order) {
+					task.quietlyJoin();
+				}
+			}
+		});
+		
+		for(ModuleTask task : inorder) {
+			if(task.failure != null) {
+				rethrow(task.failure);
+			}
+		}
+	}
+	
+	/**
+	 * Add the given task to the order after (transitively) those it depends
+	 * on. A dependency which leads back to a task already being ordered is
+	 * cyclic, and is dropped.
+	 */
+	private void order(ModuleTask task, HashMap<ModuleID, ModuleTask> tasks,
+			HashSet<ModuleTask> visited, ArrayList<ModuleTask> order) {
+		visited.add(task);
+		for(ModuleID mid : references(task.module)) {
+			ModuleTask dep = tasks.get(mid);
+			if(dep == null || dep == task) {
+				continue;
+			} else if(!visited.contains(dep)) {
+				order(dep, tasks, visited, order);
+			}
+			if(order.contains(dep)) {
+				task.dependencies.add(dep);
+			}
+		}
+		order.add(task);
+	}
+	
+	/**
+	 * Determine the modules referred to by the code of a given module.
+	 */
+	private static Set<ModuleID> references(Module module) {
+		HashSet<ModuleID> mids = new HashSet<ModuleID>();
+		for(Module.Method method : module.methods()) {
+			for(Module.Case c : method.cases()) {
+				for(Block.Entry e : c.body()) {
+					Code code = e.code;
+					if(code instanceof Code.Invoke) {
+						mids.add(((Code.Invoke) code).name.module());
+					} else if(code instanceof Code.Send) {
+						mids.add(((Code.Send) code).name.module());
+					} else if(code instanceof Code.Const) {
+						Value v = ((Code.Const) code).constant;
+						if(v instanceof Value.FunConst) {
+							mids.add(((Value.FunConst) v).name.module());
+						}
+					}
+				}
+			}
+		}
+		return mids;
+	}
+	
+	/**
+	 * A module task puts a single module through the second half of the
+	 * compilation pipeline, once the modules it depends on are done.
+	 */
+	private final class ModuleTask extends RecursiveAction {
+		final Module module;
+		final ArrayList<ModuleTask> dependencies = new ArrayList<ModuleTask>();
+		Throwable failure;
+		
+		ModuleTask(Module module) {
+			this.module = module;
+		}
+		
+		protected void compute() {
+			for(ModuleTask dep : dependencies) {
+				dep.quietlyJoin();
+			}
+			try {
+				finishCompilation(module, pipeline.instantiate());
+			} catch(Throwable e) {
+				failure = e;
+			}
+		}
+	}
+	
+	private static void rethrow(Throwable e) throws IOException {
+		if(e instanceof IOException) {
+			throw (IOException) e;
+		} else if(e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if(e instanceof Error) {
+			throw (Error) e;
+		} else {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	protected Module process(Module module, Transform stage) throws IOException {
 		long start = System.currentTimeMillis();
 		String name = name(stage.getClass().getSimpleName());		
@@ -185,7 +416,7 @@ public class Compiler implements Logger {
 	/**
 	 * This method is just a helper to format the output
 	 */
-	public void logTimedMessage(String msg, long time) {
+	public synchronized void logTimedMessage(String msg, long time) {
 		logout.print(msg);
 		logout.print(" ");
 
@@ -199,7 +430,7 @@ public class Compiler implements Logger {
 		logout.println("ms]");
 	}	
 	
-	public void logTotalTime(String msg, long time) {
+	public synchronized void logTotalTime(String msg, long time) {
 		
 		for (int i = 0; i <= 85; ++i) {
 			logout.print("=");
@@ -38,6 +38,8 @@ import wyil.util.*;
  * The module loader is a critical component of the Whiley compiler. It is
  * responsible for finding whiley modules on the WHILEYPATH, and retaining
  * information about them which can be used to compile other whiley files.
+ * Since several files may be compiled at once, the module loader is safe to
+ * use from multiple threads.
  * 
  * @author djp
  * 
@@ -176,7 +178,7 @@ public class ModuleLoader {
 	 * 
 	 * @return true if the package exists, false otherwise.
 	 */
-	public boolean isPackage(PkgID pkg) {
+	public synchronized boolean isPackage(PkgID pkg) {
 		try {
 			return resolvePackage(pkg) != null;
 		} catch(ResolveError e) {
@@ -184,13 +186,13 @@ public class ModuleLoader {
 		}
 	}	
 	
-	public void preregister(Skeleton skeleton, String filename) {		
+	public synchronized void preregister(Skeleton skeleton, String filename) {		
 		skeletontable.put(skeleton.id(), skeleton);
 		File parent = new File(filename).getParentFile();
 		addPackageItem(skeleton.id().pkg(),skeleton.id().module(),parent);								 
 	}
 	
-	public void register(Module module) {			
+	public synchronized void register(Module module) {			
 		moduletable.put(module.id(), module);	
 	}
 	
@@ -209,7 +211,7 @@ public class ModuleLoader {
 	 * @throws ModuleNotFoundException
 	 *             if it couldn't resolve the module
 	 */
-	public ModuleID resolve(String name, List<PkgID> imports)
+	public synchronized ModuleID resolve(String name, List<PkgID> imports)
 			throws ResolveError {									
 		for (PkgID pkg : imports) {				
 			if(pkg.size() > 0 && pkg.last().equals("*")) {				
@@ -252,7 +254,7 @@ public class ModuleLoader {
 		throw new ResolveError("name not found: " + name);
 	}
 		
-	public Module loadModule(ModuleID module) throws ResolveError {		
+	public synchronized Module loadModule(ModuleID module) throws ResolveError {		
 		Module m = moduletable.get(module);
 		if(m != null) {
 			return m; // module was previously loaded and cached
@@ -278,7 +280,7 @@ public class ModuleLoader {
 		return m;		
 	}
 	
-	public Skeleton loadSkeleton(ModuleID module) throws ResolveError {
+	public synchronized Skeleton loadSkeleton(ModuleID module) throws ResolveError {
 		Skeleton skeleton = skeletontable.get(module);
 		if(skeleton != null) {
 			return skeleton;
@@ -995,7 +995,9 @@ public abstract class Code {
 		 public boolean equals(Object o) {
 			 if(o instanceof IndirectSend) {
 				 IndirectSend i = (IndirectSend) o;
-				 return type == i.type || (type != null && type.equals(i.type));
+				 return synchronous == i.synchronous && retval == i.retval
+						&& (type == i.type || (type != null && type
+								.equals(i.type)));
 			 }
 			 return false;
 		 }
@@ -1459,7 +1461,7 @@ public abstract class Code {
 		public boolean equals(Object o) {
 			if(o instanceof NewSet) {
 				NewSet i = (NewSet) o;
-				return type == i.type || (type != null && type.equals(i.type))
+				return (type == i.type || (type != null && type.equals(i.type)))
 						&& nargs == i.nargs;
 			}
 			return false;
@@ -1490,7 +1492,7 @@ public abstract class Code {
 		public boolean equals(Object o) {
 			if(o instanceof NewList) {
 				NewList i = (NewList) o;
-				return type == i.type || (type != null && type.equals(i.type))
+				return (type == i.type || (type != null && type.equals(i.type)))
 						&& nargs == i.nargs;
 			}
 			return false;
@@ -2100,17 +2102,14 @@ public abstract class Code {
 	}
 	
 
-	private static final ArrayList<Code> values = new ArrayList<Code>();
-	private static final HashMap<Code,Integer> cache = new HashMap<Code,Integer>();
+	/**
+	 * The interned bytecodes. Every bytecode is constructed via this, which
+	 * ensures there is only one instance of any given bytecode in use at a
+	 * time.
+	 */
+	public static final Interner<Code> INTERNER = new Interner<Code>();
 	
 	private static <T extends Code> T get(T type) {
-		Integer idx = cache.get(type);
-		if(idx != null) {
-			return (T) values.get(idx);
-		} else {					
-			cache.put(type, values.size());
-			values.add(type);
-			return type;
-		}
+		return (T) INTERNER.intern(type);
 	}
 }
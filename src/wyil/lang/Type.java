@@ -20,7 +20,10 @@ package wyil.lang;
 
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import wyil.util.Interner;
 import wyil.util.Pair;
 import wyjvm.lang.Constant;
 
@@ -70,7 +73,7 @@ public abstract class Type {
 			start += comps.length;
 		}
 		nodes[0] = new Node(K_TUPLE, children);		
-		return new Tuple(nodes);
+		return (Tuple) construct(nodes);
 	}
 	
 	/**
@@ -94,7 +97,7 @@ public abstract class Type {
 			start += comps.length;
 		}
 		nodes[0] = new Node(K_TUPLE, children);		
-		return new Tuple(nodes);
+		return (Tuple) construct(nodes);
 	}
 	
 	/**
@@ -104,13 +107,13 @@ public abstract class Type {
 	 */
 	public static final Process T_PROCESS(Type element) {
 		if (element instanceof Leaf) {
-			return new Process(new Node[] { new Node(K_PROCESS, 1),
+			return (Process) construct(new Node[] { new Node(K_PROCESS, 1),
 					new Node(leafKind((Leaf) element), null) });
 		} else {
 			// Compound type
 			Node[] nodes = insertComponent(((Compound) element).nodes);
 			nodes[0] = new Node(K_PROCESS, 1);
-			return new Process(nodes);
+			return (Process) construct(nodes);
 		}
 	}
 	
@@ -119,7 +122,8 @@ public abstract class Type {
 			throw new IllegalArgumentException(
 					"existential name cannot be null");
 		}
-		return new Existential(name);
+		return (Existential) construct(new Node[] { new Node(K_EXISTENTIAL,
+				name) });
 	}
 	
 	/**
@@ -129,13 +133,13 @@ public abstract class Type {
 	 */
 	public static final Set T_SET(Type element) {
 		if (element instanceof Leaf) {
-			return new Set(new Node[] { new Node(K_SET, 1),
+			return (Set) construct(new Node[] { new Node(K_SET, 1),
 					new Node(leafKind((Leaf) element), null) });
 		} else {
 			// Compound type
 			Node[] nodes = insertComponent(((Compound) element).nodes);
 			nodes[0] = new Node(K_SET, 1);
-			return new Set(nodes);
+			return (Set) construct(nodes);
 		}
 	}
 	
@@ -146,13 +150,13 @@ public abstract class Type {
 	 */
 	public static final List T_LIST(Type element) {
 		if (element instanceof Leaf) {
-			return new List(new Node[] { new Node(K_LIST, 1),
+			return (List) construct(new Node[] { new Node(K_LIST, 1),
 					new Node(leafKind((Leaf) element), null) });
 		} else {
 			// Compound type
 			Node[] nodes = insertComponent(((Compound) element).nodes);
 			nodes[0] = new Node(K_LIST, 1);
-			return new List(nodes);
+			return (List) construct(nodes);
 		}
 	}
 	
@@ -169,7 +173,7 @@ public abstract class Type {
 		insertNodes(1,keyComps,nodes);
 		insertNodes(1+keyComps.length,valueComps,nodes);
 		nodes[0] = new Node(K_DICTIONARY, new Pair(1,1+keyComps.length));
-		return new Dictionary(nodes);		
+		return (Dictionary) construct(nodes);		
 	}
 	
 	/**
@@ -208,7 +212,7 @@ public abstract class Type {
 			start += comps.length;
 		}
 		nodes[0] = new Node(K_UNION, children);
-		return new Union(nodes);		
+		return (Union) construct(nodes);		
 	}
 
 	public static final Fun T_FUN(Process receiver, Type ret,
@@ -252,7 +256,7 @@ public abstract class Type {
 			start += comps.length;
 		}
 		nodes[0] = new Node(K_FUNCTION, children);
-		return new Fun(nodes);		
+		return (Fun) construct(nodes);		
 	}
 	
 	/**
@@ -280,7 +284,7 @@ public abstract class Type {
 			start += comps.length;
 		}
 		nodes[0] = new Node(K_RECORD,children);
-		return new Record(nodes);
+		return (Record) construct(nodes);
 	}
 
 	/**
@@ -303,7 +307,7 @@ public abstract class Type {
 	 * @return
 	 */
 	public static final Type T_LABEL(String label) {
-		return new Compound(new Node[]{new Node(K_LABEL,label)});
+		return construct(new Node[]{new Node(K_LABEL,label)});
 	}
 
 	/**
@@ -900,6 +904,13 @@ public abstract class Type {
 		 * <code>r[i][j]</code> implies <code>i <: j</code>.
 		 */
 		private final BitSet superTypes;
+		
+		/**
+		 * The inference (if any) currently computing this relation. This is
+		 * notified of every query made on the relation, so that it can track
+		 * which entries depend on which.
+		 */
+		private SubtypeInference observer;
 
 		public SubtypeRelation(int fromDomain, int toDomain) {
 			this.fromDomain = fromDomain;
@@ -912,6 +923,20 @@ public abstract class Type {
 			superTypes.set(0,superTypes.size(),true);
 		}
 		
+		/**
+		 * Get the size of the "source" domain.
+		 */
+		public int fromDomain() {
+			return fromDomain;
+		}
+		
+		/**
+		 * Get the size of the "target" domain.
+		 */
+		public int toDomain() {
+			return toDomain;
+		}
+		
 		/**
 		 * Check whether a a given node is a subtype of another.
 		 * 
@@ -920,7 +945,11 @@ public abstract class Type {
 		 * @return
 		 */
 		public boolean isSubtype(int from, int to) {
-			return subTypes.get((toDomain*from) + to);
+			int index = (toDomain*from) + to;
+			if(observer != null) {
+				observer.read(index);
+			}
+			return subTypes.get(index);
 		}
 		
 		/**
@@ -931,7 +960,11 @@ public abstract class Type {
 		 * @return
 		 */
 		public boolean isSupertype(int from, int to) {
-			return superTypes.get((toDomain*from) + to);
+			int index = (toDomain*from) + to;
+			if(observer != null) {
+				observer.read(index);
+			}
+			return superTypes.get(index);
 		}
 
 		/**
@@ -987,10 +1020,22 @@ public abstract class Type {
 	}
 
 	/**
+	 * <p>
 	 * A subtype inference is responsible for computing a complete subtype
 	 * relation between two given graphs. The class is abstract because there
 	 * are different possible implementations of this. In particular, the case
 	 * when coercions are being considered, versus the case when they are not.
+	 * </p>
+	 * 
+	 * <p>
+	 * The relation is computed as a greatest fixpoint. Initially, every pair
+	 * of nodes is assumed to be related, and assumptions which cannot be
+	 * justified are then removed until none remain. Rather than repeatedly
+	 * sweeping over every pair, the inference uses a worklist. Whenever a pair
+	 * is examined, the pairs it queries are recorded; then, when an assumption
+	 * about a pair is removed, only those pairs which queried it are examined
+	 * again.
+	 * </p>
 	 * 
 	 * @author djp
 	 * 
@@ -1000,37 +1045,163 @@ public abstract class Type {
 		protected final Node[] toGraph;
 		protected final SubtypeRelation assumptions;
 		
+		/**
+		 * The pairs which have been (or will be) examined.
+		 */
+		private BitSet discovered;
+		
+		/**
+		 * The pairs awaiting examination, held as a stack.
+		 */
+		private int[] worklist;
+		private int worklistSize;
+		private BitSet queued;
+		
+		/**
+		 * For each pair, the pairs which queried it when last examined. These
+		 * are held as linked lists of edges, where <code>head[p]</code> is the
+		 * first edge for pair <code>p</code> (or -1 if none), and each edge
+		 * <code>e</code> has a target <code>edgeTarget[e]</code> and a next
+		 * edge <code>edgeNext[e]</code>.
+		 */
+		private int[] head;
+		private int[] edgeTarget;
+		private int[] edgeNext;
+		private int numEdges;
+		
+		/**
+		 * The pair currently being examined.
+		 */
+		private int current;
+		
 		public SubtypeInference(Node[] fromGraph, Node[] toGraph) {
 			this.fromGraph = fromGraph;
 			this.toGraph = toGraph;
 			this.assumptions = new SubtypeRelation(fromGraph.length,toGraph.length);
 		}
 		
+		/**
+		 * Compute the complete subtype relation between the two graphs.
+		 * 
+		 * @return
+		 */
 		public SubtypeRelation doInference() {
-			int fromDomain = fromGraph.length;
+			int size = fromGraph.length * toGraph.length;
+			initialise(size);
+			// Nodes generally come after their parent, so examining pairs in
+			// reverse order means children tend to be examined first.
+			for(int i=0;i!=size;++i) {
+				discover(i);
+			}
+			solve();
+			return assumptions;
+		}
+		
+		/**
+		 * Compute the subtype relation between two given nodes. Only those
+		 * pairs of nodes on which the answer depends are examined. Therefore,
+		 * the resulting relation is accurate for the given pair, and for any
+		 * other pair it queried, but not necessarily for any other pair.
+		 * 
+		 * @param from
+		 *            --- An index into <code>fromGraph</code>.
+		 * @param to
+		 *            --- An index into <code>toGraph</code>.
+		 * @return
+		 */
+		public SubtypeRelation doInference(int from, int to) {
+			initialise(fromGraph.length * toGraph.length);
+			discover((toGraph.length * from) + to);
+			solve();
+			return assumptions;
+		}
+		
+		private void initialise(int size) {
+			discovered = new BitSet(size);
+			queued = new BitSet(size);
+			worklist = new int[16];
+			worklistSize = 0;
+			head = new int[size];
+			Arrays.fill(head, -1);
+			edgeTarget = new int[16];
+			edgeNext = new int[16];
+			numEdges = 0;
+			current = -1;
+		}
+		
+		private void solve() {
 			int toDomain = toGraph.length;
-			
-			boolean changed = true;
-			while(changed) {
-				changed=false;
-				for(int i=0;i!=fromDomain;i++) {
-					for(int j=0;j!=toDomain;j++) {					
-						boolean isubj = isSubType(i,j);					
-						boolean isupj = isSuperType(i,j);		
-						
-						if(assumptions.isSubtype(i,j) && !isubj) {
-							assumptions.setSubtype(i,j,false);
-							changed = true;
+			assumptions.observer = this;
+			try {
+				while(worklistSize > 0) {
+					int index = worklist[--worklistSize];
+					queued.clear(index);
+					int i = index / toDomain;
+					int j = index % toDomain;
+					current = index;
+					boolean isubj = isSubType(i,j);					
+					boolean isupj = isSuperType(i,j);
+					current = -1;
+					
+					boolean changed = false;
+					if(assumptions.isSubtype(i,j) && !isubj) {
+						assumptions.setSubtype(i,j,false);
+						changed = true;
+					}
+					if(assumptions.isSupertype(i,j) && !isupj) {
+						assumptions.setSupertype(i,j,false);
+						changed = true;
+					}
+					if(changed) {
+						// re-examine every pair which relied on this one
+						for(int e=head[index];e!=-1;e=edgeNext[e]) {
+							enqueue(edgeTarget[e]);
 						}
-						if(assumptions.isSupertype(i,j) && !isupj) {
-							assumptions.setSupertype(i,j,false);
-							changed = true;
-						}						
-					}	
+						head[index] = -1;
+					}
 				}
+			} finally {
+				assumptions.observer = null;
 			}
-			
-			return assumptions;
+		}
+		
+		/**
+		 * Called whenever the pair being examined queries the given pair.
+		 * This records the dependency, and ensures the queried pair will be
+		 * examined itself.
+		 */
+		private void read(int index) {
+			if(current == -1) {
+				return;
+			} else if(!discovered.get(index)) {
+				discover(index);
+			}
+			int e = head[index];
+			if(e != -1 && edgeTarget[e] == current) {
+				return; // common case of repeated query
+			} else if(numEdges == edgeTarget.length) {
+				edgeTarget = Arrays.copyOf(edgeTarget, numEdges * 2);
+				edgeNext = Arrays.copyOf(edgeNext, numEdges * 2);
+			}
+			edgeTarget[numEdges] = current;
+			edgeNext[numEdges] = e;
+			head[index] = numEdges++;
+		}
+		
+		private void discover(int index) {
+			discovered.set(index);
+			enqueue(index);
+		}
+		
+		private void enqueue(int index) {
+			if(queued.get(index)) {
+				return;
+			}
+			queued.set(index);
+			if(worklistSize == worklist.length) {
+				worklist = Arrays.copyOf(worklist, worklistSize * 2);
+			}
+			worklist[worklistSize++] = index;
 		}
 		
 		/**
@@ -1067,6 +1238,17 @@ public abstract class Type {
 			super(fromGraph,toGraph);
 		}
 		
+		/**
+		 * Construct an operator between the graphs of two given types, whose
+		 * roots are node 0 in each.
+		 * 
+		 * @param from
+		 * @param to
+		 */
+		public DefaultSubtypeOperator(Type from, Type to) {
+			this(nodes(from),nodes(to));
+		}
+		
 		public boolean isSubType(int from, int to) {
 			Node fromNode = fromGraph[from];
 			Node toNode = toGraph[to];	
@@ -1272,7 +1454,7 @@ public abstract class Type {
 					return true;					
 				} 		
 				case K_UNION: {														
-					int[] bounds1 = (int[]) toNode.data;		
+					int[] bounds1 = (int[]) fromNode.data;		
 
 					// check every bound in c1 is a subtype of some bound in toNode.
 					for(int i : bounds1) {				
@@ -1321,6 +1503,10 @@ public abstract class Type {
 			super(fromGraph,toGraph);
 		}
 		
+		public CoerciveSubtypeOperator(Type from, Type to) {
+			super(from,to);
+		}
+		
 		public boolean isSubType(int from, int to) {
 			Node fromNode = fromGraph[from];
 			Node toNode = toGraph[to];	
@@ -1415,18 +1601,138 @@ public abstract class Type {
 		}
 	}
 
+	// =============================================================
+	// Caches
+	// =============================================================
+
+	/**
+	 * <p>
+	 * A cache records the results of an operation on pairs of types. Since
+	 * types are immutable, and the operations on them are deterministic, a
+	 * result computed once can be reused whenever the same pair of types is
+	 * seen again. This matters because the subtype and lattice operations
+	 * are expensive (each requires a fixpoint computation over the type
+	 * graphs), and yet are applied repeatedly to the same types during type
+	 * propagation and code generation.
+	 * </p>
+	 * 
+	 * <p>
+	 * Caches are safe to use from multiple threads. They are bounded in size
+	 * and, rather than tracking which entries are least recently used, a
+	 * cache which becomes full is simply emptied. This keeps lookups free of
+	 * locking, and the cost is only that some results are recomputed.
+	 * </p>
+	 * 
+	 * @author djp
+	 * 
+	 */
+	public static final class Cache<T> {
+		private final ConcurrentHashMap<Pair<Type,Type>,T> results;
+		private final int limit;
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		
+		private Cache(int limit) {
+			this.limit = limit;
+			this.results = new ConcurrentHashMap<Pair<Type,Type>,T>();
+		}
+		
+		private T get(Pair<Type,Type> key) {
+			T r = results.get(key);
+			if(r != null) {
+				hits.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+			}
+			return r;
+		}
+		
+		private T put(Pair<Type,Type> key, T result) {
+			if(results.size() >= limit) {
+				results.clear();
+			}
+			results.put(key, result);
+			return result;
+		}
+		
+		/**
+		 * Return the number of lookups which found a result.
+		 */
+		public long hits() {
+			return hits.get();
+		}
+		
+		/**
+		 * Return the number of lookups which did not find a result.
+		 */
+		public long misses() {
+			return misses.get();
+		}
+		
+		/**
+		 * Return the number of results currently held.
+		 */
+		public int size() {
+			return results.size();
+		}
+		
+		/**
+		 * Discard all results, and reset the hit and miss counters.
+		 */
+		public void clear() {
+			results.clear();
+			hits.set(0);
+			misses.set(0);
+		}
+		
+		public String toString() {
+			return "hits=" + hits + ", misses=" + misses + ", size="
+					+ results.size();
+		}
+	}
+	
+	/**
+	 * The maximum number of results held by each cache.
+	 */
+	private static final int CACHE_LIMIT = 16384;
+	
+	/**
+	 * Caches results of <code>isSubtype(t1,t2)</code>.
+	 */
+	public static final Cache<Boolean> SUBTYPE_CACHE = new Cache<Boolean>(CACHE_LIMIT);
+	
+	/**
+	 * Caches results of <code>isCoerciveSubtype(t1,t2)</code>.
+	 */
+	public static final Cache<Boolean> COERCIVE_SUBTYPE_CACHE = new Cache<Boolean>(CACHE_LIMIT);
+	
+	/**
+	 * Caches results of <code>leastUpperBound(t1,t2)</code>.
+	 */
+	public static final Cache<Type> LUB_CACHE = new Cache<Type>(CACHE_LIMIT);
+	
+	/**
+	 * Caches results of <code>greatestLowerBound(t1,t2)</code>.
+	 */
+	public static final Cache<Type> GLB_CACHE = new Cache<Type>(CACHE_LIMIT);
+	
 	/**
 	 * Determine whether type <code>t2</code> is a <i>coercive subtype</i> of
 	 * type <code>t1</code> (written t1 :> t2). In other words, whether the set
 	 * of all possible values described by the type <code>t2</code> is a subset
 	 * of that described by <code>t1</code>.
 	 */
-	public static boolean isCoerciveSubtype(Type t1, Type t2) {				
+	public static boolean isCoerciveSubtype(Type t1, Type t2) {
+		Pair<Type,Type> key = new Pair<Type,Type>(t1,t2);
+		Boolean r = COERCIVE_SUBTYPE_CACHE.get(key);
+		if(r != null) {
+			return r;
+		}
 		Node[] g1 = nodes(t1);
 		Node[] g2 = nodes(t2);
 		SubtypeInference inference = new CoerciveSubtypeOperator(g1,g2);		
-		SubtypeRelation rel = inference.doInference();		
-		return rel.isSubtype(0, 0); 
+		SubtypeRelation rel = inference.doInference(0, 0);		
+		return COERCIVE_SUBTYPE_CACHE.put(key, rel.isSubtype(0, 0)); 
 	}
 	
 	/**
@@ -1435,12 +1741,20 @@ public abstract class Type {
 	 * all possible values described by the type <code>t2</code> is a subset of
 	 * that described by <code>t1</code>.
 	 */
-	public static boolean isSubtype(Type t1, Type t2) {				
+	public static boolean isSubtype(Type t1, Type t2) {
+		if(t1 == t2) {
+			return true;
+		}
+		Pair<Type,Type> key = new Pair<Type,Type>(t1,t2);
+		Boolean r = SUBTYPE_CACHE.get(key);
+		if(r != null) {
+			return r;
+		}
 		Node[] g1 = nodes(t1);
 		Node[] g2 = nodes(t2);
 		SubtypeInference inference = new DefaultSubtypeOperator(g1,g2);		
-		SubtypeRelation rel = inference.doInference();		
-		return rel.isSubtype(0, 0); 
+		SubtypeRelation rel = inference.doInference(0, 0);		
+		return SUBTYPE_CACHE.put(key, rel.isSubtype(0, 0)); 
 	}
 
 	/**
@@ -1466,7 +1780,12 @@ public abstract class Type {
 	 * @return
 	 */
 	public static Type leastUpperBound(Type t1, Type t2) {
-		return minimise(T_UNION(t1,t2)); // so easy
+		Pair<Type,Type> key = new Pair<Type,Type>(t1,t2);
+		Type r = LUB_CACHE.get(key);
+		if(r != null) {
+			return r;
+		}
+		return LUB_CACHE.put(key, minimise(T_UNION(t1,t2))); // so easy
 	}
 	
 	/**
@@ -1487,6 +1806,11 @@ public abstract class Type {
 		} else if(isSubtype(t2,t1)) {			
 			return t1;
 		} else {
+			Pair<Type,Type> key = new Pair<Type,Type>(t1,t2);
+			Type r = GLB_CACHE.get(key);
+			if(r != null) {
+				return r;
+			}
 			Node[] graph1, graph2;
 			if(t1 instanceof Leaf) {
 				graph1 = new Node[] { new Node(leafKind((Type.Leaf) t1), null) };
@@ -1501,7 +1825,7 @@ public abstract class Type {
 			ArrayList<Node> newNodes = new ArrayList<Node>();
 			intersect(0,graph1,0,graph2,newNodes, new HashMap());
 			Type glb = construct(newNodes.toArray(new Node[newNodes.size()]));				
-			return minimise(glb);
+			return GLB_CACHE.put(key, minimise(glb));
 		}
 	}
 
@@ -1772,8 +2096,8 @@ public abstract class Type {
 			for(int i=0;i!=elems.length;i++) {
 				int n1 = elems[i];
 				for(int j=0;j<elems.length;j++) {
-					if(i==j) { continue; }
 					int n2 = elems[j];	
+					if(i==j || n1==n2) { continue; } // bounds may share a node
 					if(assumptions.isSubtype(n1,n2) && (!assumptions.isSubtype(n2,n1) || i < j)) {				
 						nelems.remove(n2);												
 					}
@@ -2382,13 +2706,6 @@ public abstract class Type {
 		private Existential(NameID name) {
 			super(new Node[] { new Node(K_EXISTENTIAL,name) });
 		}
-		public boolean equals(Object o) {
-			if(o instanceof Existential) {
-				Existential e = (Existential) o;
-				return nodes[0].data.equals(nodes[0].data);
-			}
-			return false;
-		}
 		public NameID name() {
 			return (NameID) nodes[0].data;
 		}
@@ -2531,44 +2848,45 @@ public abstract class Type {
 	 */
 	private static class Compound extends Type {
 		protected final Node[] nodes;
+		private int hash;
 		
 		public Compound(Node[] nodes) {
 			this.nodes = nodes;
 		}
 
 		/**
-		 * Determine the hashCode of a type.
+		 * Determine the hashCode of a type. Since types are immutable, this
+		 * is computed once and then remembered, as types are frequently used
+		 * as keys in the type caches.
 		 */
 		public int hashCode() {
-			int r = 0;
-			for(Node c : nodes) {
-				r = r + c.hashCode();
+			int r = hash;
+			if(r == 0) {
+				for(Node c : nodes) {
+					r = r + c.hashCode();
+				}
+				hash = r;
 			}
 			return r;
 		}
 
 		/**
 		 * This method compares two compound types to test whether they are
-		 * <i>identical</i>. Observe that it does not perform an
-		 * <i>isomorphism</i> test. Thus, two distinct types which are
-		 * structurally isomorphic will <b>not</b> be considered equal under
-		 * this method. <b>NOTE:</b> to test whether two types are structurally
-		 * isomorphic, using the <code>isomorphic(t1,t2)</code> method.
+		 * <i>identical</i>. Since compound types are hash-consed, two types
+		 * are identical exactly when they are the same object. Their graphs
+		 * are only compared when this is not already known, which happens
+		 * when a newly constructed type is looked up amongst the canonical
+		 * types. Observe that
+		 * this does not perform an <i>isomorphism</i> test. Thus, two distinct
+		 * types which are isomorphic (e.g. <code>int|real</code> and
+		 * <code>real|int</code>) will <b>not</b> be considered equal under this
+		 * method. <b>NOTE:</b> to test whether two types are isomorphic, using
+		 * the <code>isomorphic(t1,t2)</code> method.
 		 */
-		public boolean equals(Object o) {
-			if(o instanceof Compound) {
-				Node[] cs = ((Compound) o).nodes;
-				if(cs.length != nodes.length) {
-					return false;
-				}
-				for(int i=0;i!=cs.length;++i) {
-					if(!nodes[i].equals(cs[i])) {
-						return false;
-					}
-				}
-				return true;
-			}
-			return false;
+		public final boolean equals(Object o) {
+			return o == this
+					|| (o instanceof Compound && Arrays.equals(nodes,
+							((Compound) o).nodes));
 		}
 		
 		/**
@@ -3218,6 +3536,7 @@ public abstract class Type {
 					case K_PROCESS:
 					case K_EXISTENTIAL:
 					case K_DICTIONARY:
+					case K_LABEL:
 						return data.equals(c.data);
 					case K_TUPLE:					
 					case K_FUNCTION:
@@ -3233,6 +3552,10 @@ public abstract class Type {
 		public int hashCode() {
 			if(data == null) {
 				return kind;
+			} else if(data instanceof int[]) {
+				return kind + Arrays.hashCode((int[]) data);
+			} else if(data instanceof Pair[]) {
+				return kind + Arrays.hashCode((Pair[]) data);
 			} else {
 				return kind + data.hashCode();
 			}
@@ -3388,15 +3711,47 @@ public abstract class Type {
 		return new Node(node.kind, data);
 	}
 
+	/**
+	 * The canonical compound types. Every compound type is constructed via
+	 * this interner, which ensures there is exactly one instance of any given
+	 * type. Since a type's graph is in canonical form (see
+	 * <code>canonicalise()</code>), two types with equal graphs are the same
+	 * type. Types are only held weakly, so those no longer in use (e.g. by a
+	 * finished compilation) are dropped.
+	 */
+	public static final Interner<Type> INTERNER = new Interner<Type>();
+	
 	/**
 	 * The construct methods constructs a Type from an array of Components.
 	 * It carefully ensures the kind of the root node matches the class
-	 * created (e.g. a kind K_SET results in a class Set).
+	 * created (e.g. a kind K_SET results in a class Set). Compound types are
+	 * first put into canonical form, and then hash-consed so that two types
+	 * with the same structure are always the same object.
 	 * 
 	 * @param nodes
 	 * @return
 	 */
 	private final static Type construct(Node[] nodes) {
+		if(nodes.length > 1) {
+			nodes = canonicalise(nodes);
+		}
+		Type type = create(nodes);
+		if(type instanceof Compound) {
+			type = INTERNER.intern(type);
+		}
+		return type;
+	}
+	
+	/**
+	 * Create a new instance of the Type corresponding to a graph. This is
+	 * only used by <code>construct()</code>, which ensures the graph is in
+	 * canonical form and then replaces the instance with the existing one for
+	 * it, if there is one.
+	 * 
+	 * @param nodes
+	 * @return
+	 */
+	private final static Type create(Node[] nodes) {
 		Node root = nodes[0];
 		switch(root.kind) {
 		case K_VOID:
@@ -3440,11 +3795,167 @@ public abstract class Type {
 			return new Union(nodes);
 		case K_FUNCTION:
 			return new Fun(nodes);		
+		case K_LABEL:
+			return new Compound(nodes);
 		default:
 			throw new IllegalArgumentException("invalid node kind: " + root.kind);
 		}
 	}
 	
+	/**
+	 * <p>
+	 * Put a type graph into canonical form. Two graphs have the same
+	 * canonical form exactly when they describe the same (possibly infinite)
+	 * type tree. This is achieved in two steps:
+	 * </p>
+	 * <ol>
+	 * <li>Nodes which are structurally equivalent are merged. This is the
+	 * standard minimisation algorithm for deterministic automata, where the
+	 * nodes are repeatedly partitioned by their own kind and the partitions of
+	 * their children, until no partition can be split further.</li>
+	 * <li>The remaining nodes are numbered in the order they are visited by a
+	 * depth-first search from the root, where children are visited in order.
+	 * Nodes unreachable from the root are dropped.</li>
+	 * </ol>
+	 * <p>
+	 * Note that this is not the same as <code>minimise()</code>, which
+	 * additionally simplifies types using the subtype relation. Here, a type
+	 * such as <code>int|int</code> is left alone, although both bounds will
+	 * refer to the same node.
+	 * </p>
+	 * 
+	 * @param nodes
+	 * @return
+	 */
+	private static Node[] canonicalise(Node[] nodes) {
+		// First, partition nodes by their labels
+		int[] partition = new int[nodes.length];
+		HashMap<Object, Integer> ids = new HashMap<Object, Integer>();
+		for (int i = 0; i != nodes.length; ++i) {
+			partition[i] = identify(label(nodes[i]), ids);
+		}
+		// Second, refine the partition until it stabilises
+		int size = ids.size();
+		while (true) {
+			ids.clear();
+			int[] npartition = new int[nodes.length];
+			for (int i = 0; i != nodes.length; ++i) {
+				int[] children = children(nodes[i]);
+				ArrayList<Integer> signature = new ArrayList<Integer>();
+				signature.add(partition[i]);
+				for (int c : children) {
+					signature.add(c == -1 ? -1 : partition[c]);
+				}
+				npartition[i] = identify(signature, ids);
+			}
+			partition = npartition;
+			if (ids.size() == size) {
+				break;
+			}
+			size = ids.size();
+		}
+		// Third, number the partitions in depth-first order
+		int[] order = new int[size];
+		Arrays.fill(order, -1);
+		ArrayList<Integer> visited = new ArrayList<Integer>();
+		number(0, nodes, partition, order, visited);
+		int[] rmap = new int[nodes.length];
+		for (int i = 0; i != nodes.length; ++i) {
+			rmap[i] = order[partition[i]];
+		}
+		Node[] newnodes = new Node[visited.size()];
+		for (int i = 0; i != newnodes.length; ++i) {
+			newnodes[i] = remap(nodes[visited.get(i)], rmap);
+		}
+		return newnodes;
+	}
+	
+	private static void number(int index, Node[] nodes, int[] partition,
+			int[] order, ArrayList<Integer> visited) {
+		int p = partition[index];
+		if (order[p] != -1) {
+			return; // partition already visited
+		}
+		order[p] = visited.size();
+		visited.add(index);
+		for (int c : children(nodes[index])) {
+			if (c != -1) { // possible with K_FUNCTION
+				number(c, nodes, partition, order, visited);
+			}
+		}
+	}
+	
+	private static int identify(Object key, HashMap<Object, Integer> ids) {
+		Integer id = ids.get(key);
+		if (id == null) {
+			id = ids.size();
+			ids.put(key, id);
+		}
+		return id;
+	}
+	
+	/**
+	 * Determine the label of a node, which is everything about the node other
+	 * than the identity of its children. For example, the label of a record
+	 * node includes its field names.
+	 * 
+	 * @param node
+	 * @return
+	 */
+	private static Object label(Node node) {
+		switch (node.kind) {
+		case K_EXISTENTIAL:
+		case K_LABEL:
+			return new Pair<Object, Object>(node.kind, node.data);
+		case K_RECORD:
+			Pair<String, Integer>[] fields = (Pair<String, Integer>[]) node.data;
+			ArrayList<Object> label = new ArrayList<Object>();
+			label.add(node.kind);
+			for (Pair<String, Integer> f : fields) {
+				label.add(f.first());
+			}
+			return label;
+		default:
+			return node.kind;
+		}
+	}
+	
+	/**
+	 * Determine the children of a node, in order. For functions without a
+	 * receiver, the first child is -1.
+	 * 
+	 * @param node
+	 * @return
+	 */
+	private static int[] children(Node node) {
+		switch (node.kind) {
+		case K_SET:
+		case K_LIST:
+		case K_PROCESS:
+			// unary nodes
+			return new int[] { (Integer) node.data };
+		case K_DICTIONARY:
+			// binary node
+			Pair<Integer, Integer> p = (Pair<Integer, Integer>) node.data;
+			return new int[] { p.first(), p.second() };
+		case K_TUPLE:
+		case K_UNION:
+		case K_FUNCTION:
+			// nary node
+			return (int[]) node.data;
+		case K_RECORD:
+			// labeled nary node
+			Pair<String, Integer>[] fields = (Pair<String, Integer>[]) node.data;
+			int[] children = new int[fields.length];
+			for (int i = 0; i != fields.length; ++i) {
+				children[i] = fields[i].second();
+			}
+			return children;
+		default:
+			return new int[0];
+		}
+	}
+	
 	public static void main(String[] args) {				
 		PrintBuilder printer = new PrintBuilder(System.out);
 		Type t1 = linkedList();
@@ -28,6 +28,7 @@ package wyil.lang;
 import java.math.BigInteger;
 import java.util.*;
 
+import wyil.util.Interner;
 import wyil.util.Pair;
 import wyjc.runtime.BigRational;
 
@@ -823,17 +824,13 @@ public abstract class Value implements Comparable<Value> {
 		}
 	}
 	
-	private static final ArrayList<Value> values = new ArrayList<Value>();
-	private static final HashMap<Value,java.lang.Integer> cache = new HashMap<Value,java.lang.Integer>();
+	/**
+	 * The interned values. Every value is constructed via this, which ensures
+	 * there is only one instance of any given value in use at a time.
+	 */
+	public static final Interner<Value> INTERNER = new Interner<Value>();
 	
 	private static <T extends Value> T get(T type) {
-		java.lang.Integer idx = cache.get(type);
-		if(idx != null) {
-			return (T) values.get(idx);
-		} else {					
-			cache.put(type, values.size());
-			values.add(type);
-			return type;
-		}
+		return (T) INTERNER.intern(type);
 	}
 }
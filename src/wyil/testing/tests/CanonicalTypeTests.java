@@ -0,0 +1,98 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.testing.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.junit.*;
+import wyil.lang.Type;
+
+/**
+ * Checks that compound types are hash-consed, such that constructing the same
+ * type twice always gives the same object, and that types which are no longer
+ * used are not held onto.
+ * 
+ * @author djp
+ * 
+ */
+public class CanonicalTypeTests {
+	@Test public void Compound_Identity() {
+		assertSame(Type.T_LIST(Type.T_INT), Type.T_LIST(Type.T_INT));
+		assertSame(Type.T_UNION(Type.T_INT, Type.T_NULL),
+				Type.T_UNION(Type.T_INT, Type.T_NULL));
+		assertSame(Type.T_DICTIONARY(Type.T_STRING, Type.T_SET(Type.T_REAL)),
+				Type.T_DICTIONARY(Type.T_STRING, Type.T_SET(Type.T_REAL)));
+		assertNotSame(Type.T_LIST(Type.T_INT), Type.T_SET(Type.T_INT));
+		assertFalse(Type.T_LIST(Type.T_INT).equals(Type.T_LIST(Type.T_REAL)));
+	}
+	
+	@Test public void FromString_Identity() {
+		assertSame(Type.T_LIST(Type.T_INT), Type.fromString("[int]"));
+		HashMap<String,Type> fields = new HashMap<String,Type>();
+		fields.put("x", Type.T_INT);
+		fields.put("y", Type.T_UNION(Type.T_BOOL, Type.T_NULL));
+		assertSame(Type.T_RECORD(fields), Type.fromString("{int x,bool|null y}"));
+	}
+	
+	@Test public void Recursive_Identity() {
+		assertSame(Type.linkedList(), Type.linkedList());
+	}
+	
+	@Test public void Label_Identity() {
+		assertSame(Type.T_LABEL("X"), Type.T_LABEL("X"));
+		assertEquals(Type.T_LABEL("X"), Type.T_LABEL("X"));
+		assertFalse(Type.T_LABEL("X").equals(Type.T_LABEL("Y")));
+		assertSame(Type.T_LIST(Type.T_LABEL("X")), Type.T_LIST(Type.T_LABEL("X")));
+		assertNotSame(Type.T_LIST(Type.T_LABEL("X")), Type.T_LIST(Type.T_LABEL("Y")));
+	}
+	
+	@Test public void Label_NoLeak() {
+		Type label = Type.T_LABEL("X");
+		int size = Type.INTERNER.size();
+		for(int i=0;i!=100;++i) {
+			assertSame(label, Type.T_LABEL("X"));
+		}
+		assertEquals(size, Type.INTERNER.size());
+	}
+	
+	@Test public void Unused_Collected() throws InterruptedException {
+		Type[] types = new Type[1000];
+		for(int i=0;i!=types.length;++i) {
+			HashMap<String,Type> fields = new HashMap<String,Type>();
+			fields.put("unused" + i, Type.T_INT);
+			types[i] = Type.T_RECORD(fields);
+		}
+		int size = Type.INTERNER.size();
+		types = null;
+		for(int i=0;i!=100 && Type.INTERNER.size() >= size;++i) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertTrue(Type.INTERNER.size() < size);
+	}
+}
@@ -0,0 +1,196 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.testing.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.*;
+import wyil.lang.Type;
+import wyil.lang.Type.SubtypeInference;
+import wyil.lang.Type.SubtypeRelation;
+
+/**
+ * Checks the subtype inference against the original algorithm, which sweeps
+ * over every pair of nodes until no assumption changes. This is done for
+ * randomly generated pairs of types, using a fixed seed so that any failure
+ * can be reproduced.
+ * 
+ * @author djp
+ * 
+ */
+public class SubtypeTests {
+	private static final long SEED = 20111018;
+	private static final int COUNT = 2000;
+	
+	@Test public void Subtype_Random() {
+		Type.SUBTYPE_CACHE.clear();
+		Random random = new Random(SEED);
+		for(int i=0;i!=COUNT;++i) {
+			Type t1 = randomType(random, 3);
+			Type t2 = randomType(random, 3);
+			SubtypeRelation expected = new DefaultSweep(t1, t2).sweep();
+			SubtypeRelation actual = new Type.DefaultSubtypeOperator(t1, t2).doInference();
+			assertEquals(t1 + " :> " + t2, expected.toString(), actual.toString());
+			assertEquals(t1 + " :> " + t2, expected.isSubtype(0, 0),
+					Type.isSubtype(t1, t2));
+		}
+	}
+	
+	@Test public void CoerciveSubtype_Random() {
+		Type.COERCIVE_SUBTYPE_CACHE.clear();
+		Random random = new Random(SEED);
+		for(int i=0;i!=COUNT;++i) {
+			Type t1 = randomType(random, 3);
+			Type t2 = randomType(random, 3);
+			SubtypeRelation expected = new CoerciveSweep(t1, t2).sweep();
+			SubtypeRelation actual = new Type.CoerciveSubtypeOperator(t1, t2).doInference();
+			assertEquals(t1 + " :> " + t2, expected.toString(), actual.toString());
+			assertEquals(t1 + " :> " + t2, expected.isSubtype(0, 0),
+					Type.isCoerciveSubtype(t1, t2));
+		}
+	}
+	
+	@Test public void Subtype_Recursive() {
+		Type list = Type.linkedList();
+		HashMap<String,Type> fields = new HashMap<String,Type>();
+		fields.put("next", Type.T_UNION(Type.T_NULL, Type.T_LABEL("X")));
+		fields.put("data", Type.T_UNION(Type.T_BOOL, Type.T_INT));
+		Type wider = Type.T_RECURSIVE("X", Type.T_RECORD(fields));
+		assertTrue(Type.isSubtype(wider, list));
+		assertFalse(Type.isSubtype(list, wider));
+		assertEquals(new DefaultSweep(wider, list).sweep().toString(),
+				new Type.DefaultSubtypeOperator(wider, list).doInference().toString());
+	}
+	
+	private static final Type[] LEAVES = { Type.T_VOID, Type.T_ANY,
+			Type.T_NULL, Type.T_BOOL, Type.T_BYTE, Type.T_CHAR, Type.T_INT,
+			Type.T_REAL, Type.T_STRING };
+	
+	private static final String[] FIELDS = { "f", "g", "h" };
+	
+	/**
+	 * Generate a random type, whose depth is at most that given (besides any
+	 * recursion).
+	 */
+	private static Type randomType(Random random, int depth) {
+		if(depth == 0) {
+			return LEAVES[random.nextInt(LEAVES.length)];
+		}
+		depth = depth - 1;
+		switch(random.nextInt(9)) {
+		case 0:
+			return Type.T_LIST(randomType(random, depth));
+		case 1:
+			return Type.T_SET(randomType(random, depth));
+		case 2:
+			return Type.T_DICTIONARY(randomType(random, depth),
+					randomType(random, depth));
+		case 3:
+			return Type.T_TUPLE(randomType(random, depth),
+					randomType(random, depth));
+		case 4:
+		case 5:
+			return Type.T_UNION(randomType(random, depth),
+					randomType(random, depth));
+		case 6:
+			return randomRecord(random, depth, null);
+		case 7:
+			// a recursive type, such as X<null|{X f, int g}>
+			Type body = randomRecord(random, depth, Type.T_LABEL("X"));
+			return Type.T_RECURSIVE("X",
+					Type.T_UNION(randomType(random, 0), body));
+		default:
+			return LEAVES[random.nextInt(LEAVES.length)];
+		}
+	}
+	
+	/**
+	 * Generate a random record. If a label is given, then the first field has
+	 * that type.
+	 */
+	private static Type randomRecord(Random random, int depth, Type label) {
+		HashMap<String,Type> fields = new HashMap<String,Type>();
+		int nfields = 1 + random.nextInt(FIELDS.length);
+		for(int i=0;i!=nfields;++i) {
+			Type field = (i == 0 && label != null) ? label : randomType(random, depth);
+			fields.put(FIELDS[i], field);
+		}
+		return Type.T_RECORD(fields);
+	}
+	
+	/**
+	 * The original inference: every pair of nodes is examined in turn, and the
+	 * assumptions which cannot be justified are removed, until a sweep removes
+	 * none.
+	 */
+	private static SubtypeRelation sweep(SubtypeInference inference,
+			SubtypeRelation assumptions) {
+		int fromDomain = assumptions.fromDomain();
+		int toDomain = assumptions.toDomain();
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(int i=0;i!=fromDomain;i++) {
+				for(int j=0;j!=toDomain;j++) {
+					boolean isubj = inference.isSubType(i,j);
+					boolean isupj = inference.isSuperType(i,j);
+					if(assumptions.isSubtype(i,j) && !isubj) {
+						assumptions.setSubtype(i,j,false);
+						changed = true;
+					}
+					if(assumptions.isSupertype(i,j) && !isupj) {
+						assumptions.setSupertype(i,j,false);
+						changed = true;
+					}
+				}
+			}
+		}
+		return assumptions;
+	}
+	
+	private static final class DefaultSweep extends Type.DefaultSubtypeOperator {
+		public DefaultSweep(Type from, Type to) {
+			super(from, to);
+		}
+		
+		public SubtypeRelation sweep() {
+			return SubtypeTests.sweep(this, assumptions);
+		}
+	}
+	
+	private static final class CoerciveSweep extends Type.CoerciveSubtypeOperator {
+		public CoerciveSweep(Type from, Type to) {
+			super(from, to);
+		}
+		
+		public SubtypeRelation sweep() {
+			return SubtypeTests.sweep(this, assumptions);
+		}
+	}
+}
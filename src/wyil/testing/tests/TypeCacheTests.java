@@ -0,0 +1,121 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.testing.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.junit.*;
+import wyil.lang.Type;
+
+/**
+ * Checks that the results of subtype and lattice operations are cached, and
+ * that cached results are the same as those computed afresh.
+ * 
+ * @author djp
+ * 
+ */
+public class TypeCacheTests {
+	private static final Type INT_OR_NULL = Type.T_UNION(Type.T_INT, Type.T_NULL);
+	private static final Type INT_OR_BOOL = Type.T_UNION(Type.T_INT, Type.T_BOOL);
+	
+	@Test public void Subtype_HitMiss() {
+		Type.Cache<Boolean> cache = Type.SUBTYPE_CACHE;
+		cache.clear();
+		assertTrue(Type.isSubtype(INT_OR_NULL, Type.T_INT));
+		assertEquals(0, cache.hits());
+		assertEquals(1, cache.misses());
+		assertTrue(Type.isSubtype(INT_OR_NULL, Type.T_INT));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+		// the reverse is a different question
+		assertFalse(Type.isSubtype(Type.T_INT, INT_OR_NULL));
+		assertFalse(Type.isSubtype(Type.T_INT, INT_OR_NULL));
+		assertEquals(2, cache.hits());
+		assertEquals(2, cache.misses());
+		assertEquals(2, cache.size());
+	}
+	
+	@Test public void Subtype_Identical() {
+		Type.Cache<Boolean> cache = Type.SUBTYPE_CACHE;
+		cache.clear();
+		assertTrue(Type.isSubtype(INT_OR_NULL, INT_OR_NULL));
+		assertEquals(0, cache.hits() + cache.misses());
+	}
+	
+	@Test public void CoerciveSubtype_HitMiss() {
+		Type.Cache<Boolean> cache = Type.COERCIVE_SUBTYPE_CACHE;
+		cache.clear();
+		assertTrue(Type.isCoerciveSubtype(Type.T_REAL, Type.T_INT));
+		assertTrue(Type.isCoerciveSubtype(Type.T_REAL, Type.T_INT));
+		assertFalse(Type.isSubtype(Type.T_REAL, Type.T_INT));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+	}
+	
+	@Test public void LeastUpperBound_HitMiss() {
+		Type.Cache<Type> cache = Type.LUB_CACHE;
+		cache.clear();
+		Type lub = Type.leastUpperBound(INT_OR_NULL, INT_OR_BOOL);
+		assertSame(lub, Type.leastUpperBound(INT_OR_NULL, INT_OR_BOOL));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+		assertTrue(Type.isSubtype(lub, INT_OR_NULL));
+		assertTrue(Type.isSubtype(lub, INT_OR_BOOL));
+		cache.clear();
+		assertSame(lub, Type.leastUpperBound(INT_OR_NULL, INT_OR_BOOL));
+		assertEquals(1, cache.misses());
+	}
+	
+	@Test public void GreatestLowerBound_HitMiss() {
+		Type.Cache<Type> cache = Type.GLB_CACHE;
+		cache.clear();
+		Type glb = Type.greatestLowerBound(INT_OR_NULL, INT_OR_BOOL);
+		assertSame(glb, Type.greatestLowerBound(INT_OR_NULL, INT_OR_BOOL));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+		assertTrue(Type.isSubtype(INT_OR_NULL, glb));
+		assertTrue(Type.isSubtype(INT_OR_BOOL, glb));
+		cache.clear();
+		assertSame(glb, Type.greatestLowerBound(INT_OR_NULL, INT_OR_BOOL));
+		assertEquals(1, cache.misses());
+	}
+	
+	@Test public void Bounded() {
+		Type.Cache<Boolean> cache = Type.SUBTYPE_CACHE;
+		cache.clear();
+		int max = 0;
+		for(int i=0;i!=20000;++i) {
+			HashMap<String,Type> fields = new HashMap<String,Type>();
+			fields.put("f" + i, Type.T_INT);
+			assertFalse(Type.isSubtype(Type.T_RECORD(fields), Type.T_INT));
+			max = Math.max(max, cache.size());
+		}
+		assertEquals(20000, cache.misses());
+		assertTrue(max < 20000);
+	}
+}
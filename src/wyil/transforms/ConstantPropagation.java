@@ -41,7 +41,7 @@ import wyil.util.dfa.ForwardFlowAnalysis;
 import wyjc.runtime.BigRational;
 
 public class ConstantPropagation extends ForwardFlowAnalysis<ConstantPropagation.Env> {	
-	private static final HashMap<Integer,Rewrite> rewrites = new HashMap<Integer,Rewrite>();
+	private final HashMap<Integer,Rewrite> rewrites = new HashMap<Integer,Rewrite>();
 	
 	public ConstantPropagation(ModuleLoader loader) {
 		super(loader);
@@ -555,7 +555,8 @@ public class ConstantPropagation extends ForwardFlowAnalysis<ConstantPropagation
 		
 		// TO DO: I could definite do more here
 		
-		int npop = code.level - code.fields.size();
+		// pop the indices, along with the value being assigned
+		int npop = code.level - code.fields.size() + 1;
 		for(int i=0;i!=npop;++i) {
 			environment.pop();
 		}
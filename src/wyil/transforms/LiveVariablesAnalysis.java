@@ -0,0 +1,196 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.transforms;
+
+import java.util.*;
+
+import wyil.ModuleLoader;
+import wyil.lang.*;
+import wyil.util.dfa.*;
+import static wyil.lang.Block.*;
+
+/**
+ * <p>
+ * The purpose of this class is to determine, for every <code>load</code>
+ * bytecode in a method, whether or not the variable being loaded is live
+ * afterwards. A variable is live at a given point if its current value may be
+ * read at some later point. For example:
+ * </p>
+ * 
+ * <pre>
+ * [int] f([int] xs):
+ *     ys = xs
+ *     ys[0] = 1
+ *     return ys
+ * </pre>
+ * 
+ * <p>
+ * In the above example, variable <code>xs</code> is not live after it is
+ * loaded in the first statement. This information is used by the back-end to
+ * avoid incrementing the reference count of a value whose last use has been
+ * reached, which in turn allows the update of <code>ys</code> to occur in
+ * place.
+ * </p>
+ * 
+ * @author djp
+ * 
+ */
+public class LiveVariablesAnalysis extends BackwardFlowAnalysis<HashSet<Integer>> {
+	private IdentityHashMap<Entry,Boolean> liveAfter;
+	
+	public LiveVariablesAnalysis(ModuleLoader loader) {
+		super(loader);
+	}
+
+	/**
+	 * Determine the variables which are live after each load bytecode in the
+	 * given method case.
+	 * 
+	 * @param mcase
+	 * @return
+	 */
+	public IdentityHashMap<Entry, Boolean> analyse(Module.Case mcase) {
+		liveAfter = new IdentityHashMap<Entry,Boolean>();
+		propagate(mcase);
+		return liveAfter;
+	}
+	
+	/**
+	 * Determine whether the variable loaded by the given bytecode is live
+	 * after it. In the case that no information is available, then the
+	 * variable is conservatively assumed to be live.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean isLiveAfter(Entry entry) {
+		Boolean b = liveAfter.get(entry);
+		return b == null || b;
+	}
+	
+	protected HashSet<Integer> lastStore() {
+		return new HashSet<Integer>();
+	}
+	
+	public HashSet<Integer> propagate(int index, Entry entry,
+			HashSet<Integer> out) {
+		Code code = entry.code;
+		out = nonNull(out);
+		
+		if (code instanceof Code.Load) {
+			Code.Load load = (Code.Load) code;
+			liveAfter.put(entry, out.contains(load.slot));
+			out = new HashSet<Integer>(out);
+			out.add(load.slot);
+		} else if (code instanceof Code.Store) {
+			Code.Store store = (Code.Store) code;
+			out = new HashSet<Integer>(out);
+			out.remove(store.slot);
+		} else if (code instanceof Code.Update) {
+			// an update both reads and writes the variable in question.
+			Code.Update update = (Code.Update) code;
+			out = new HashSet<Integer>(out);
+			out.add(update.slot);
+		} else if (code instanceof Code.Return || code instanceof Code.Fail
+				|| code instanceof Code.Throw) {
+			out = new HashSet<Integer>();
+		}
+		
+		return out;
+	}
+
+	public HashSet<Integer> propagate(int index, Code.IfGoto igoto,
+			Entry stmt, HashSet<Integer> trueStore, HashSet<Integer> falseStore) {
+		return join(trueStore, falseStore);
+	}
+
+	public HashSet<Integer> propagate(int index, Code.IfType iftype,
+			Entry stmt, HashSet<Integer> trueStore, HashSet<Integer> falseStore) {
+		HashSet<Integer> in = join(trueStore, falseStore);
+		if (iftype.slot >= 0) {
+			in.add(iftype.slot);
+		}
+		return in;
+	}
+
+	public HashSet<Integer> propagate(int index, Code.Switch sw, Entry stmt,
+			List<HashSet<Integer>> stores, HashSet<Integer> defStore) {
+		HashSet<Integer> in = nonNull(defStore);
+		for (HashSet<Integer> store : stores) {
+			in = join(in, store);
+		}
+		return in;
+	}
+
+	public HashSet<Integer> propagate(int start, int end, Code.Loop loop,
+			Entry stmt, HashSet<Integer> out) {
+		out = nonNull(out);
+		
+		// Variables live on exit from the loop are live at the exit label, and
+		// on the back edge to the loop head.
+		HashSet<Integer> head = out;
+		HashSet<Integer> old;
+		do {
+			// iterate until a fixed point reached
+			old = head;
+			stores.put(loop.target, out);
+			head = join(out, propagate(start + 1, end, join(out, old)));
+		} while (!head.equals(old));
+
+		if (loop instanceof Code.ForAll) {
+			Code.ForAll fall = (Code.ForAll) loop;
+			head.remove(fall.slot);
+		}
+
+		return head;
+	}
+
+	protected HashSet<Integer> join(HashSet<Integer> s1, HashSet<Integer> s2) {
+		HashSet<Integer> r = new HashSet<Integer>(nonNull(s1));
+		// set union
+		r.addAll(nonNull(s2));
+		return r;
+	}
+
+	/**
+	 * A missing store arises from a branch to a label which has not yet been
+	 * encountered. Since we know nothing about such a branch, we must
+	 * conservatively assume every variable is live there.
+	 * 
+	 * @param store
+	 * @return
+	 */
+	private HashSet<Integer> nonNull(HashSet<Integer> store) {
+		if (store != null) {
+			return store;
+		}
+		HashSet<Integer> all = new HashSet<Integer>();
+		for (int i = 0; i != methodCase.locals().size(); ++i) {
+			all.add(i);
+		}
+		return all;
+	}
+}
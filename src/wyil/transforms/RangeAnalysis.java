@@ -0,0 +1,837 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.transforms;
+
+import java.math.BigInteger;
+import java.util.*;
+
+import wyil.ModuleLoader;
+import wyil.lang.*;
+import wyil.lang.Code.*;
+import wyil.util.Pair;
+import wyil.util.SyntaxError;
+import wyil.util.dfa.*;
+import static wyil.lang.Block.*;
+
+/**
+ * <p>
+ * The purpose of this class is to determine, for every integer value computed
+ * in a method, an interval which bounds that value. For example:
+ * </p>
+ * 
+ * <pre>
+ * int sum([int] xs):
+ *     i = 0
+ *     r = 0
+ *     while i < |xs|:
+ *         r = r + xs[i]
+ *         i = i + 1
+ *     return r
+ * </pre>
+ * 
+ * <p>
+ * Here, variable <code>i</code> is determined to lie between <code>0</code>
+ * and <code>2^31-1</code> (since the length of a list can never exceed this).
+ * In contrast, nothing can be said about variable <code>r</code>. This
+ * information is used by the back-end to represent variables such as
+ * <code>i</code> using primitive integers, rather than unbounded integers.
+ * </p>
+ * 
+ * <p>
+ * To ensure termination, the analysis widens the interval of each variable at
+ * the head of a loop. Widening moves an unstable bound to the next threshold
+ * (either the range of a 32-bit or 64-bit integer), and then to infinity.
+ * Conditional branches are used to narrow the interval of any variable being
+ * compared, which is what allows loop counters to remain bounded.
+ * </p>
+ * 
+ * <p>
+ * <b>NOTE:</b> if the analysis encounters a bytecode which it does not
+ * understand, then it gives up and nothing is known about any value.
+ * </p>
+ * 
+ * @author djp
+ * 
+ */
+public class RangeAnalysis extends ForwardFlowAnalysis<RangeAnalysis.Env> {
+	private static final BigInteger INT_MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+	private static final BigInteger INT_MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+	private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+	private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+	
+	/**
+	 * The interval of any length is bounded by the maximum size of a Java
+	 * collection.
+	 */
+	private static final Interval LENGTH = new Interval(BigInteger.ZERO, INT_MAX);
+	
+	private IdentityHashMap<Entry,Interval> ranges;
+	private IdentityHashMap<Entry,Entry[]> operands;
+	private HashMap<Integer,Interval> slots;
+	private HashSet<Integer> excluded;
+	private int nparams;
+	private boolean failed;
+	
+	public RangeAnalysis(ModuleLoader loader) {
+		super(loader);
+	}
+
+	/**
+	 * Determine the range of every integer value computed in the given method
+	 * case.
+	 * 
+	 * @param method
+	 *            --- the method enclosing the case.
+	 * @param mcase
+	 *            --- the case to be analysed.
+	 * @return false if the analysis could not be completed.
+	 */
+	public boolean analyse(Module.Method method, Module.Case mcase) {
+		Type.Fun ft = method.type();
+		this.method = method;
+		this.nparams = ft.params().size() + (ft.receiver() != null ? 1 : 0);
+		this.ranges = new IdentityHashMap<Entry,Interval>();
+		this.operands = new IdentityHashMap<Entry,Entry[]>();
+		this.slots = new HashMap<Integer,Interval>();
+		this.excluded = new HashSet<Integer>();
+		this.failed = false;
+		try {
+			propagate(mcase);
+			failed |= !resolveOperands(mcase.body());
+		} catch(Unanalysable e) {
+			failed = true;
+		} catch(SyntaxError e) {
+			// the flow analysis reports exceptions as internal failures
+			if(!(e.getCause() instanceof Unanalysable)) {
+				throw e;
+			}
+			failed = true;
+		}
+		if(failed) {
+			ranges.clear();
+			slots.clear();
+			operands.clear();
+		}
+		return !failed;
+	}
+
+	/**
+	 * Get the interval of the value produced by a given bytecode. If nothing
+	 * is known about this value (e.g. because it's not an integer) then the
+	 * unbounded interval is returned.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public Interval range(Entry entry) {
+		Interval r = ranges.get(entry);
+		return r == null ? Interval.TOP : r;
+	}
+	
+	/**
+	 * Get the interval of all integer values which are assigned to a given
+	 * variable. The unbounded interval is returned for any variable which is
+	 * not always an integer, which is a parameter, or whose type is otherwise
+	 * changed or updated.
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public Interval range(int slot) {
+		Interval r = slots.get(slot);
+		if(r == null || slot < nparams || excluded.contains(slot)) {
+			return Interval.TOP;
+		}
+		return r;
+	}
+	
+	/**
+	 * Get the bytecodes which produced the operands consumed by a given
+	 * bytecode. The first operand is the one which was pushed first.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public Entry[] operands(Entry entry) {
+		Entry[] r = operands.get(entry);
+		return r == null ? new Entry[0] : r;
+	}
+	
+	public Env initialStore() {
+		Env env = new Env();
+		int nvars = methodCase.locals().size();
+		for(int i=0;i!=nvars;++i) {
+			// parameters can hold any value, whilst other variables are not yet
+			// defined.
+			env.locals.add(i < nparams ? Interval.TOP : null);
+		}
+		return env;
+	}
+	
+	public Env propagate(int index, Entry entry, Env env) {		
+		Code code = entry.code;
+		int[] effect = stackEffect(code);
+		if(effect == null) {
+			throw new Unanalysable("unknown bytecode encountered: " + code);
+		}
+		env = new Env(env);		
+		Item[] ops = env.pop(effect[0]);
+		Interval result = Interval.TOP;
+		Interval element = null;
+		int source = -1;
+		
+		if(code instanceof Load) {
+			Load l = (Load) code;
+			if(l.type instanceof Type.Int) {
+				result = env.get(l.slot);
+				source = l.slot;
+			} else {
+				excluded.add(l.slot);
+			}
+		} else if(code instanceof Store) {
+			Store s = (Store) code;
+			if(s.type instanceof Type.Int) {
+				assign(env, s.slot, ops[0].range);
+			} else {
+				excluded.add(s.slot);
+				env.locals.set(s.slot, Interval.TOP);
+			}
+		} else if(code instanceof Update) {
+			Update u = (Update) code;
+			excluded.add(u.slot);
+			env.locals.set(u.slot, Interval.TOP);
+		} else if(code instanceof Const) {
+			Const c = (Const) code;
+			if(c.constant instanceof Value.Integer) {
+				BigInteger v = ((Value.Integer) c.constant).value;
+				result = new Interval(v,v);
+			}
+		} else if(code instanceof BinOp) {
+			BinOp bop = (BinOp) code;
+			result = infer(bop, ops[0].range, ops[1].range);
+			if(bop.bop == BOp.RANGE) {
+				element = ops[0].range.join(ops[1].range);
+			}
+		} else if(code instanceof Negate) {
+			Negate n = (Negate) code;
+			if(n.type instanceof Type.Int) {
+				result = ops[0].range.negate();
+			}
+		} else if(code instanceof Convert) {
+			Convert c = (Convert) code;
+			if(c.from instanceof Type.Int && c.to instanceof Type.Int) {
+				result = ops[0].range;
+			}
+		} else if (code instanceof ListLength || code instanceof SetLength
+				|| code instanceof StringLength) {
+			result = LENGTH;
+		}
+		
+		if(effect[1] == 1) {
+			Interval old = ranges.get(entry);
+			ranges.put(entry, old == null ? result : old.join(result));
+			env.stack.add(new Item(result, source, element));
+		} else {
+			for(int i=0;i!=effect[1];++i) {
+				env.stack.add(new Item(Interval.TOP, -1, null));
+			}
+		}
+		
+		return env;
+	}
+	
+	public Pair<Env, Env> propagate(int index, IfGoto code, Entry entry,
+			Env env) {
+		env = new Env(env);
+		Item[] ops = env.pop(2);
+		if(!(code.type instanceof Type.Int)) {
+			return new Pair<Env,Env>(env,env);
+		}
+		Env trueEnv = refine(new Env(env), code.op, ops[0], ops[1]);
+		Env falseEnv = refine(new Env(env), negate(code.op), ops[0], ops[1]);
+		return new Pair<Env,Env>(trueEnv,falseEnv);
+	}
+
+	public Pair<Env, Env> propagate(int index, IfType code, Entry entry,
+			Env env) {
+		env = new Env(env);
+		if(code.slot >= 0) {
+			// the variable is being retyped
+			excluded.add(code.slot);
+			env.locals.set(code.slot, Interval.TOP);
+		} else {
+			env.pop(1);
+		}
+		return new Pair<Env,Env>(env,env);
+	}
+	
+	public List<Env> propagate(int index, Switch sw, Entry entry, Env env) {
+		env = new Env(env);
+		env.pop(1);
+		ArrayList<Env> stores = new ArrayList<Env>();
+		for(int i=0;i!=sw.branches.size();++i) {
+			stores.add(env);
+		}
+		return stores;
+	}
+	
+	public Env propagate(int start, int end, Loop loop, Entry entry, Env env) {
+		env = new Env(env);
+		Interval element = null;
+		
+		if(loop instanceof ForAll) {
+			ForAll fall = (ForAll) loop;
+			Item src = env.pop(1)[0];
+			element = src.element != null && fall.type instanceof Type.List ? src.element
+					: Interval.TOP;
+			if(!(fall.type instanceof Type.List || fall.type instanceof Type.Set)
+					|| !(elementType(fall.type) instanceof Type.Int)) {
+				excluded.add(fall.slot);
+			}
+			assign(env, fall.slot, element);
+		} 
+		
+		Env head = env;
+		Env old;
+		
+		do {
+			// iterate until a fixed point is reached, widening at the loop head
+			// to ensure this happens.
+			old = head;
+			Env out = propagate(start+1,end,head);
+			Env next = join(head,out);
+			if(loop instanceof ForAll) {
+				ForAll fall = (ForAll) loop;
+				next.locals.set(fall.slot,element);
+			}
+			head = widen(old,next);
+		} while(!head.equals(old));
+		
+		return join(head, stores.get(loop.target));
+	}
+	
+	public Env join(Env env1, Env env2) {
+		if(env2 == null) {
+			return env1;
+		} else if(env1 == null) {
+			return env2;
+		} else if(env1.stack.size() != env2.stack.size()) {
+			throw new Unanalysable("incompatible stacks");
+		}
+		Env env = new Env();
+		for(int i=0;i!=env1.locals.size();++i) {
+			env.locals.add(join(env1.locals.get(i),env2.locals.get(i)));
+		}
+		for(int i=0;i!=env1.stack.size();++i) {
+			Item i1 = env1.stack.get(i);
+			Item i2 = env2.stack.get(i);
+			env.stack.add(new Item(i1.range.join(i2.range), i1.slot == i2.slot ? i1.slot
+					: -1, i1.element == null || i2.element == null ? null
+					: i1.element.join(i2.element)));
+		}
+		return env;
+	}
+	
+	private static Interval join(Interval i1, Interval i2) {
+		if(i1 == null) {
+			return i2;
+		} else if(i2 == null) {
+			return i1;
+		} else {
+			return i1.join(i2);
+		}
+	}
+	
+	private Env widen(Env old, Env next) {
+		Env env = new Env();
+		for(int i=0;i!=next.locals.size();++i) {
+			Interval o = old.locals.get(i);
+			Interval n = next.locals.get(i);
+			env.locals.add(o == null || n == null ? n : o.widen(n));
+		}
+		env.stack.addAll(next.stack);
+		return env;
+	}
+	
+	private void assign(Env env, int slot, Interval range) {
+		env.locals.set(slot, range);
+		Interval old = slots.get(slot);
+		slots.put(slot, old == null ? range : old.join(range));
+	}
+
+	/**
+	 * Narrow the intervals of any variables used in a comparison, assuming it
+	 * holds. If the comparison cannot hold, then <code>null</code> is returned
+	 * to indicate the branch is unreachable.
+	 */
+	private Env refine(Env env, COp op, Item lhs, Item rhs) {
+		Interval l = lhs.range;
+		Interval r = rhs.range;
+		BigInteger one = BigInteger.ONE;
+		switch(op) {
+		case EQ:
+			l = r = l.meet(r.lower,r.upper);
+			break;
+		case LT:
+			l = l.meet(null, r.upper == null ? null : r.upper.subtract(one));
+			r = r.meet(lhs.range.lower == null ? null : lhs.range.lower.add(one),null);
+			break;
+		case LTEQ:
+			l = l.meet(null, r.upper);
+			r = r.meet(lhs.range.lower, null);
+			break;
+		case GT:
+			l = l.meet(r.lower == null ? null : r.lower.add(one), null);
+			r = r.meet(null, lhs.range.upper == null ? null : lhs.range.upper.subtract(one));
+			break;
+		case GTEQ:
+			l = l.meet(r.lower, null);
+			r = r.meet(null, lhs.range.upper);
+			break;
+		default:
+			return env;
+		}
+		if(l == null || r == null) {
+			return null;
+		}
+		if(lhs.slot >= 0) {
+			env.locals.set(lhs.slot, l);
+		}
+		if(rhs.slot >= 0 && rhs.slot != lhs.slot) {
+			env.locals.set(rhs.slot, r);
+		}
+		return env;
+	}
+	
+	private static COp negate(COp op) {
+		switch(op) {
+		case EQ:
+			return COp.NEQ;
+		case NEQ:
+			return COp.EQ;
+		case LT:
+			return COp.GTEQ;
+		case LTEQ:
+			return COp.GT;
+		case GT:
+			return COp.LTEQ;
+		case GTEQ:
+			return COp.LT;
+		default:
+			// no narrowing is possible for the remaining operators
+			return op;
+		}
+	}
+	
+	private static Interval infer(BinOp code, Interval lhs, Interval rhs) {
+		if(!(code.type instanceof Type.Int)) {
+			return Interval.TOP;
+		}
+		switch(code.bop) {
+		case ADD:
+			return lhs.add(rhs);
+		case SUB:
+			return lhs.subtract(rhs);
+		case MUL:
+			return lhs.multiply(rhs);
+		case DIV:
+			return lhs.divide(rhs);
+		case REM:
+			return lhs.remainder(rhs);
+		default:
+			return Interval.TOP;
+		}
+	}
+	
+	private static Type elementType(Type t) {
+		if(t instanceof Type.List) {
+			return ((Type.List)t).element();
+		} else {
+			return ((Type.Set)t).element();
+		}
+	}
+
+	/**
+	 * Determine the bytecodes which produce the operands of every bytecode in
+	 * the block. This is done by simulating the stack in a single linear pass
+	 * over the block (i.e. including unreachable code). This relies on the
+	 * stack being empty at every branch and label.
+	 * 
+	 * @param block
+	 * @return false if the stack was not empty at a branch or label.
+	 */
+	private boolean resolveOperands(Block block) {
+		ArrayList<Entry> stack = new ArrayList<Entry>();
+		for(Entry entry : block) {
+			Code code = entry.code;
+			int[] effect = stackEffect(code);
+			if(effect == null || stack.size() < effect[0]) {
+				return false;
+			}
+			Entry[] ops = new Entry[effect[0]];
+			for(int i=effect[0]-1;i>=0;--i) {
+				ops[i] = stack.remove(stack.size()-1);
+			}
+			operands.put(entry, ops);
+			for(int i=0;i!=effect[1];++i) {
+				stack.add(entry);
+			}
+			if ((code instanceof Label || code instanceof Loop
+					|| code instanceof Goto || code instanceof IfGoto
+					|| code instanceof IfType || code instanceof Switch
+					|| code instanceof Return || code instanceof Throw || code instanceof Fail)
+					&& !stack.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Determine the number of operands popped from the stack by a given
+	 * bytecode, and the number of results pushed back on.
+	 * 
+	 * @param code
+	 * @return the pair (pops,pushes), or null if the bytecode is unknown.
+	 */
+	private static int[] stackEffect(Code code) {
+		if (code instanceof Load || code instanceof Const) {
+			return new int[]{0,1};
+		} else if (code instanceof Convert || code instanceof FieldLoad
+				|| code instanceof ProcLoad || code instanceof ListLength
+				|| code instanceof SetLength || code instanceof StringLength
+				|| code instanceof Negate || code instanceof Invert
+				|| code instanceof Spawn) {
+			return new int[]{1,1};
+		} else if (code instanceof BinOp || code instanceof ListLoad
+				|| code instanceof DictLoad || code instanceof StringLoad
+				|| code instanceof StringAppend || code instanceof ListAppend
+				|| code instanceof SetUnion || code instanceof SetIntersect
+				|| code instanceof SetDifference) {
+			return new int[]{2,1};
+		} else if (code instanceof SubList || code instanceof SubString) {
+			return new int[]{3,1};
+		} else if (code instanceof Store || code instanceof Debug
+				|| code instanceof Throw || code instanceof Switch
+				|| code instanceof ForAll) {
+			return new int[]{1,0};
+		} else if (code instanceof IfGoto) {
+			return new int[]{2,0};
+		} else if (code instanceof IfType) {
+			return new int[]{((IfType)code).slot >= 0 ? 0 : 1,0};
+		} else if (code instanceof Return) {
+			return new int[]{((Return)code).type == Type.T_VOID ? 0 : 1,0};
+		} else if (code instanceof Destructure) {
+			Destructure d = (Destructure) code;
+			int n = d.type instanceof Type.Tuple ? ((Type.Tuple) d.type)
+					.elements().size() : 2;
+			return new int[]{1,n};
+		} else if (code instanceof Update) {
+			Update u = (Update) code;
+			return new int[]{u.level - u.fields.size() + 1,0};
+		} else if (code instanceof NewList) {
+			return new int[]{((NewList)code).nargs,1};
+		} else if (code instanceof NewSet) {
+			return new int[]{((NewSet)code).nargs,1};
+		} else if (code instanceof NewTuple) {
+			return new int[]{((NewTuple)code).nargs,1};
+		} else if (code instanceof NewDict) {
+			return new int[]{((NewDict)code).nargs*2,1};
+		} else if (code instanceof NewRecord) {
+			return new int[]{((NewRecord)code).type.fields().size(),1};
+		} else if (code instanceof Invoke) {
+			Invoke i = (Invoke) code;
+			int nargs = i.type.params().size()
+					+ (i.type.receiver() != null ? 1 : 0);
+			return new int[]{nargs, i.retval && i.type.ret() != Type.T_VOID ? 1 : 0};
+		} else if (code instanceof Send) {
+			Send s = (Send) code;
+			return new int[]{s.type.params().size() + 1, s.synchronous && s.retval ? 1 : 0};
+		} else if (code instanceof Label || code instanceof Loop
+				|| code instanceof Goto || code instanceof Fail
+				|| code instanceof Skip || code instanceof Assert
+				|| code instanceof Nop) {
+			return new int[]{0,0};
+		}
+		return null;
+	}
+	
+	/**
+	 * An abstract value on the stack. This records the interval of the value,
+	 * the variable it was loaded from (if any) and, for a list constructed
+	 * from a range, the interval of its elements. 
+	 */
+	private static final class Item {
+		public final Interval range;
+		public final int slot;
+		public final Interval element;
+		
+		public Item(Interval range, int slot, Interval element) {
+			this.range = range;
+			this.slot = slot;
+			this.element = element;
+		}
+		
+		public boolean equals(Object o) {
+			if(o instanceof Item) {
+				Item i = (Item) o;
+				return range.equals(i.range) && slot == i.slot
+						&& (element == null ? i.element == null : element.equals(i.element));
+			}
+			return false;
+		}
+		
+		public int hashCode() {
+			return range.hashCode() + slot;
+		}
+	}
+	
+	public static final class Env {
+		public final ArrayList<Interval> locals;
+		private final ArrayList<Item> stack;
+		
+		public Env() {
+			this.locals = new ArrayList<Interval>();
+			this.stack = new ArrayList<Item>();
+		}
+		
+		public Env(Env env) {
+			this.locals = new ArrayList<Interval>(env.locals);
+			this.stack = new ArrayList<Item>(env.stack);
+		}
+		
+		public Interval get(int slot) {
+			Interval r = locals.get(slot);
+			return r == null ? Interval.TOP : r;
+		}
+		
+		private Item[] pop(int n) {
+			Item[] items = new Item[n];
+			for(int i=n-1;i>=0;--i) {
+				items[i] = stack.remove(stack.size()-1);
+			}
+			return items;
+		}
+		
+		public boolean equals(Object o) {
+			if(o instanceof Env) {
+				Env e = (Env) o;
+				return locals.equals(e.locals) && stack.equals(e.stack);
+			}
+			return false;
+		}
+		
+		public int hashCode() {
+			return locals.hashCode();
+		}
+	}
+
+	/**
+	 * An interval of integers, where either bound may be infinite (as indicated
+	 * by <code>null</code>).
+	 * 
+	 * @author djp
+	 * 
+	 */
+	public static final class Interval {
+		public static final Interval TOP = new Interval(null,null);
+		
+		public final BigInteger lower;
+		public final BigInteger upper;
+		
+		public Interval(BigInteger lower, BigInteger upper) {
+			this.lower = lower;
+			this.upper = upper;
+		}
+		
+		public boolean fitsInt() {
+			return within(INT_MIN,INT_MAX);
+		}
+		
+		public boolean fitsLong() {
+			return within(LONG_MIN,LONG_MAX);
+		}
+		
+		private boolean within(BigInteger min, BigInteger max) {
+			return lower != null && upper != null && lower.compareTo(min) >= 0
+					&& upper.compareTo(max) <= 0;
+		}
+		
+		public Interval join(Interval i) {
+			BigInteger l = lower == null || i.lower == null ? null : lower.min(i.lower);
+			BigInteger u = upper == null || i.upper == null ? null : upper.max(i.upper);
+			return new Interval(l,u);
+		}
+
+		/**
+		 * Intersect this interval with the given bounds, returning
+		 * <code>null</code> if the result is empty.
+		 */
+		public Interval meet(BigInteger l, BigInteger u) {
+			if(l == null || (lower != null && lower.compareTo(l) > 0)) {
+				l = lower;
+			}
+			if(u == null || (upper != null && upper.compareTo(u) < 0)) {
+				u = upper;
+			}
+			if(l != null && u != null && l.compareTo(u) > 0) {
+				return null;
+			}
+			return new Interval(l,u);
+		}
+
+		/**
+		 * Widen this interval with the next approximation. Any bound which has
+		 * grown is moved to the next threshold.
+		 */
+		public Interval widen(Interval next) {
+			BigInteger l = lower;
+			BigInteger u = upper;
+			if(next.lower == null) {
+				l = null;
+			} else if(l != null && next.lower.compareTo(l) < 0) {
+				if(next.lower.compareTo(INT_MIN) >= 0) {
+					l = INT_MIN;
+				} else if(next.lower.compareTo(LONG_MIN) >= 0) {
+					l = LONG_MIN;
+				} else {
+					l = null;
+				}
+			}
+			if(next.upper == null) {
+				u = null;
+			} else if(u != null && next.upper.compareTo(u) > 0) {
+				if(next.upper.compareTo(INT_MAX) <= 0) {
+					u = INT_MAX;
+				} else if(next.upper.compareTo(LONG_MAX) <= 0) {
+					u = LONG_MAX;
+				} else {
+					u = null;
+				}
+			}
+			return new Interval(l,u);
+		}
+		
+		public Interval negate() {
+			return new Interval(upper == null ? null : upper.negate(),
+					lower == null ? null : lower.negate());
+		}
+		
+		public Interval add(Interval i) {
+			return new Interval(lower == null || i.lower == null ? null
+					: lower.add(i.lower), upper == null || i.upper == null ? null
+					: upper.add(i.upper));
+		}
+		
+		public Interval subtract(Interval i) {
+			return add(i.negate());
+		}
+		
+		public Interval multiply(Interval i) {
+			if(!isFinite() || !i.isFinite()) {
+				return TOP;
+			}
+			return hull(lower.multiply(i.lower), lower.multiply(i.upper),
+					upper.multiply(i.lower), upper.multiply(i.upper));
+		}
+		
+		public Interval divide(Interval i) {
+			if(!isFinite()) {
+				return TOP;
+			} else if (i.isFinite() && (i.lower.signum() > 0 || i.upper.signum() < 0)) {
+				// divisor does not include zero
+				return hull(lower.divide(i.lower), lower.divide(i.upper),
+						upper.divide(i.lower), upper.divide(i.upper));
+			} else {
+				// the magnitude of the result cannot exceed that of the dividend
+				BigInteger m = lower.abs().max(upper.abs());
+				return new Interval(m.negate(),m);
+			}
+		}
+		
+		public Interval remainder(Interval i) {
+			BigInteger m = null;
+			if(i.isFinite()) {
+				m = i.lower.abs().max(i.upper.abs()).subtract(BigInteger.ONE).max(BigInteger.ZERO);
+			}
+			if(isFinite()) {
+				BigInteger n = lower.abs().max(upper.abs());
+				m = m == null ? n : m.min(n);
+			}
+			if(m == null) {
+				return TOP;
+			}
+			// the sign of the result follows that of the dividend
+			BigInteger l = lower != null && lower.signum() >= 0 ? BigInteger.ZERO : m.negate();
+			BigInteger u = upper != null && upper.signum() <= 0 ? BigInteger.ZERO : m;
+			return new Interval(l,u);
+		}
+		
+		private boolean isFinite() {
+			return lower != null && upper != null;
+		}
+		
+		private static Interval hull(BigInteger... values) {
+			BigInteger l = values[0];
+			BigInteger u = values[0];
+			for(BigInteger v : values) {
+				l = l.min(v);
+				u = u.max(v);
+			}
+			return new Interval(l,u);
+		}
+		
+		public boolean equals(Object o) {
+			if(o instanceof Interval) {
+				Interval i = (Interval) o;
+				return (lower == null ? i.lower == null : lower.equals(i.lower))
+						&& (upper == null ? i.upper == null : upper.equals(i.upper));
+			}
+			return false;
+		}
+		
+		public int hashCode() {
+			return (lower == null ? 0 : lower.hashCode())
+					+ (upper == null ? 0 : upper.hashCode());
+		}
+		
+		public String toString() {
+			return "[" + (lower == null ? "-inf" : lower) + ".."
+					+ (upper == null ? "+inf" : upper) + "]";
+		}
+	}
+	
+	/**
+	 * Signals that a method case uses a form of bytecode, or of control flow,
+	 * which the analysis does not handle. In this case, no ranges are
+	 * reported.
+	 */
+	private static final class Unanalysable extends RuntimeException {
+		public Unanalysable(String msg) {
+			super(msg);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * An interner ensures that, amongst the objects passed through it, there is
+ * only ever one instance of any given value. That is, interning an object
+ * returns a previously interned object which is equal to it, if one exists,
+ * or else the object itself.
+ * </p>
+ *
+ * <p>
+ * Interned objects are held only by weak references. Therefore, an interned
+ * object which is no longer used elsewhere can be garbage collected, at
+ * which point it is dropped from the interner. Interners are safe to use from
+ * multiple threads.
+ * </p>
+ *
+ * @author djp
+ *
+ * @param <T>
+ *            Type of interned objects
+ */
+public final class Interner<T> {
+	private final ConcurrentHashMap<Entry<T>, Entry<T>> entries = new ConcurrentHashMap<Entry<T>, Entry<T>>();
+	private final ReferenceQueue<T> collected = new ReferenceQueue<T>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Return the interned object equal to the given object. If there is no
+	 * such object, then the given object is interned and returned.
+	 *
+	 * @param object
+	 * @return
+	 */
+	public T intern(T object) {
+		purge();
+		Entry<T> entry = new Entry<T>(object, collected);
+		while (true) {
+			Entry<T> existing = entries.putIfAbsent(entry, entry);
+			if (existing == null) {
+				misses.incrementAndGet();
+				return object;
+			}
+			T r = existing.get();
+			if (r != null) {
+				hits.incrementAndGet();
+				return r;
+			}
+			// existing object was collected after being matched
+			entries.remove(existing);
+		}
+	}
+
+	/**
+	 * Return the number of objects currently interned.
+	 */
+	public int size() {
+		purge();
+		return entries.size();
+	}
+
+	/**
+	 * Return the number of times an equal object had already been interned.
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * Return the number of times no equal object had been interned.
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	public String toString() {
+		return "hits=" + hits + ", misses=" + misses + ", size=" + size();
+	}
+
+	/**
+	 * Remove the entries for objects which have been garbage collected.
+	 */
+	private void purge() {
+		Object ref;
+		while ((ref = collected.poll()) != null) {
+			entries.remove(ref);
+		}
+	}
+
+	/**
+	 * An entry holds an interned object by a weak reference. Whilst the object
+	 * exists, two entries are equal if their objects are equal. Once the
+	 * object has been collected, the entry is only equal to itself.
+	 */
+	private static final class Entry<T> extends WeakReference<T> {
+		private final int hash;
+
+		public Entry(T object, ReferenceQueue<T> queue) {
+			super(object, queue);
+			this.hash = object.hashCode();
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			} else if (o instanceof Entry) {
+				Entry e = (Entry) o;
+				Object object = get();
+				return object != null && hash == e.hash
+						&& object.equals(e.get());
+			}
+			return false;
+		}
+	}
+}
@@ -76,6 +76,8 @@ public class Main {
 			new OptArg("bootpath", "bp", PATHLIST,
 					"Specify where to find whiley standard library files",
 					new ArrayList<String>()),
+			new OptArg("jobs", "j", INT,
+					"Specify the number of threads to compile with", 1),
 			new OptArg("X", PIPELINEAPPEND, "append new pipeline stage"),
 			new OptArg("C", PIPELINECONFIGURE,
 					"configure existing pipeline stage"),
@@ -153,6 +155,7 @@ public class Main {
 		ArrayList<String> bootpath = (ArrayList) values.get("bootpath");
 		ArrayList<Pipeline.Modifier> pipelineModifiers = (ArrayList) values.get("pipeline"); 
 		boolean verbose = values.containsKey("verbose");
+		int jobs = (Integer) values.get("jobs");
 		
 		try {			
 			// initialise the boot path appropriately
@@ -171,8 +174,8 @@ public class Main {
 			if(pipelineModifiers != null) {
 				pipeline.apply(pipelineModifiers);
 			}
-			List<Transform> stages = pipeline.instantiate();
-			Compiler compiler = new Compiler(moduleLoader,stages);		
+			Compiler compiler = new Compiler(moduleLoader,pipeline);		
+			compiler.setParallelism(jobs);
 			moduleLoader.setLogger(compiler);		
 
 			if(verbose) {			
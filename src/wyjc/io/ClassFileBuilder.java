@@ -58,9 +58,25 @@ public class ClassFileBuilder {
 	protected ModuleLoader loader;	
 	protected String filename;
 	protected JvmType.Clazz owner;
+	protected RefCountAnalysis refCounts;
+	protected UnboxingAnalysis unboxing;
+	
+	/**
+	 * Maps the target (i.e. module and mangled name) of each message sent
+	 * from the module being built to the static field holding its handle.
+	 */
+	protected HashMap<Pair<String,String>,Integer> handles;
+	
+	/**
+	 * The enclosing loops over a list or set, each paired with the register
+	 * holding the reference it retains to the collection being iterated over.
+	 */
+	protected ArrayList<Pair<String,Integer>> iterations = new ArrayList<Pair<String,Integer>>();
 	
 	public ClassFileBuilder(ModuleLoader loader, int whileyMajorVersion, int whileyMinorVersion) {
 		this.loader = loader;
+		this.refCounts = new RefCountAnalysis(loader);
+		this.unboxing = new UnboxingAnalysis(loader);
 		this.WHILEY_MINOR_VERSION = whileyMinorVersion;
 		this.WHILEY_MAJOR_VERSION = whileyMajorVersion;
 	}
@@ -75,6 +91,7 @@ public class ClassFileBuilder {
 				new ArrayList<JvmType.Clazz>(), modifiers);
 	
 		this.filename = module.filename();
+		this.handles = new HashMap<Pair<String,String>,Integer>();
 		
 		boolean addMainLauncher = false;		
 				
@@ -111,7 +128,7 @@ public class ClassFileBuilder {
 			cf.methods().addAll(build(method, constants));			
 		}		
 		
-		if(constants.size() > 0) {
+		if(constants.size() > 0 || handles.size() > 0) {
 			buildConstants(constants,cf);
 		}
 				
@@ -147,6 +164,27 @@ public class ClassFileBuilder {
 			bytecodes.add(new Bytecode.PutField(owner, name, type, Bytecode.STATIC));
 		}
 		
+		for(Map.Entry<Pair<String,String>,Integer> entry : handles.entrySet()) {
+			Pair<String,String> target = entry.getKey();
+			String name = "handle$" + entry.getValue();
+			ArrayList<Modifier> fmods = new ArrayList<Modifier>();
+			fmods.add(Modifier.ACC_PRIVATE);
+			fmods.add(Modifier.ACC_STATIC);
+			fmods.add(Modifier.ACC_FINAL);
+			cf.fields().add(new ClassFile.Field(name, JAVA_LANG_INVOKE_METHODHANDLE, fmods));
+			
+			// the method is resolved once, when this class is initialised
+			JvmType.Function ftype = new JvmType.Function(
+					JAVA_LANG_INVOKE_METHODHANDLE, JAVA_LANG_STRING,
+					JAVA_LANG_STRING);
+			bytecodes.add(new Bytecode.LoadConst(target.first()));
+			bytecodes.add(new Bytecode.LoadConst(target.second()));
+			bytecodes.add(new Bytecode.Invoke(WHILEYIO, "functionHandle", ftype,
+					Bytecode.STATIC));
+			bytecodes.add(new Bytecode.PutField(owner, name,
+					JAVA_LANG_INVOKE_METHODHANDLE, Bytecode.STATIC));
+		}
+		
 		bytecodes.add(new Bytecode.Return(null));
 		
 		// now, create static initialiser method
@@ -230,16 +268,31 @@ public class ClassFileBuilder {
 			}
 		}
 				
-		ArrayList<Bytecode> codes = translate(mcase,constants);
+		ArrayList<Bytecode> codes = translate(method,mcase,constants);
 		wyjvm.attributes.Code code = new wyjvm.attributes.Code(codes,new ArrayList(),cm);
 		cm.attributes().add(code);		
 		
 		return cm;
 	}
 	
-	public ArrayList<Bytecode> translate(Module.Case mcase, HashMap<Value,Integer> constants) {
-		ArrayList<Bytecode> bytecodes = new ArrayList<Bytecode>();				
-		translate(mcase.body(),mcase.locals().size(),constants,bytecodes);				
+	public ArrayList<Bytecode> translate(Module.Method method,
+			Module.Case mcase, HashMap<Value, Integer> constants) {
+		ArrayList<Bytecode> bytecodes = new ArrayList<Bytecode>();
+		refCounts.analyse(method,mcase);
+		iterations.clear();
+		// tracked variables must be initialised, since storing to one first
+		// releases the value it held.
+		Type.Fun ft = method.type();
+		int nparams = ft.params().size() + (ft.receiver() != null ? 1 : 0);
+		for(int i=nparams;i<mcase.locals().size();++i) {
+			if(refCounts.isTracked(i)) {
+				bytecodes.add(new Bytecode.LoadConst(null));
+				bytecodes.add(new Bytecode.Store(i, JAVA_LANG_OBJECT));
+			}
+		}
+		// unboxed variables are allocated registers after all others
+		int freeSlot = unboxing.analyse(method,mcase,mcase.locals().size());
+		translate(mcase.body(),freeSlot,constants,bytecodes);				
 		return bytecodes;
 	}
 
@@ -271,13 +324,13 @@ public class ClassFileBuilder {
 			} else if(code instanceof Convert) {
 				 translate((Convert)code,freeSlot,constants,bytecodes);
 			} else if(code instanceof Const) {
-				translate((Const) code, freeSlot, constants, bytecodes);
+				translate((Const) code, entry, freeSlot, constants, bytecodes);
 			} else if(code instanceof Debug) {
 				 translate((Debug)code,freeSlot,bytecodes);
 			} else if(code instanceof Destructure) {
 				 translate((Destructure)code,freeSlot,bytecodes);
 			} else if(code instanceof DictLoad) {
-				 translate((DictLoad)code,freeSlot,bytecodes);
+				 translate((DictLoad)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof End) {
 				 translate((End)code,freeSlot,bytecodes);
 			} else if(code instanceof ExternJvm) {
@@ -285,9 +338,9 @@ public class ClassFileBuilder {
 			} else if(code instanceof Fail) {
 				 translate((Fail)code,freeSlot,bytecodes);
 			} else if(code instanceof FieldLoad) {
-				 translate((FieldLoad)code,freeSlot,bytecodes);
+				 translate((FieldLoad)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof ForAll) {
-				 freeSlot = translate((ForAll)code,freeSlot,bytecodes);
+				 freeSlot = translate((ForAll)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof Goto) {
 				 translate((Goto)code,freeSlot,bytecodes);
 			} else if(code instanceof IfGoto) {
@@ -311,9 +364,9 @@ public class ClassFileBuilder {
 			} else if(code instanceof SubList) {
 				 translate((SubList)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof ListLoad) {
-				 translate((ListLoad)code,freeSlot,bytecodes);
+				 translate((ListLoad)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof Load) {
-				 translate((Load)code,freeSlot,bytecodes);
+				 translate((Load)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof Loop) {
 				 translate((Loop)code,freeSlot,bytecodes);
 			} else if(code instanceof Update) {
@@ -329,9 +382,9 @@ public class ClassFileBuilder {
 			} else if(code instanceof NewTuple) {
 				 translate((NewTuple)code,freeSlot,bytecodes);
 			} else if(code instanceof Negate) {
-				 translate((Negate)code,freeSlot,bytecodes);
+				 translate((Negate)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof ProcLoad) {
-				 translate((ProcLoad)code,freeSlot,bytecodes);
+				 translate((ProcLoad)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof Return) {
 				 translate((Return)code,freeSlot,bytecodes);
 			} else if(code instanceof Skip) {
@@ -355,7 +408,7 @@ public class ClassFileBuilder {
 			} else if(code instanceof SubString) {
 				 translate((SubString)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof Store) {
-				 translate((Store)code,freeSlot,bytecodes);
+				 translate((Store)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof Switch) {
 				 translate((Switch)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof Spawn) {
@@ -366,6 +419,19 @@ public class ClassFileBuilder {
 				syntaxError("unknown wyil code encountered (" + code + ")", filename, entry);
 			}
 			
+			// Finally, convert the value produced (if any) into the
+			// representation required by the bytecode which consumes it.
+			boolean produced = unboxing.producesUnboxed(entry);
+			boolean required = unboxing.requiresUnboxed(entry);
+			if(produced && !required) {
+				JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,T_LONG);
+				bytecodes.add(new Bytecode.Invoke(WHILEYINT, "valueOf", ftype,
+						Bytecode.STATIC));
+			} else if(!produced && required) {
+				JvmType.Function ftype = new JvmType.Function(T_LONG);
+				bytecodes.add(new Bytecode.Invoke(BIG_INTEGER, "longValue", ftype,
+						Bytecode.VIRTUAL));
+			}
 		} catch (SyntaxError ex) {
 			throw ex;
 		} catch (Exception ex) {		
@@ -375,12 +441,15 @@ public class ClassFileBuilder {
 		return freeSlot;
 	}
 	
-	public void translate(Code.Const c, int freeSlot,
+	public void translate(Code.Const c, Entry stmt, int freeSlot,
 			HashMap<Value,Integer> constants,
 			ArrayList<Bytecode> bytecodes) {
 		
 		Value constant = c.constant;
-		if (constant instanceof Value.Rational || constant instanceof Value.Bool
+		if (constant instanceof Value.Integer && unboxing.producesUnboxed(stmt)) {
+			bytecodes.add(new Bytecode.LoadConst(((Value.Integer) constant).value
+					.longValue()));
+		} else if (constant instanceof Value.Rational || constant instanceof Value.Bool
 				|| constant instanceof Value.Null || constant instanceof Value.Byte) {
 			translate(constant,freeSlot,bytecodes);					
 		} else {
@@ -394,6 +463,10 @@ public class ClassFileBuilder {
 			String name = "constant$" + id;
 			JvmType type = convertType(constant.type());
 			bytecodes.add(new Bytecode.GetField(owner, name, type, Bytecode.STATIC));
+			// the constant is shared with the static field holding it
+			if(refCounts.requiresIncRefs(stmt)) {
+				addIncRefs(constant.type(),bytecodes);
+			}
 		}		
 	}
 	
@@ -413,7 +486,12 @@ public class ClassFileBuilder {
 			upConversion(toType, (Type.Char)fromType,freeSlot,bytecodes);  
 		} else if(fromType == Type.T_BYTE) {									
 			upConversion(toType, (Type.Byte)fromType,freeSlot,bytecodes); 
-		} else if(!Type.isSubtype(toType, fromType)) {
+		} else if(Type.isSubtype(toType, fromType)) {
+			// do nothing!
+		} else if(isRepresentationPreserving(fromType, toType)) {
+			// the value itself is unchanged, but its JVM type may be narrower
+			addReadConversion(toType,bytecodes);
+		} else {
 			// Fall-back to an external (recursive) check
 			int id;
 			Value constant = Value.V_TYPE(toType);
@@ -434,6 +512,88 @@ public class ClassFileBuilder {
 		}
 	}
 	
+	/**
+	 * Determine whether converting a value from one type to another leaves its
+	 * runtime representation unchanged, in which case no call to
+	 * <code>Util.coerce</code> is needed. This holds when the target is a
+	 * supertype of the source, or differs from it only in the types of
+	 * function values (which <code>Util.coerce</code> never changes).
+	 * 
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static boolean isRepresentationPreserving(Type from, Type to) {
+		return isRepresentationPreserving(from, to,
+				new HashSet<Pair<Type, Type>>());
+	}
+	
+	/**
+	 * Recursive types are handled coinductively: a pair of types which is
+	 * already being compared is assumed to preserve the representation.
+	 */
+	private static boolean isRepresentationPreserving(Type from, Type to,
+			HashSet<Pair<Type, Type>> visited) {
+		if(Type.isSubtype(to, from) || !visited.add(new Pair<Type,Type>(from,to))) {
+			return true;
+		} else if(from instanceof Type.Union) {
+			for(Type bound : ((Type.Union)from).bounds()) {
+				if(!isRepresentationPreserving(bound, to, visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else if(to instanceof Type.Union) {
+			for(Type bound : ((Type.Union)to).bounds()) {
+				// a failed attempt must not leave its assumptions behind
+				if (isRepresentationPreserving(from, bound,
+						new HashSet<Pair<Type, Type>>(visited))) {
+					return true;
+				}
+			}
+			return false;
+		} else if(from instanceof Type.Fun && to instanceof Type.Fun) {
+			return true;
+		} else if(from instanceof Type.List && to instanceof Type.List) {
+			return isRepresentationPreserving(((Type.List) from).element(),
+					((Type.List) to).element(), visited);
+		} else if(from instanceof Type.Set && to instanceof Type.Set) {
+			return isRepresentationPreserving(((Type.Set) from).element(),
+					((Type.Set) to).element(), visited);
+		} else if(from instanceof Type.Dictionary && to instanceof Type.Dictionary) {
+			Type.Dictionary fd = (Type.Dictionary) from;
+			Type.Dictionary td = (Type.Dictionary) to;
+			return isRepresentationPreserving(fd.key(), td.key(), visited)
+					&& isRepresentationPreserving(fd.value(), td.value(), visited);
+		} else if(from instanceof Type.Tuple && to instanceof Type.Tuple) {
+			java.util.List<Type> fes = ((Type.Tuple) from).elements();
+			java.util.List<Type> tes = ((Type.Tuple) to).elements();
+			if(fes.size() != tes.size()) {
+				return false;
+			}
+			for(int i=0;i!=fes.size();++i) {
+				if(!isRepresentationPreserving(fes.get(i), tes.get(i), visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else if(from instanceof Type.Record && to instanceof Type.Record) {
+			// coercing a record drops any fields not in the target
+			HashMap<String,Type> ffs = ((Type.Record) from).fields();
+			HashMap<String,Type> tfs = ((Type.Record) to).fields();
+			if(!ffs.keySet().equals(tfs.keySet())) {
+				return false;
+			}
+			for(Map.Entry<String,Type> e : ffs.entrySet()) {
+				if(!isRepresentationPreserving(e.getValue(), tfs.get(e.getKey()), visited)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+	
 	public void upConversion(Type toType, Type.Bool fromType,
 			int freeSlot, ArrayList<Bytecode> bytecodes) {
 		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_BOOLEAN,T_BOOL);			
@@ -474,7 +634,7 @@ public class ClassFileBuilder {
 			} else {
 				bytecodes.add(new Bytecode.Conversion(T_INT, T_LONG));
 				JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,T_LONG);			
-				bytecodes.add(new Bytecode.Invoke(BIG_INTEGER,"valueOf",ftype,Bytecode.STATIC));				
+				bytecodes.add(new Bytecode.Invoke(WHILEYINT,"valueOf",ftype,Bytecode.STATIC));				
 			}
 		} else {
 			JvmType.Function ftype = new JvmType.Function(JAVA_LANG_CHARACTER,T_CHAR);			
@@ -482,11 +642,20 @@ public class ClassFileBuilder {
 		}
 	}
 	
-	public void translate(Code.Store c, int freeSlot,			
+	public void translate(Code.Store c, Entry stmt, int freeSlot,			
 			ArrayList<Bytecode> bytecodes) {		
-		JvmType type = convertType(c.type);
-		//addIncRefs(c.type,bytecodes);		
-		bytecodes.add(new Bytecode.Store(c.slot, type));				
+		if(unboxing.isUnboxed(c.slot)) {
+			bytecodes.add(new Bytecode.Store(unboxing.register(c.slot), T_LONG));
+		} else {
+			JvmType type = convertType(c.type);
+			if(refCounts.requiresDecRefs(stmt)) {
+				// release the value being overwritten
+				bytecodes.add(new Bytecode.Load(c.slot, JAVA_LANG_OBJECT));
+				addDecRefs(Type.T_ANY,bytecodes);
+				bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
+			}
+			bytecodes.add(new Bytecode.Store(c.slot, type));
+		}
 	}
 
 	public void translate(Code.Update c, int freeSlot,ArrayList<Bytecode> bytecodes) {
@@ -571,13 +740,19 @@ public class ClassFileBuilder {
 		} else if(Type.isSubtype(Type.T_DICTIONARY(Type.T_ANY, Type.T_ANY),type)) {
 			Type.Dictionary dict = Type.effectiveDictionaryType(type);				
 			
-			if(level != 0) {				
+			if(level != 0) {
+				// the dictionary must be unshared before its value is extracted
+				// for updating. Otherwise, that value may appear unshared when,
+				// in fact, it is reachable via another copy of the dictionary.
+				JvmType.Function ftype = new JvmType.Function(WHILEYMAP,WHILEYMAP);
+				bytecodes.add(new Bytecode.Invoke(WHILEYMAP, "unshare", ftype,
+					Bytecode.STATIC));
 				bytecodes.add(new Bytecode.Dup(WHILEYMAP));				
 				bytecodes.add(new Bytecode.Load(indexSlot,convertType(dict.key())));
 				
-				JvmType.Function ftype = new JvmType.Function(
+				ftype = new JvmType.Function(
 						JAVA_LANG_OBJECT, WHILEYMAP, JAVA_LANG_OBJECT);
-				bytecodes.add(new Bytecode.Invoke(WHILEYMAP, "get", ftype,
+				bytecodes.add(new Bytecode.Invoke(WHILEYMAP, "getUnshared", ftype,
 					Bytecode.STATIC));				
 				addReadConversion(dict.value(),bytecodes);
 				multiStoreHelper(dict.value(),level-1,fields,indexSlot+1,val_t,freeSlot,bytecodes);
@@ -591,8 +766,8 @@ public class ClassFileBuilder {
 						
 			JvmType.Function ftype = new JvmType.Function(WHILEYMAP,
 					WHILEYMAP,JAVA_LANG_OBJECT,JAVA_LANG_OBJECT);						
-			bytecodes.add(new Bytecode.Invoke(WHILEYMAP, "put", ftype,
-					Bytecode.STATIC));			
+			bytecodes.add(new Bytecode.Invoke(WHILEYMAP, level != 0 ? "update"
+					: "put", ftype, Bytecode.STATIC));			
 						
 		} else if(Type.isSubtype(Type.T_STRING,type)) {
 			
@@ -601,8 +776,8 @@ public class ClassFileBuilder {
 			bytecodes.add(new Bytecode.Load(indexSlot+1, val_t));
 			addWriteConversion(Type.T_INT,bytecodes);			
 
-			JvmType.Function ftype = new JvmType.Function(JAVA_LANG_STRING,
-					JAVA_LANG_STRING,BIG_INTEGER,T_CHAR);			
+			JvmType.Function ftype = new JvmType.Function(WHILEYSTRING,
+					WHILEYSTRING,BIG_INTEGER,T_CHAR);			
 			bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "set", ftype,
 					Bytecode.STATIC));						
 			
@@ -610,11 +785,17 @@ public class ClassFileBuilder {
 			Type.List list = Type.effectiveListType(type);				
 										
 			if(level != 0) {
+				// see above for why this is needed
+				JvmType.Function ftype = new JvmType.Function(WHILEYLIST,WHILEYLIST);
+				bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "unshare", ftype,
+						Bytecode.STATIC));
 				bytecodes.add(new Bytecode.Dup(WHILEYLIST));											
 				bytecodes.add(new Bytecode.Load(indexSlot,BIG_INTEGER));				
-				JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
+				ftype = new JvmType.Function(JAVA_LANG_OBJECT,
 						WHILEYLIST,BIG_INTEGER);
-				bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "get", ftype,
+				// the element's leaf must be exclusive to this list before
+				// the element itself can be unshared.
+				bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "getUnshared", ftype,
 						Bytecode.STATIC));				
 				addReadConversion(list.element(),bytecodes);
 				multiStoreHelper(list.element(),level-1,fields,indexSlot+1,val_t,freeSlot,bytecodes);				
@@ -628,33 +809,46 @@ public class ClassFileBuilder {
 			
 			JvmType.Function ftype = new JvmType.Function(WHILEYLIST,
 					WHILEYLIST,BIG_INTEGER,JAVA_LANG_OBJECT);			
-			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "set", ftype,
-					Bytecode.STATIC));							
+			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, level != 0 ? "update"
+					: "set", ftype, Bytecode.STATIC));
 		} else {
 			Type.Record rec = Type.effectiveRecordType(type);			
-			String field = fields.next();			
-			if(level != 0) {				
+			String field = fields.next();
+			int index = recordFields(rec).indexOf(field);
+			if(level != 0) {
+				// see above for why this is needed
+				JvmType.Function ftype = new JvmType.Function(WHILEYRECORD,WHILEYRECORD);
+				bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"unshare",ftype,Bytecode.STATIC));
 				bytecodes.add(new Bytecode.Dup(WHILEYRECORD));				
-				bytecodes.add(new Bytecode.LoadConst(field));				
-				JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,WHILEYRECORD,JAVA_LANG_STRING);
+				bytecodes.add(new Bytecode.LoadConst(field));
+				bytecodes.add(new Bytecode.LoadConst(index));
+				ftype = new JvmType.Function(JAVA_LANG_OBJECT,WHILEYRECORD,JAVA_LANG_STRING,T_INT);
 				bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"get",ftype,Bytecode.STATIC));
 				addReadConversion(rec.fields().get(field),bytecodes);
 				multiStoreHelper(rec.fields().get(field),level-1,fields,indexSlot,val_t,freeSlot,bytecodes);				
 				bytecodes.add(new Bytecode.LoadConst(field));
 				bytecodes.add(new Bytecode.Swap());
+				bytecodes.add(new Bytecode.LoadConst(index));
+				bytecodes.add(new Bytecode.Swap());
 			} else {
-				bytecodes.add(new Bytecode.LoadConst(field));				
+				bytecodes.add(new Bytecode.LoadConst(field));
+				bytecodes.add(new Bytecode.LoadConst(index));
 				bytecodes.add(new Bytecode.Load(indexSlot, val_t));
 				addWriteConversion(rec.fields().get(field),bytecodes);
 			}
 			
-			JvmType.Function ftype = new JvmType.Function(WHILEYRECORD,WHILEYRECORD,JAVA_LANG_STRING,JAVA_LANG_OBJECT);						
-			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"put",ftype,Bytecode.STATIC));					
+			JvmType.Function ftype = new JvmType.Function(WHILEYRECORD,
+					WHILEYRECORD, JAVA_LANG_STRING, T_INT, JAVA_LANG_OBJECT);						
+			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, level != 0 ? "update"
+					: "put", ftype, Bytecode.STATIC));
 		}
 	}
 	
 	public void translate(Code.Return c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
+		for(Pair<String,Integer> p : iterations) {
+			releaseIteration(p.second(),bytecodes);
+		}
 		if (c.type == Type.T_VOID) {
 			bytecodes.add(new Bytecode.Return(null));
 		} else {
@@ -723,7 +917,32 @@ public class ClassFileBuilder {
 			ArrayList<Bytecode> bytecodes) {	
 				
 		JvmType type = convertType(c.type);
-		if(c.type == Type.T_BOOL) {
+		if(unboxing.isUnboxed(stmt)) {
+			// both operands are unboxed integers
+			int op;
+			switch(c.op) {
+			case EQ:
+				op = Bytecode.If.EQ;
+				break;
+			case NEQ:
+				op = Bytecode.If.NE;
+				break;
+			case LT:
+				op = Bytecode.If.LT;
+				break;
+			case LTEQ:
+				op = Bytecode.If.LE;
+				break;
+			case GT:
+				op = Bytecode.If.GT;
+				break;
+			default:
+				op = Bytecode.If.GE;
+				break;
+			}
+			bytecodes.add(new Bytecode.Cmp(T_LONG, Bytecode.Cmp.EQ));
+			bytecodes.add(new Bytecode.If(op, c.target));
+		} else if(c.type == Type.T_BOOL) {
 			// boolean is a special case, since it is not implemented as an
 			// object on the JVM stack. Therefore, we need to use the "if_cmp"
 			// bytecode, rather than calling .equals() and using "if" bytecode.
@@ -776,6 +995,10 @@ public class ClassFileBuilder {
 					JvmType.Function ftype = new JvmType.Function(T_BOOL,JAVA_LANG_OBJECT,JAVA_LANG_OBJECT);
 					bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "equals", ftype,
 							Bytecode.STATIC));
+				} else if(type.equals(BIG_INTEGER)) {
+					JvmType.Function ftype = new JvmType.Function(T_BOOL,BIG_INTEGER,BIG_INTEGER);
+					bytecodes.add(new Bytecode.Invoke(WHILEYINT, "equals", ftype,
+							Bytecode.STATIC));
 				} else {
 					JvmType.Function ftype = new JvmType.Function(T_BOOL,JAVA_LANG_OBJECT);
 					bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "equals", ftype,
@@ -795,6 +1018,11 @@ public class ClassFileBuilder {
 							JAVA_LANG_OBJECT, JAVA_LANG_OBJECT);
 					bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "equals",
 							ftype, Bytecode.STATIC));
+				} else if(type.equals(BIG_INTEGER)) {
+					JvmType.Function ftype = new JvmType.Function(T_BOOL,
+							BIG_INTEGER, BIG_INTEGER);
+					bytecodes.add(new Bytecode.Invoke(WHILEYINT, "equals",
+							ftype, Bytecode.STATIC));
 				} else {
 					JvmType.Function ftype = new JvmType.Function(T_BOOL,
 							JAVA_LANG_OBJECT);
@@ -806,33 +1034,25 @@ public class ClassFileBuilder {
 			}
 			case LT:
 			{							
-				JvmType.Function ftype = new JvmType.Function(T_INT,type);
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type, "compareTo", ftype,
-						Bytecode.VIRTUAL));				
+				addCompareTo(type,bytecodes);
 				op = Bytecode.If.LT;			
 				break;
 			}
 			case LTEQ:
 			{			
-				JvmType.Function ftype = new JvmType.Function(T_INT,type);
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type,
-						"compareTo", ftype, Bytecode.VIRTUAL));			
+				addCompareTo(type,bytecodes);
 				op = Bytecode.If.LE;
 				break;
 			}
 			case GT:
 			{						
-				JvmType.Function ftype = new JvmType.Function(T_INT, type);
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type,
-						"compareTo", ftype, Bytecode.VIRTUAL));				
+				addCompareTo(type,bytecodes);
 				op = Bytecode.If.GT;
 				break;
 			}
 			case GTEQ:
 			{						
-				JvmType.Function ftype = new JvmType.Function(T_INT,type);
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type,
-						"compareTo", ftype, Bytecode.VIRTUAL));				
+				addCompareTo(type,bytecodes);
 				op = Bytecode.If.GE;
 				break;
 			}
@@ -873,6 +1093,23 @@ public class ClassFileBuilder {
 		}
 	}
 	
+	/**
+	 * Compare the two values on top of the stack, leaving an int which is
+	 * negative, zero or positive. Integers are compared via the small integer
+	 * fast path.
+	 */
+	private static void addCompareTo(JvmType type, ArrayList<Bytecode> bytecodes) {
+		if(type.equals(BIG_INTEGER)) {
+			JvmType.Function ftype = new JvmType.Function(T_INT,BIG_INTEGER,BIG_INTEGER);
+			bytecodes.add(new Bytecode.Invoke(WHILEYINT, "compare", ftype,
+					Bytecode.STATIC));
+		} else {
+			JvmType.Function ftype = new JvmType.Function(T_INT,type);
+			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type, "compareTo", ftype,
+					Bytecode.VIRTUAL));
+		}
+	}
+	
 	public void translate(Code.IfType c, Entry stmt, int freeSlot,
 			HashMap<Value,Integer> constants, ArrayList<Bytecode> bytecodes) {						
 		
@@ -932,9 +1169,27 @@ public class ClassFileBuilder {
 			bytecodes.add(new Bytecode.InstanceOf(BIG_RATIONAL));			
 			bytecodes.add(new Bytecode.If(Bytecode.If.NE, trueTarget));
 		} else if(test instanceof Type.Strung) {
-			bytecodes.add(new Bytecode.InstanceOf(JAVA_LANG_STRING));			
+			bytecodes.add(new Bytecode.InstanceOf(WHILEYSTRING));			
 			bytecodes.add(new Bytecode.If(Bytecode.If.NE, trueTarget));
 			
+		} else if(isPrimitiveUnion(test)) {
+			// In this case, each bound can be tested inline, rather than via
+			// the external check. A copy of the value is kept for each bound
+			// but the last, and must be discarded when a bound matches.
+			String matchLabel = freshLabel();
+			String exitLabel = freshLabel();
+			JvmType type = convertType(src);
+			ArrayList<Type> bounds = new ArrayList<Type>(((Type.Union)test).bounds());
+			for(int i=0;i!=bounds.size()-1;++i) {
+				bytecodes.add(new Bytecode.Dup(type));
+				translateTypeTest(matchLabel, src, bounds.get(i), stmt, bytecodes, constants);
+			}
+			translateTypeTest(trueTarget, src, bounds.get(bounds.size()-1), stmt, bytecodes, constants);
+			bytecodes.add(new Bytecode.Goto(exitLabel));
+			bytecodes.add(new Bytecode.Label(matchLabel));
+			bytecodes.add(new Bytecode.Pop(type));
+			bytecodes.add(new Bytecode.Goto(trueTarget));
+			bytecodes.add(new Bytecode.Label(exitLabel));
 		} else {
 			// Fall-back to an external (recursive) check
 			int id;
@@ -956,6 +1211,24 @@ public class ClassFileBuilder {
 		}
 	}	
 
+	/**
+	 * Determine whether a type is a union of types which can be tested for
+	 * with a single <code>instanceof</code> or <code>ifnull</code> bytecode.
+	 */
+	private static boolean isPrimitiveUnion(Type type) {
+		if(!(type instanceof Type.Union)) {
+			return false;
+		}
+		for(Type bound : ((Type.Union)type).bounds()) {
+			if (!(bound instanceof Type.Null || bound instanceof Type.Bool
+					|| bound instanceof Type.Char || bound instanceof Type.Int
+					|| bound instanceof Type.Real || bound instanceof Type.Strung)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	public void translate(Code.Loop c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Label(c.target + "$head"));
@@ -965,10 +1238,29 @@ public class ClassFileBuilder {
 			int freeSlot, ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Goto(end.label + "$head"));
 		bytecodes.add(new Bytecode.Label(end.label));
+		int last = iterations.size() - 1;
+		if(last >= 0 && iterations.get(last).first().equals(end.label)) {
+			// every exit from the loop, including a break, passes through here
+			releaseIteration(iterations.remove(last).second(),bytecodes);
+		}
+	}
+	
+	/**
+	 * Release the reference retained by a loop to the collection being
+	 * iterated over, which is held in the given register.
+	 */
+	private void releaseIteration(int register, ArrayList<Bytecode> bytecodes) {
+		bytecodes.add(new Bytecode.Load(register, JAVA_LANG_OBJECT));
+		addDecRefs(Type.T_ANY,bytecodes);
+		bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
 	}
 	
-	public int translate(Code.ForAll c, int freeSlot,
+	public int translate(Code.ForAll c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {	
+		if(unboxing.isCounted(stmt)) {
+			return translateCounted(c, freeSlot, bytecodes);
+		}
+		
 		Type elementType;
 		
 		// FIXME: following is broken because we need to use the effective type.
@@ -977,11 +1269,16 @@ public class ClassFileBuilder {
 			elementType = ((Type.Set) c.type).element();
 		} else {
 			elementType = ((Type.List) c.type).element();
+			return translateIndexed(c, elementType, freeSlot, bytecodes);
 		}
 
+		bytecodes.add(new Bytecode.Dup(WHILEYSET));
+		bytecodes.add(new Bytecode.Store(freeSlot + 1, WHILEYSET));
+		iterations.add(new Pair<String,Integer>(c.target, freeSlot + 1));
+		// since sets are final, this call can be bound statically
 		JvmType.Function ftype = new JvmType.Function(JAVA_UTIL_ITERATOR);
-		bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_COLLECTION, "iterator",
-				ftype, Bytecode.INTERFACE));
+		bytecodes.add(new Bytecode.Invoke(WHILEYSET, "iterator",
+				ftype, Bytecode.VIRTUAL));
 		bytecodes.add(new Bytecode.Store(freeSlot, JAVA_UTIL_ITERATOR));
 		bytecodes.add(new Bytecode.Label(c.target + "$head"));
 		ftype = new JvmType.Function(T_BOOL);
@@ -993,16 +1290,123 @@ public class ClassFileBuilder {
 		ftype = new JvmType.Function(JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_ITERATOR, "next", ftype,
 				Bytecode.INTERFACE));
-		addReadConversion(elementType, bytecodes);
-		bytecodes.add(new Bytecode.Store(c.slot, convertType(elementType)));
+		storeElement(c, elementType, bytecodes);
 		
-		// we need to increase the freeSlot, since we've allocated one slot to
-		// hold the register.
+		// we need to increase the freeSlot, since we've allocated two slots to
+		// hold the iterator and the set.
 		
-		return freeSlot + 1;
+		return freeSlot + 2;
+	}
+
+	/**
+	 * Translate a loop over a list into an indexed loop, which does not
+	 * allocate an iterator. On entry, the list is on the stack. Three
+	 * registers are allocated, holding the list, the current index and the
+	 * size of the list. The list cannot change during the loop, since the
+	 * loop retains its own reference to it until it exits.
+	 */
+	private int translateIndexed(Code.ForAll c, Type elementType,
+			int freeSlot, ArrayList<Bytecode> bytecodes) {
+		int list = freeSlot;
+		int index = freeSlot + 1;
+		int size = freeSlot + 2;
+		
+		bytecodes.add(new Bytecode.Dup(WHILEYLIST));
+		bytecodes.add(new Bytecode.Store(list, WHILEYLIST));
+		iterations.add(new Pair<String,Integer>(c.target, list));
+		JvmType.Function ftype = new JvmType.Function(T_INT,WHILEYLIST);
+		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "size", ftype,
+				Bytecode.STATIC));
+		bytecodes.add(new Bytecode.Store(size, T_INT));
+		bytecodes.add(new Bytecode.LoadConst(0));
+		bytecodes.add(new Bytecode.Store(index, T_INT));
+		
+		bytecodes.add(new Bytecode.Label(c.target + "$head"));
+		bytecodes.add(new Bytecode.Load(index, T_INT));
+		bytecodes.add(new Bytecode.Load(size, T_INT));
+		bytecodes.add(new Bytecode.IfCmp(Bytecode.IfCmp.GE, T_INT, c.target));
+		bytecodes.add(new Bytecode.Load(list, WHILEYLIST));
+		bytecodes.add(new Bytecode.Load(index, T_INT));
+		ftype = new JvmType.Function(JAVA_LANG_OBJECT,WHILEYLIST,T_INT);
+		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "get", ftype,
+				Bytecode.STATIC));
+		bytecodes.add(new Bytecode.Iinc(index, 1));
+		storeElement(c, elementType, bytecodes);
+		
+		return freeSlot + 3;
+	}
+	
+	/**
+	 * Store the element on the top of the stack into the loop variable.
+	 */
+	private void storeElement(Code.ForAll c, Type elementType,
+			ArrayList<Bytecode> bytecodes) {
+		addReadConversion(elementType, bytecodes);
+		if(unboxing.isUnboxed(c.slot)) {
+			JvmType.Function ftype = new JvmType.Function(T_LONG);
+			bytecodes.add(new Bytecode.Invoke(BIG_INTEGER, "longValue", ftype,
+					Bytecode.VIRTUAL));
+			bytecodes.add(new Bytecode.Store(unboxing.register(c.slot), T_LONG));
+		} else {
+			// the element is now shared between the collection and the variable
+			addIncRefs(elementType, bytecodes);
+			bytecodes.add(new Bytecode.Store(c.slot, convertType(elementType)));
+		}
 	}
 
 
+	/**
+	 * Translate a loop over a range into a counted loop. On entry, the
+	 * (unboxed) bounds of the range are on the stack. Three long registers are
+	 * allocated, holding the current index, the end and the direction of the
+	 * range. As for Util.range(), the range descends if the end is below the
+	 * start.
+	 */
+	private int translateCounted(Code.ForAll c, int freeSlot,
+			ArrayList<Bytecode> bytecodes) {
+		int index = freeSlot;
+		int end = freeSlot + 2;
+		int dir = freeSlot + 4;
+		
+		bytecodes.add(new Bytecode.Store(end, T_LONG));
+		bytecodes.add(new Bytecode.Store(index, T_LONG));
+		bytecodes.add(new Bytecode.LoadConst(1L));
+		bytecodes.add(new Bytecode.Store(dir, T_LONG));
+		bytecodes.add(new Bytecode.Load(index, T_LONG));
+		bytecodes.add(new Bytecode.Load(end, T_LONG));
+		bytecodes.add(new Bytecode.Cmp(T_LONG, Bytecode.Cmp.EQ));
+		bytecodes.add(new Bytecode.If(Bytecode.If.LT, c.target + "$up"));
+		bytecodes.add(new Bytecode.LoadConst(-1L));
+		bytecodes.add(new Bytecode.Store(dir, T_LONG));
+		bytecodes.add(new Bytecode.Label(c.target + "$up"));
+		// step back one, so the first iteration begins at the start
+		bytecodes.add(new Bytecode.Load(index, T_LONG));
+		bytecodes.add(new Bytecode.Load(dir, T_LONG));
+		bytecodes.add(new Bytecode.BinOp(Bytecode.BinOp.SUB, T_LONG));
+		bytecodes.add(new Bytecode.Store(index, T_LONG));
+		
+		bytecodes.add(new Bytecode.Label(c.target + "$head"));
+		bytecodes.add(new Bytecode.Load(index, T_LONG));
+		bytecodes.add(new Bytecode.Load(dir, T_LONG));
+		bytecodes.add(new Bytecode.BinOp(Bytecode.BinOp.ADD, T_LONG));
+		bytecodes.add(new Bytecode.Store(index, T_LONG));
+		bytecodes.add(new Bytecode.Load(index, T_LONG));
+		bytecodes.add(new Bytecode.Load(end, T_LONG));
+		bytecodes.add(new Bytecode.Cmp(T_LONG, Bytecode.Cmp.EQ));
+		bytecodes.add(new Bytecode.If(Bytecode.If.EQ, c.target));
+		bytecodes.add(new Bytecode.Load(index, T_LONG));
+		if(unboxing.isUnboxed(c.slot)) {
+			bytecodes.add(new Bytecode.Store(unboxing.register(c.slot), T_LONG));
+		} else {
+			JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,T_LONG);
+			bytecodes.add(new Bytecode.Invoke(WHILEYINT, "valueOf", ftype,
+					Bytecode.STATIC));
+			bytecodes.add(new Bytecode.Store(c.slot, BIG_INTEGER));
+		}
+		
+		return freeSlot + 6;
+	}
+
 	public void translate(Code.Goto c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Goto(c.target));
@@ -1014,7 +1418,7 @@ public class ClassFileBuilder {
 	
 	public void translate(Code.Debug c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
-		JvmType.Function ftype = new JvmType.Function(T_VOID,JAVA_LANG_STRING);
+		JvmType.Function ftype = new JvmType.Function(T_VOID,WHILEYSTRING);
 		bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "debug", ftype,
 				Bytecode.STATIC));
 	}
@@ -1035,6 +1439,7 @@ public class ClassFileBuilder {
 				bytecodes.add(new Bytecode.Invoke(WHILEYTUPLE, "get", ftype,
 						Bytecode.VIRTUAL));
 				addReadConversion(elem,bytecodes);
+				addIncRefs(elem,bytecodes);
 				if((i+1) != elements.size()) {
 					bytecodes.add(new Bytecode.Swap());
 				}
@@ -1065,17 +1470,35 @@ public class ClassFileBuilder {
 		bytecodes.addAll(c.bytecodes);
 	}
 		
-	public void translate(Code.Load c, int freeSlot, ArrayList<Bytecode> bytecodes) {
+	public void translate(Code.Load c, Entry stmt, int freeSlot,
+			ArrayList<Bytecode> bytecodes) {
+		if(unboxing.isUnboxed(c.slot)) {
+			bytecodes.add(new Bytecode.Load(unboxing.register(c.slot), T_LONG));
+			return;
+		}
 		bytecodes.add(new Bytecode.Load(c.slot, convertType(c.type)));
+		if(refCounts.requiresIncRefs(stmt)) {
+			addIncRefs(c.type,bytecodes);
+		} else if(refCounts.requiresDecRefs(stmt)) {
+			addDecRefs(c.type,bytecodes);
+		}
+		if(refCounts.releases(stmt)) {
+			// the variable no longer owns its value
+			bytecodes.add(new Bytecode.LoadConst(null));
+			bytecodes.add(new Bytecode.Store(c.slot, JAVA_LANG_OBJECT));
+		}
 	}
 	
-	public void translate(Code.DictLoad c, int freeSlot,
+	public void translate(Code.DictLoad c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {					
 		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,WHILEYMAP,
 				JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(WHILEYMAP, "get", ftype,
 				Bytecode.STATIC));
-		addReadConversion(c.type.value(),bytecodes);	
+		addReadConversion(c.type.value(),bytecodes);
+		if(refCounts.requiresIncRefs(stmt)) {
+			addIncRefs(c.type.value(),bytecodes);
+		}
 	}
 	
 	public void translate(Code.ListAppend c, Entry stmt, int freeSlot,
@@ -1094,9 +1517,16 @@ public class ClassFileBuilder {
 	
 	public void translate(Code.ListLength c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
-		JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,WHILEYLIST);						
-		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "length",
-				ftype, Bytecode.STATIC));								
+		if(unboxing.producesUnboxed(stmt)) {
+			JvmType.Function ftype = new JvmType.Function(T_INT,WHILEYLIST);
+			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "size",
+					ftype, Bytecode.STATIC));
+			bytecodes.add(new Bytecode.Conversion(T_INT,T_LONG));
+		} else {
+			JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,WHILEYLIST);						
+			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "length",
+					ftype, Bytecode.STATIC));
+		}
 	}
 	
 	public void translate(Code.SubList c, Entry stmt, int freeSlot,
@@ -1107,21 +1537,35 @@ public class ClassFileBuilder {
 				Bytecode.STATIC));
 	}	
 	
-	public void translate(Code.ListLoad c, int freeSlot,
+	public void translate(Code.ListLoad c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
-				WHILEYLIST, BIG_INTEGER);
+		JvmType.Function ftype;
+		if(unboxing.isUnboxed(stmt)) {
+			// the index is known to fit into an int
+			bytecodes.add(new Bytecode.Conversion(T_LONG,T_INT));
+			ftype = new JvmType.Function(JAVA_LANG_OBJECT, WHILEYLIST, T_INT);
+		} else {
+			ftype = new JvmType.Function(JAVA_LANG_OBJECT, WHILEYLIST, BIG_INTEGER);
+		}
 		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "get", ftype,
 				Bytecode.STATIC));
 		addReadConversion(c.type.element(), bytecodes);
+		if(refCounts.requiresIncRefs(stmt)) {
+			addIncRefs(c.type.element(),bytecodes);
+		}
 	}
 	
-	public void translate(Code.FieldLoad c, int freeSlot,
+	public void translate(Code.FieldLoad c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.LoadConst(c.field));
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,WHILEYRECORD,JAVA_LANG_STRING);
+		bytecodes.add(new Bytecode.LoadConst(recordFields(c.type).indexOf(c.field)));
+		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
+				WHILEYRECORD, JAVA_LANG_STRING, T_INT);
 		bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"get",ftype,Bytecode.STATIC));				
 		addReadConversion(c.fieldType(),bytecodes);
+		if(refCounts.requiresIncRefs(stmt)) {
+			addIncRefs(c.fieldType(),bytecodes);
+		}
 	}
 
 	public void translate(Code.BinOp c, Block.Entry stmt, int freeSlot,
@@ -1132,26 +1576,28 @@ public class ClassFileBuilder {
 		
 		switch(c.bop) {
 		case ADD:			
-			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "add", ftype,
-					Bytecode.VIRTUAL));
-			break;
 		case SUB:			
-			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "subtract", ftype,
-					Bytecode.VIRTUAL));
-			break;
 		case MUL:			
-			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "multiply", ftype,
-					Bytecode.VIRTUAL));
-			break;
 		case DIV:			
-			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "divide", ftype,
-					Bytecode.VIRTUAL));			
-			break;
-		case REM:									
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type,
-						"remainder", ftype, Bytecode.VIRTUAL));			
+		case REM:
+			String name = arithmeticOpName(c.bop);
+			if(unboxing.isUnboxed(stmt)) {
+				bytecodes.add(new Bytecode.BinOp(arithmeticOpCode(c.bop),T_LONG));
+			} else if(type.equals(BIG_INTEGER)) {
+				// integer arithmetic goes via the small integer fast path.
+				ftype = new JvmType.Function(BIG_INTEGER,BIG_INTEGER,BIG_INTEGER);
+				bytecodes.add(new Bytecode.Invoke(WHILEYINT, name, ftype,
+						Bytecode.STATIC));
+			} else {
+				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type, name,
+						ftype, Bytecode.VIRTUAL));
+			}
 			break;
 		case RANGE:
+			if(unboxing.isCounted(stmt)) {
+				// the bounds are consumed directly by a counted loop
+				break;
+			}
 			ftype = new JvmType.Function(WHILEYLIST,BIG_INTEGER,BIG_INTEGER);
 			bytecodes.add(new Bytecode.Invoke(WHILEYUTIL,
 					"range", ftype, Bytecode.STATIC));
@@ -1180,6 +1626,36 @@ public class ClassFileBuilder {
 		}		
 	}
 
+	private static int arithmeticOpCode(Code.BOp bop) {
+		switch(bop) {
+		case ADD:
+			return Bytecode.BinOp.ADD;
+		case SUB:
+			return Bytecode.BinOp.SUB;
+		case MUL:
+			return Bytecode.BinOp.MUL;
+		case DIV:
+			return Bytecode.BinOp.DIV;
+		default:
+			return Bytecode.BinOp.REM;
+		}
+	}
+	
+	private static String arithmeticOpName(Code.BOp bop) {
+		switch(bop) {
+		case ADD:
+			return "add";
+		case SUB:
+			return "subtract";
+		case MUL:
+			return "multiply";
+		case DIV:
+			return "divide";
+		default:
+			return "remainder";
+		}
+	}
+
 	public void translate(Code.SetUnion c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {		
 		JvmType.Function ftype;
@@ -1222,20 +1698,27 @@ public class ClassFileBuilder {
 	
 	public void translate(Code.SetLength c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {		
-		JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,WHILEYSET);			
-		bytecodes.add(new Bytecode.Invoke(WHILEYSET, "length",
-				ftype, Bytecode.STATIC));									
+		if(unboxing.producesUnboxed(stmt)) {
+			JvmType.Function ftype = new JvmType.Function(T_INT);
+			bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_COLLECTION, "size",
+					ftype, Bytecode.INTERFACE));
+			bytecodes.add(new Bytecode.Conversion(T_INT,T_LONG));
+		} else {
+			JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,WHILEYSET);			
+			bytecodes.add(new Bytecode.Invoke(WHILEYSET, "length",
+					ftype, Bytecode.STATIC));
+		}
 	}
 		
 	public void translate(Code.StringAppend c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {						
 		JvmType.Function ftype;
 		if(c.dir == OpDir.UNIFORM) {
-			ftype = new JvmType.Function(JAVA_LANG_STRING,JAVA_LANG_STRING,JAVA_LANG_STRING);
+			ftype = new JvmType.Function(WHILEYSTRING,WHILEYSTRING,WHILEYSTRING);
 		} else if(c.dir == OpDir.LEFT) {
-			ftype = new JvmType.Function(JAVA_LANG_STRING,JAVA_LANG_STRING,T_CHAR);				
+			ftype = new JvmType.Function(WHILEYSTRING,WHILEYSTRING,T_CHAR);				
 		} else {
-			ftype = new JvmType.Function(JAVA_LANG_STRING,T_CHAR,JAVA_LANG_STRING);				
+			ftype = new JvmType.Function(WHILEYSTRING,T_CHAR,WHILEYSTRING);				
 		}													
 		bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "append", ftype,
 				Bytecode.STATIC));
@@ -1247,20 +1730,27 @@ public class ClassFileBuilder {
 		bytecodes.add(new Bytecode.Invoke(BIG_INTEGER, "intValue",
 				ftype, Bytecode.VIRTUAL));
 		ftype = new JvmType.Function(T_CHAR,T_INT);
-		bytecodes.add(new Bytecode.Invoke(JAVA_LANG_STRING, "charAt", ftype,
+		bytecodes.add(new Bytecode.Invoke(WHILEYSTRING, "charAt", ftype,
 				Bytecode.VIRTUAL));				
 	}
 	
 	public void translate(Code.StringLength c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {						
-		JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,JAVA_LANG_STRING);						
-		bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "stringlength",
-				ftype, Bytecode.STATIC));								
+		if(unboxing.producesUnboxed(stmt)) {
+			JvmType.Function ftype = new JvmType.Function(T_INT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYSTRING, "length",
+					ftype, Bytecode.VIRTUAL));
+			bytecodes.add(new Bytecode.Conversion(T_INT,T_LONG));
+		} else {
+			JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,WHILEYSTRING);						
+			bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "stringlength",
+					ftype, Bytecode.STATIC));
+		}
 	}
 	
 	public void translate(Code.SubString c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {						
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_STRING,JAVA_LANG_STRING,
+		JvmType.Function ftype = new JvmType.Function(WHILEYSTRING,WHILEYSTRING,
 				BIG_INTEGER, BIG_INTEGER);
 		bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "substring", ftype,
 				Bytecode.STATIC));
@@ -1272,12 +1762,20 @@ public class ClassFileBuilder {
 		bytecodes.add(new Bytecode.BinOp(Bytecode.BinOp.XOR,T_INT));			
 	}
 	
-	public void translate(Code.Negate c, int freeSlot,
+	public void translate(Code.Negate c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {								
 		JvmType type = convertType(c.type);
-		JvmType.Function ftype = new JvmType.Function(type);
-		bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type, "negate",
-				ftype, Bytecode.VIRTUAL));		
+		if(unboxing.isUnboxed(stmt)) {
+			bytecodes.add(new Bytecode.Neg(T_LONG));
+		} else if(type.equals(BIG_INTEGER)) {
+			JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,BIG_INTEGER);
+			bytecodes.add(new Bytecode.Invoke(WHILEYINT, "negate", ftype,
+					Bytecode.STATIC));
+		} else {
+			JvmType.Function ftype = new JvmType.Function(type);
+			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type, "negate",
+					ftype, Bytecode.VIRTUAL));
+		}
 	}
 	
 	public void translate(Code.Spawn c, int freeSlot,
@@ -1295,7 +1793,7 @@ public class ClassFileBuilder {
 				Bytecode.VIRTUAL));
 	}
 	
-	public void translate(Code.ProcLoad c, int freeSlot,
+	public void translate(Code.ProcLoad c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {				
 		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT);		
 		bytecodes.add(new Bytecode.Invoke(WHILEYPROCESS, "state", ftype,
@@ -1303,6 +1801,9 @@ public class ClassFileBuilder {
 		// finally, we need to cast the object we got back appropriately.		
 		Type.Process pt = (Type.Process) c.type;						
 		addReadConversion(pt.element(), bytecodes);
+		if(refCounts.requiresIncRefs(stmt)) {
+			addIncRefs(pt.element(),bytecodes);
+		}
 	}
 	
 	protected void translate(Code.NewDict c, int freeSlot,
@@ -1330,17 +1831,19 @@ public class ClassFileBuilder {
 	protected void translate(Code.NewList c, int freeSlot, ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.New(WHILEYLIST));		
 		bytecodes.add(new Bytecode.Dup(WHILEYLIST));
-		bytecodes.add(new Bytecode.LoadConst(c.nargs));
-		JvmType.Function ftype = new JvmType.Function(T_VOID,T_INT);
+		JvmType.Function ftype = new JvmType.Function(T_VOID);
 		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "<init>", ftype,
 				Bytecode.SPECIAL));
 		
-		ftype = new JvmType.Function(WHILEYLIST, WHILEYLIST, JAVA_LANG_OBJECT);		
+		// The list is freshly constructed, hence each element is added in-place.
+		ftype = new JvmType.Function(T_BOOL, JAVA_LANG_OBJECT);		
 		for(int i=0;i!=c.nargs;++i) {			
+			bytecodes.add(new Bytecode.DupX1());
 			bytecodes.add(new Bytecode.Swap());			
 			addWriteConversion(c.type.element(),bytecodes);
-			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "append", ftype,
-					Bytecode.STATIC));			
+			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "add", ftype,
+					Bytecode.VIRTUAL));
+			bytecodes.add(new Bytecode.Pop(T_BOOL));
 		}
 		
 		// At this stage, we have a problem. We've added the elements into the
@@ -1362,24 +1865,21 @@ public class ClassFileBuilder {
 	
 	public void translate(Code.NewRecord expr, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
-		construct(WHILEYRECORD, freeSlot, bytecodes);		
+		HashMap<String,Type> fields = expr.type.fields();
+		ArrayList<String> keys = recordFields(expr.type);		
+		construct(keys, bytecodes);		
 		bytecodes.add(new Bytecode.Store(freeSlot,WHILEYRECORD));
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
-				JAVA_LANG_OBJECT, JAVA_LANG_OBJECT);
+		JvmType.Function ftype = new JvmType.Function(T_VOID, T_INT,
+				JAVA_LANG_OBJECT);
 		
-		HashMap<String,Type> fields = expr.type.fields();
-		ArrayList<String> keys = new ArrayList<String>(fields.keySet());
-		Collections.sort(keys);
-		Collections.reverse(keys);
-		for(String key : keys) {
-			Type et = fields.get(key);				
+		for(int i=keys.size()-1;i>=0;--i) {
+			Type et = fields.get(keys.get(i));				
 			bytecodes.add(new Bytecode.Load(freeSlot,WHILEYRECORD));
 			bytecodes.add(new Bytecode.Swap());
-			bytecodes.add(new Bytecode.LoadConst(key));
+			bytecodes.add(new Bytecode.LoadConst(i));
 			bytecodes.add(new Bytecode.Swap());
 			addWriteConversion(et,bytecodes);
-			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"put",ftype,Bytecode.VIRTUAL));						
-			bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"set",ftype,Bytecode.VIRTUAL));
 		}
 		
 		bytecodes.add(new Bytecode.Load(freeSlot,WHILEYRECORD));
@@ -1524,31 +2024,34 @@ public class ClassFileBuilder {
 			bytecodes.add(new Bytecode.ArrayStore(arrT));			
 		}
 		
-		// finally, setup the stack for the send
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_REFLECT_METHOD,
-				JAVA_LANG_STRING, JAVA_LANG_STRING);
-		
-		bytecodes.add(new Bytecode.LoadConst(c.name.module().toString()));		
-		bytecodes
-				.add(new Bytecode.LoadConst(nameMangle(c.name.name(), c.type)));
-		bytecodes.add(new Bytecode.Invoke(WHILEYIO, "functionRef", ftype,
-				Bytecode.STATIC));
+		// finally, setup the stack for the send. The target method is
+		// resolved once per class, and held in a static field.
+		Pair<String,String> target = new Pair<String,String>(c.name.module()
+				.toString(), nameMangle(c.name.name(), c.type));
+		Integer index = handles.get(target);
+		if(index == null) {
+			index = handles.size();
+			handles.put(target, index);
+		}
+		bytecodes.add(new Bytecode.GetField(owner, "handle$" + index,
+				JAVA_LANG_INVOKE_METHODHANDLE, Bytecode.STATIC));
 		bytecodes.add(new Bytecode.Load(freeSlot, arrT));
-							
+		
+		JvmType.Function ftype;
 		if (c.synchronous && c.retval) {			
 			ftype = new JvmType.Function(JAVA_LANG_OBJECT,
-					JAVA_LANG_REFLECT_METHOD, JAVA_LANG_OBJECT_ARRAY);
+					JAVA_LANG_INVOKE_METHODHANDLE, JAVA_LANG_OBJECT_ARRAY);
 			bytecodes.add(new Bytecode.Invoke(WHILEYPROCESS, "syncSend", ftype,
 					Bytecode.VIRTUAL));
 			addReadConversion(c.type.ret(), bytecodes);
 		} else if (c.synchronous) {			
 			ftype = new JvmType.Function(T_VOID,
-					JAVA_LANG_REFLECT_METHOD, JAVA_LANG_OBJECT_ARRAY);
+					JAVA_LANG_INVOKE_METHODHANDLE, JAVA_LANG_OBJECT_ARRAY);
 			bytecodes.add(new Bytecode.Invoke(WHILEYPROCESS, "vSyncSend", ftype,
 					Bytecode.VIRTUAL));
 		} else {
 			ftype = new JvmType.Function(T_VOID,
-					JAVA_LANG_REFLECT_METHOD, JAVA_LANG_OBJECT_ARRAY);
+					JAVA_LANG_INVOKE_METHODHANDLE, JAVA_LANG_OBJECT_ARRAY);
 			bytecodes.add(new Bytecode.Invoke(WHILEYPROCESS, "asyncSend",
 					ftype, Bytecode.VIRTUAL));
 		} 
@@ -1678,12 +2181,12 @@ public class ClassFileBuilder {
 			bytecodes.add(new Bytecode.LoadConst(num.intValue()));				
 			bytecodes.add(new Bytecode.Conversion(T_INT,T_LONG));
 			JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,T_LONG);
-			bytecodes.add(new Bytecode.Invoke(BIG_INTEGER, "valueOf", ftype,
+			bytecodes.add(new Bytecode.Invoke(WHILEYINT, "valueOf", ftype,
 					Bytecode.STATIC));
 		} else if(num.bitLength() < 64) {			
 			bytecodes.add(new Bytecode.LoadConst(num.longValue()));				
 			JvmType.Function ftype = new JvmType.Function(BIG_INTEGER,T_LONG);
-			bytecodes.add(new Bytecode.Invoke(BIG_INTEGER, "valueOf", ftype,
+			bytecodes.add(new Bytecode.Invoke(WHILEYINT, "valueOf", ftype,
 					Bytecode.STATIC));
 		} else {
 			// in this context, we need to use a byte array to construct the
@@ -1796,6 +2299,9 @@ public class ClassFileBuilder {
 	protected void translate(Value.Strung e, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {		
 		bytecodes.add(new Bytecode.LoadConst(e.value));
+		JvmType.Function ftype = new JvmType.Function(WHILEYSTRING,JAVA_LANG_STRING);
+		bytecodes.add(new Bytecode.Invoke(WHILEYSTRING, "valueOf", ftype,
+				Bytecode.STATIC));
 	}
 	
 	protected void translate(Value.Set lv, int freeSlot,
@@ -1821,8 +2327,7 @@ public class ClassFileBuilder {
 			ArrayList<Bytecode> bytecodes) {		
 		bytecodes.add(new Bytecode.New(WHILEYLIST));		
 		bytecodes.add(new Bytecode.Dup(WHILEYLIST));
-		bytecodes.add(new Bytecode.LoadConst(lv.values.size()));
-		JvmType.Function ftype = new JvmType.Function(T_VOID,T_INT);
+		JvmType.Function ftype = new JvmType.Function(T_VOID);
 		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "<init>", ftype,
 				Bytecode.SPECIAL));
 		
@@ -1859,18 +2364,19 @@ public class ClassFileBuilder {
 	
 	protected void translate(Value.Record expr, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
-				JAVA_LANG_OBJECT, JAVA_LANG_OBJECT);
-		construct(WHILEYRECORD, freeSlot, bytecodes);
-		for (Map.Entry<String, Value> e : expr.values.entrySet()) {
-			Type et = e.getValue().type();
+		JvmType.Function ftype = new JvmType.Function(T_VOID, T_INT,
+				JAVA_LANG_OBJECT);
+		ArrayList<String> keys = new ArrayList<String>(expr.values.keySet());
+		Collections.sort(keys);
+		construct(keys, bytecodes);
+		for (int i = 0; i != keys.size(); ++i) {
+			Value v = expr.values.get(keys.get(i));
 			bytecodes.add(new Bytecode.Dup(WHILEYRECORD));
-			bytecodes.add(new Bytecode.LoadConst(e.getKey()));
-			translate(e.getValue(), freeSlot, bytecodes);
-			addWriteConversion(et, bytecodes);
-			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "put", ftype,
+			bytecodes.add(new Bytecode.LoadConst(i));
+			translate(v, freeSlot, bytecodes);
+			addWriteConversion(v.type(), bytecodes);
+			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "set", ftype,
 					Bytecode.VIRTUAL));
-			bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
 		}
 	}
 	
@@ -1974,9 +2480,14 @@ public class ClassFileBuilder {
 	 * @return
 	 */
 	public static boolean isRefCounted(Type t) {
-		return t != Type.T_BOOL && t != Type.T_INT && t != Type.T_REAL
-				&& t != Type.T_STRING
-				&& !Type.isSubtype(Type.T_PROCESS(Type.T_ANY), t); 
+		if(t == Type.T_VOID || t == Type.T_NULL) {
+			return false;
+		}
+		JvmType jt = convertType(t);
+		return jt.equals(WHILEYLIST) || jt.equals(WHILEYSET)
+				|| jt.equals(WHILEYMAP) || jt.equals(WHILEYRECORD)
+				|| jt.equals(WHILEYTUPLE) || jt.equals(WHILEYSTRING)
+				|| jt.equals(JAVA_LANG_OBJECT);
 	}
 
 	/**
@@ -1993,6 +2504,51 @@ public class ClassFileBuilder {
 		}
 	}
 	
+	/**
+	 * Add bytecodes for decrementing the reference count.
+	 * 
+	 * @param type
+	 * @param bytecodes
+	 */
+	public static void addDecRefs(Type type, ArrayList<Bytecode> bytecodes) {
+		if(isRefCounted(type)){
+			JvmType jtype = convertType(type);
+			JvmType.Function ftype = new JvmType.Function(jtype,jtype);			
+			bytecodes.add(new Bytecode.Invoke(WHILEYUTIL,"decRefs",ftype,Bytecode.STATIC));
+		}
+	}
+	
+	/**
+	 * Construct a record with the given (sorted) fields, which are
+	 * subsequently initialised according to their index.
+	 */
+	public void construct(ArrayList<String> fields, ArrayList<Bytecode> bytecodes) {
+		StringBuilder layout = new StringBuilder();
+		for(String field : fields) {
+			if(layout.length() != 0) {
+				layout.append(',');
+			}
+			layout.append(field);
+		}
+		bytecodes.add(new Bytecode.New(WHILEYRECORD));		
+		bytecodes.add(new Bytecode.Dup(WHILEYRECORD));
+		bytecodes.add(new Bytecode.LoadConst(layout.toString()));
+		JvmType.Function ftype = new JvmType.Function(T_VOID, JAVA_LANG_STRING);
+		bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "<init>", ftype,
+				Bytecode.SPECIAL));
+	}
+	
+	/**
+	 * Determine the fields of a record type in sorted order. This is the
+	 * order in which they are held by the runtime record, and determines the
+	 * index of each field.
+	 */
+	public static ArrayList<String> recordFields(Type.Record type) {
+		ArrayList<String> fields = new ArrayList<String>(type.fields().keySet());
+		Collections.sort(fields);
+		return fields;
+	}
+	
 	/**
 	 * The construct method provides a generic way to construct a Java object.
 	 * 
@@ -2029,6 +2585,7 @@ public class ClassFileBuilder {
 	public final static JvmType.Clazz WHILEYLIST = new JvmType.Clazz("wyjc.runtime","List");
 	public final static JvmType.Clazz WHILEYSET = new JvmType.Clazz("wyjc.runtime","Set");
 	public final static JvmType.Clazz WHILEYTUPLE = new JvmType.Clazz("wyjc.runtime","Tuple");
+	public final static JvmType.Clazz WHILEYSTRING = new JvmType.Clazz("wyjc.runtime","WyString");
 	public final static JvmType.Clazz WHILEYTYPE = new JvmType.Clazz("wyjc.runtime","Type");
 	public final static JvmType.Clazz WHILEYIO = new JvmType.Clazz("wyjc.runtime","IO");
 	public final static JvmType.Clazz WHILEYMAP = new JvmType.Clazz("wyjc.runtime","Dictionary");
@@ -2037,12 +2594,14 @@ public class ClassFileBuilder {
 			"wyjc.runtime", "Actor");	
 	public final static JvmType.Clazz WHILEYEXCEPTION = new JvmType.Clazz("wyjc.runtime","Exception");	
 	public final static JvmType.Clazz BIG_INTEGER = new JvmType.Clazz("java.math","BigInteger");
+	public final static JvmType.Clazz WHILEYINT = new JvmType.Clazz("wyjc.runtime","WyInt");
 	public final static JvmType.Clazz BIG_RATIONAL = new JvmType.Clazz("wyjc.runtime","BigRational");
 	private static final JvmType.Clazz JAVA_LANG_CHARACTER = new JvmType.Clazz("java.lang","Character");
 	private static final JvmType.Clazz JAVA_LANG_SYSTEM = new JvmType.Clazz("java.lang","System");
 	private static final JvmType.Array JAVA_LANG_OBJECT_ARRAY = new JvmType.Array(JAVA_LANG_OBJECT);
 	private static final JvmType.Clazz JAVA_UTIL_LIST = new JvmType.Clazz("java.util","List");
 	private static final JvmType.Clazz JAVA_LANG_REFLECT_METHOD = new JvmType.Clazz("java.lang.reflect","Method");
+	private static final JvmType.Clazz JAVA_LANG_INVOKE_METHODHANDLE = new JvmType.Clazz("java.lang.invoke","MethodHandle");
 	private static final JvmType.Clazz JAVA_IO_PRINTSTREAM = new JvmType.Clazz("java.io","PrintStream");
 	private static final JvmType.Clazz JAVA_LANG_RUNTIMEEXCEPTION = new JvmType.Clazz("java.lang","RuntimeException");
 	private static final JvmType.Clazz JAVA_LANG_ASSERTIONERROR = new JvmType.Clazz("java.lang","AssertionError");
@@ -2081,7 +2640,7 @@ public class ClassFileBuilder {
 		} else if(t instanceof Type.Meta) {
 			return WHILEYTYPE;
 		} else if(t instanceof Type.Strung) {
-			return JAVA_LANG_STRING;
+			return WHILEYSTRING;
 		} else if(t instanceof Type.List) {
 			return WHILEYLIST;
 		} else if(t instanceof Type.Set) {
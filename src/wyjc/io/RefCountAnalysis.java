@@ -0,0 +1,353 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.io;
+
+import java.util.*;
+
+import wyil.ModuleLoader;
+import wyil.lang.*;
+import wyil.lang.Code.*;
+import wyil.transforms.LiveVariablesAnalysis;
+import static wyil.lang.Block.*;
+
+/**
+ * <p>
+ * The reference count analysis determines where the class file builder must
+ * increment the reference count of a compound value (i.e. list, set,
+ * dictionary, record, tuple or string). Every compound value on the stack is
+ * considered to <i>own</i> one reference to the underlying structure. In
+ * particular, a value pushed by a <code>load</code> bytecode is shared with the
+ * variable being loaded and, hence, the reference count must be incremented.
+ * However, there are two important exceptions:
+ * </p>
+ * <ul>
+ * <li>When the variable being loaded is not live afterwards. In this case, the
+ * reference held by the variable can simply be moved onto the stack.</li>
+ * <li>When the value loaded is only used <i>transiently</i>. For example, in
+ * <code>xs[i]</code> or <code>|xs|</code>, the list itself is consumed by an
+ * operation which does not retain a reference to it. In this case, the value
+ * is said to be <i>borrowed</i>.</li>
+ * </ul>
+ * <p>
+ * The same applies to values extracted from other compound structures (e.g.
+ * via <code>listload</code> or <code>fieldload</code>), or loaded from
+ * constants. In this way, the reference count of a structure only exceeds one
+ * when it is genuinely shared, which then allows updates to happen in place.
+ * </p>
+ * <p>
+ * Likewise, a variable owns one reference to its value. This reference is
+ * released when the variable is overwritten, or when its last use borrows the
+ * value (rather than moving it onto the stack). A variable whose value has
+ * been moved is cleared, so that a later store does not release the moved
+ * reference again. In this way, the reference count of a structure drops back
+ * to one once an alias of it dies. This is only done for <i>tracked</i>
+ * variables, which are those only ever assigned (possibly) reference counted
+ * values by <code>store</code> bytecodes.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> borrowing is determined by simulating the stack through the
+ * block. If the stack is not empty at a branch or label, or an unknown
+ * bytecode is encountered, then the analysis conservatively gives up on
+ * borrowing for the entire block.
+ * </p>
+ * 
+ * @author djp
+ * 
+ */
+public class RefCountAnalysis {
+	private final LiveVariablesAnalysis liveness;
+	private final IdentityHashMap<Entry,Entry> borrowed = new IdentityHashMap<Entry,Entry>();
+	private final HashSet<Integer> tracked = new HashSet<Integer>();
+	private ArrayList<Entry> stack;
+	
+	public RefCountAnalysis(ModuleLoader loader) {
+		this.liveness = new LiveVariablesAnalysis(loader);
+	}
+	
+	public void analyse(Module.Method method, Module.Case mcase) {
+		liveness.analyse(mcase);
+		borrowed.clear();
+		stack = new ArrayList<Entry>();
+		for(Entry entry : mcase.body()) {
+			if(!simulate(entry)) {
+				borrowed.clear();
+				break;
+			}
+		}
+		track(method, mcase);
+	}
+	
+	/**
+	 * Determine whether or not the reference owned by a given variable is
+	 * tracked. If so, then the variable is always initialised (to
+	 * <code>null</code> if it is not a parameter).
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public boolean isTracked(int slot) {
+		return tracked.contains(slot);
+	}
+
+	/**
+	 * Determine whether or not the value pushed onto the stack by a given
+	 * bytecode must have its reference count incremented.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean requiresIncRefs(Entry entry) {
+		if(borrowed.containsKey(entry)) {
+			return false;
+		} else if(entry.code instanceof Code.Load) {
+			return liveness.isLiveAfter(entry);
+		} else {
+			return true;
+		}
+	}
+	
+	/**
+	 * Determine whether or not a given bytecode must decrement the reference
+	 * count of the value held in a variable. This is the case for the last
+	 * use of a tracked variable which only borrows its value, and for a store
+	 * which overwrites a tracked variable.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean requiresDecRefs(Entry entry) {
+		Code code = entry.code;
+		if(code instanceof Code.Load) {
+			return releases(entry) && borrowed.containsKey(entry);
+		} else if(code instanceof Code.Store) {
+			return tracked.contains(((Code.Store) code).slot);
+		} else {
+			return false;
+		}
+	}
+	
+	/**
+	 * Determine whether or not a given load bytecode is the last use of a
+	 * tracked variable. If so, the variable no longer owns its value and must
+	 * be cleared.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean releases(Entry entry) {
+		Code code = entry.code;
+		return code instanceof Code.Load
+				&& tracked.contains(((Code.Load) code).slot)
+				&& !liveness.isLiveAfter(entry);
+	}
+	
+	/**
+	 * Determine the tracked variables of a given method case. A variable
+	 * cannot be tracked if it may hold a primitive value, if it is assigned by
+	 * a bytecode other than <code>store</code>, or if the method contains
+	 * JVM bytecodes which may access it directly.
+	 * 
+	 * @param method
+	 * @param mcase
+	 */
+	private void track(Module.Method method, Module.Case mcase) {
+		tracked.clear();
+		Type.Fun ft = method.type();
+		HashSet<Integer> untracked = new HashSet<Integer>();
+		int slot = 0;
+		if(ft.receiver() != null) {
+			untracked.add(slot++);
+		}
+		for(Type param : ft.params()) {
+			if(ClassFileBuilder.isRefCounted(param)) {
+				tracked.add(slot);
+			} else {
+				untracked.add(slot);
+			}
+			slot++;
+		}
+		for(Entry entry : mcase.body()) {
+			Code code = entry.code;
+			if(code instanceof Store) {
+				Store s = (Store) code;
+				if(ClassFileBuilder.isRefCounted(s.type)) {
+					tracked.add(s.slot);
+				} else {
+					untracked.add(s.slot);
+				}
+			} else if(code instanceof ForAll) {
+				untracked.add(((ForAll) code).slot);
+			} else if(code instanceof IfType && ((IfType) code).slot >= 0) {
+				untracked.add(((IfType) code).slot);
+			} else if(code instanceof ExternJvm) {
+				tracked.clear();
+				return;
+			}
+		}
+		tracked.removeAll(untracked);
+	}
+	
+	/**
+	 * Simulate the effect of a given bytecode on the stack.
+	 * 
+	 * @param entry
+	 * @return false if the simulation could not be completed.
+	 */
+	private boolean simulate(Entry entry) {
+		Code code = entry.code;
+		
+		if(code instanceof Load || code instanceof Const) {
+			return push(entry);
+		} else if(code instanceof ListLoad || code instanceof DictLoad
+				|| code instanceof StringLoad) {
+			return borrow(2) && push(entry);
+		} else if(code instanceof FieldLoad || code instanceof ProcLoad) {
+			return borrow(1) && push(entry);
+		} else if(code instanceof Convert) {
+			// conversions pass the value straight through
+			return stack.size() > 0;
+		} else if(code instanceof ListLength || code instanceof SetLength
+				|| code instanceof StringLength || code instanceof Negate
+				|| code instanceof Invert) {
+			return borrow(1) && push(null);
+		} else if(code instanceof BinOp || code instanceof StringAppend) {
+			return borrow(2) && push(null);
+		} else if(code instanceof SubList || code instanceof SubString) {
+			return borrow(3) && push(null);
+		} else if(code instanceof ListAppend) {
+			return collectionOp(((ListAppend)code).dir);
+		} else if(code instanceof SetUnion) {
+			return collectionOp(((SetUnion)code).dir);
+		} else if(code instanceof SetIntersect) {
+			return collectionOp(((SetIntersect)code).dir);
+		} else if(code instanceof SetDifference) {
+			return collectionOp(((SetDifference)code).dir);
+		} else if(code instanceof Debug) {
+			return borrow(1);
+		} else if(code instanceof Destructure) {
+			Destructure d = (Destructure) code;
+			int n = d.type instanceof Type.Tuple ? ((Type.Tuple) d.type)
+					.elements().size() : 2;
+			if(!borrow(1)) { return false; }
+			for(int i=0;i!=n;++i) {
+				push(null);
+			}
+			return true;
+		} else if(code instanceof Store || code instanceof Spawn
+				|| code instanceof Throw) {
+			return retain(1) && (!(code instanceof Spawn) || push(null));
+		} else if(code instanceof Update) {
+			Update u = (Update) code;
+			return retain(u.level - u.fields.size() + 1);
+		} else if(code instanceof NewList) {
+			return retain(((NewList)code).nargs) && push(null);
+		} else if(code instanceof NewSet) {
+			return retain(((NewSet)code).nargs) && push(null);
+		} else if(code instanceof NewTuple) {
+			return retain(((NewTuple)code).nargs) && push(null);
+		} else if(code instanceof NewDict) {
+			return retain(((NewDict)code).nargs * 2) && push(null);
+		} else if(code instanceof NewRecord) {
+			return retain(((NewRecord)code).type.fields().size()) && push(null);
+		} else if(code instanceof Invoke) {
+			Invoke i = (Invoke) code;
+			int nargs = i.type.params().size()
+					+ (i.type.receiver() != null ? 1 : 0);
+			return retain(nargs)
+					&& (!i.retval || i.type.ret() == Type.T_VOID || push(null));
+		} else if(code instanceof Send) {
+			Send s = (Send) code;
+			return retain(s.type.params().size() + 1)
+					&& (!(s.synchronous && s.retval) || push(null));
+		} else if(code instanceof Return) {
+			Return r = (Return) code;
+			return (r.type == Type.T_VOID || retain(1)) && stack.isEmpty();
+		} else if(code instanceof IfGoto) {
+			return borrow(2) && stack.isEmpty();
+		} else if(code instanceof IfType) {
+			IfType it = (IfType) code;
+			return (it.slot >= 0 || borrow(1)) && stack.isEmpty();
+		} else if(code instanceof Switch) {
+			return borrow(1) && stack.isEmpty();
+		} else if(code instanceof ForAll) {
+			// the collection being iterated over must be retained, since the
+			// loop body may update the variable it came from. The class file
+			// builder releases it again when the loop exits.
+			return retain(1) && stack.isEmpty();
+		} else if (code instanceof Label || code instanceof Loop
+				|| code instanceof Goto || code instanceof Fail
+				|| code instanceof Skip || code instanceof Assert) {
+			return stack.isEmpty();
+		}
+		
+		// unknown bytecode encountered
+		return false;
+	}
+	
+	private boolean collectionOp(OpDir dir) {
+		if(stack.size() < 2) {
+			return false;
+		}
+		Entry rhs = stack.remove(stack.size()-1);
+		Entry lhs = stack.remove(stack.size()-1);
+		// a collection operand is copied, whilst an element operand is
+		// retained in the result.
+		if(dir != OpDir.RIGHT) { borrowed(lhs); }
+		if(dir != OpDir.LEFT) { borrowed(rhs); }
+		return push(null);
+	}
+	
+	private boolean push(Entry entry) {
+		stack.add(entry);
+		return true;
+	}
+	
+	private boolean borrow(int n) {
+		if(stack.size() < n) {
+			return false;
+		}
+		for(int i=0;i!=n;++i) {
+			borrowed(stack.remove(stack.size()-1));
+		}
+		return true;
+	}
+	
+	private boolean retain(int n) {
+		if(stack.size() < n) {
+			return false;
+		}
+		for(int i=0;i!=n;++i) {
+			stack.remove(stack.size()-1);
+		}
+		return true;
+	}
+	
+	private void borrowed(Entry entry) {
+		if(entry != null) {
+			borrowed.put(entry,entry);
+		}
+	}
+}
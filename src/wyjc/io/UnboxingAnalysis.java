@@ -0,0 +1,280 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.io;
+
+import java.util.*;
+
+import wyil.ModuleLoader;
+import wyil.lang.*;
+import wyil.lang.Code.*;
+import wyil.transforms.RangeAnalysis;
+import static wyil.lang.Block.*;
+
+/**
+ * <p>
+ * The unboxing analysis determines where the class file builder can represent
+ * a Whiley <code>int</code> using a primitive JVM <code>long</code>, rather
+ * than a <code>BigInteger</code>. This is based on the intervals computed by
+ * the range analysis. There are two aspects to this:
+ * </p>
+ * <ul>
+ * <li>A variable (other than a parameter) whose values provably fit into a
+ * <code>long</code> is stored in a <code>long</code> register. Since such
+ * registers occupy two slots, they are allocated after all other variables.</li>
+ * <li>An arithmetic operation or comparison whose operands (and result)
+ * provably fit into a <code>long</code> is performed using the corresponding
+ * JVM bytecode (e.g. <code>ladd</code>, <code>lcmp</code>). Similarly, a list
+ * access whose index fits into an <code>int</code> avoids constructing a
+ * <code>BigInteger</code>.</li>
+ * </ul>
+ * <p>
+ * Every value pushed on the stack is either <i>boxed</i> or <i>unboxed</i>. The
+ * analysis determines, for each bytecode, whether the value it produces is
+ * unboxed, and whether the bytecode consuming that value requires it to be
+ * unboxed. Where these disagree, the class file builder converts between
+ * representations.
+ * </p>
+ * <p>
+ * Finally, a <code>for</code> loop over a range (e.g. <code>for i in
+ * 0..n</code>) whose bounds fit into a <code>long</code> is compiled as a
+ * counted loop. In this case, the range itself is never constructed; instead,
+ * its (unboxed) bounds are left on the stack for the loop to consume.
+ * </p>
+ * 
+ * @author djp
+ * 
+ */
+public class UnboxingAnalysis {
+	private final RangeAnalysis ranges;
+	
+	/**
+	 * Maps each unboxed variable to the (first) JVM register it occupies.
+	 */
+	private final HashMap<Integer,Integer> registers = new HashMap<Integer,Integer>();
+	
+	/**
+	 * The set of bytecodes which operate directly on unboxed operands.
+	 */
+	private final IdentityHashMap<Entry,Entry> operations = new IdentityHashMap<Entry,Entry>();
+	
+	/**
+	 * The set of bytecodes whose value is required to be unboxed.
+	 */
+	private final IdentityHashMap<Entry,Entry> required = new IdentityHashMap<Entry,Entry>();
+	
+	/**
+	 * The set of loops compiled as counted loops, along with the ranges they
+	 * iterate over.
+	 */
+	private final IdentityHashMap<Entry,Entry> counted = new IdentityHashMap<Entry,Entry>();
+	
+	public UnboxingAnalysis(ModuleLoader loader) {
+		this.ranges = new RangeAnalysis(loader);
+	}
+
+	/**
+	 * Analyse a given method case, allocating registers for unboxed variables
+	 * starting from a given slot.
+	 * 
+	 * @param method
+	 * @param mcase
+	 * @param freeSlot
+	 *            --- the first unused register.
+	 * @return the first unused register after unboxed variables have been
+	 *         allocated.
+	 */
+	public int analyse(Module.Method method, Module.Case mcase, int freeSlot) {
+		registers.clear();
+		operations.clear();
+		required.clear();
+		counted.clear();
+		
+		if(!ranges.analyse(method,mcase)) {
+			return freeSlot;
+		}
+		
+		for(int i=0;i!=mcase.locals().size();++i) {
+			if(ranges.range(i).fitsLong()) {
+				registers.put(i,freeSlot);
+				freeSlot += 2;
+			}
+		}
+		
+		for(Entry entry : mcase.body()) {
+			Code code = entry.code;
+			Entry[] operands = ranges.operands(entry);
+			if(code instanceof Store) {
+				Store s = (Store) code;
+				if(isUnboxed(s.slot)) {
+					required.put(operands[0],operands[0]);
+				}
+			} else if(code instanceof BinOp) {
+				BinOp b = (BinOp) code;
+				switch(b.bop) {
+				case ADD:
+				case SUB:
+				case MUL:
+				case DIV:
+				case REM:
+					if(b.type instanceof Type.Int) {
+						unboxIfFits(entry,operands);
+					}
+				}
+			} else if(code instanceof Negate) {
+				if(((Negate) code).type instanceof Type.Int) {
+					unboxIfFits(entry,operands);
+				}
+			} else if(code instanceof IfGoto) {
+				IfGoto ig = (IfGoto) code;
+				switch(ig.op) {
+				case EQ:
+				case NEQ:
+				case LT:
+				case LTEQ:
+				case GT:
+				case GTEQ:
+					if(ig.type instanceof Type.Int) {
+						unboxIfFits(entry,operands);
+					}
+				}
+			} else if(code instanceof ListLoad) {
+				Entry index = operands[1];
+				if(ranges.range(index).fitsInt()) {
+					operations.put(entry,entry);
+					required.put(index,index);
+				}
+			} else if(code instanceof ForAll) {
+				Entry src = operands.length == 1 ? operands[0] : null;
+				if (src != null && src.code instanceof BinOp
+						&& ((BinOp) src.code).bop == BOp.RANGE) {
+					Entry[] bounds = ranges.operands(src);
+					if (bounds.length == 2
+							&& ranges.range(bounds[0]).fitsLong()
+							&& ranges.range(bounds[1]).fitsLong()) {
+						counted.put(entry, entry);
+						counted.put(src, src);
+						required.put(bounds[0], bounds[0]);
+						required.put(bounds[1], bounds[1]);
+					}
+				}
+			}
+		}
+		
+		return freeSlot;
+	}
+	
+	/**
+	 * Check whether a given variable is held in a <code>long</code> register.
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public boolean isUnboxed(int slot) {
+		return registers.containsKey(slot);
+	}
+	
+	/**
+	 * Determine the JVM register used to hold a given unboxed variable.
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public int register(int slot) {
+		return registers.get(slot);
+	}
+
+	/**
+	 * Check whether a given bytecode operates on unboxed operands.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean isUnboxed(Entry entry) {
+		return operations.containsKey(entry);
+	}
+
+	/**
+	 * Check whether a given bytecode is either a loop compiled as a counted
+	 * loop, or the range over which such a loop iterates. In the latter case,
+	 * the range's unboxed bounds are left on the stack in place of the range.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean isCounted(Entry entry) {
+		return counted.containsKey(entry);
+	}
+
+	/**
+	 * Check whether the bytecode which consumes the value produced by a given
+	 * bytecode requires it to be unboxed.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean requiresUnboxed(Entry entry) {
+		return required.containsKey(entry);
+	}
+
+	/**
+	 * Check whether the value produced by a given bytecode is unboxed. Loads
+	 * from unboxed variables, and unboxed arithmetic operations, always
+	 * produce unboxed values. Constants and lengths produce unboxed values
+	 * only when this is required.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean producesUnboxed(Entry entry) {
+		Code code = entry.code;
+		if(code instanceof Load) {
+			return isUnboxed(((Load)code).slot);
+		} else if(code instanceof BinOp || code instanceof Negate) {
+			return isUnboxed(entry);
+		} else if (code instanceof Const || code instanceof ListLength
+				|| code instanceof StringLength || code instanceof SetLength) {
+			return requiresUnboxed(entry)
+					&& (!(code instanceof Const) || ((Const) code).constant instanceof Value.Integer);
+		}
+		return false;
+	}
+	
+	private void unboxIfFits(Entry entry, Entry[] operands) {
+		// NOTE: a comparison produces no value, so only its operands matter
+		if(!(entry.code instanceof IfGoto) && !ranges.range(entry).fitsLong()) {
+			return;
+		}
+		for(Entry operand : operands) {
+			if(!ranges.range(operand).fitsLong()) {
+				return;
+			}
+		}
+		operations.put(entry, entry);
+		for(Entry operand : operands) {
+			required.put(operand, operand);
+		}
+	}
+}
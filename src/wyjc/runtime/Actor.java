@@ -26,16 +26,48 @@
 package wyjc.runtime;
 
 import java.util.*;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.*;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
-public final class Actor extends Thread {
+/**
+ * An actor holds some state, and processes the messages sent to it one at a
+ * time. How actors are mapped onto threads is determined by the
+ * <code>Scheduler</code>.
+ * 
+ * @author djp
+ * 
+ */
+public final class Actor implements Runnable {
 	private Object state;
-	private ArrayBlockingQueue<Message> queue = new ArrayBlockingQueue<Message>(10); 
+	private final Mailbox<Message> mailbox = new Mailbox<Message>(); 
+	
+	/**
+	 * Indicates whether this actor is currently scheduled to process its
+	 * mailbox. This is only used by schedulers which don't dedicate a thread
+	 * to each actor.
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean(); 
+	
+	/**
+	 * The task which will process this actor's mailbox, whilst it is
+	 * scheduled. This is only used by schedulers which don't dedicate a thread
+	 * to each actor.
+	 */
+	volatile Object task;
 	
 	public Actor(Object c) {
 		state = c;			
-		setDaemon(true);
+	}
+	
+	/**
+	 * Begin executing this actor, using the program's scheduler.
+	 */
+	public void start() {
+		Scheduler.get().start(this);
 	}
 
 	public Object state() {
@@ -49,14 +81,19 @@ public final class Actor extends Thread {
 	
 	/**
 	 * Send a message asynchronously to this actor. If the mailbox is full, then
-	 * this will in fact block.
+	 * this will block or discard the message, according to the mailbox's
+	 * overflow policy.
 	 * 
 	 * @param method --- the "message"
 	 * @param arguments --- the message "arguments"
 	 */
-	public void asyncSend(Method method, Object[] arguments) {
+	public void asyncSend(MethodHandle method, Object[] arguments) {
 		arguments[0] = this;		
-		queue.add(new Message(method,arguments,false));
+		post(new Message(method,arguments,false));
+	}
+	
+	public void asyncSend(Method method, Object[] arguments) {
+		asyncSend(handle(method),arguments);
 	}
 
 	/**
@@ -68,11 +105,13 @@ public final class Actor extends Thread {
 	 * @param arguments
 	 *            --- the message "arguments"
 	 */
-	public void vSyncSend(Method method, Object[] arguments) {
+	public void vSyncSend(MethodHandle method, Object[] arguments) {
 		arguments[0] = this;
-		Message m = new Message(method, arguments, true);
-		queue.add(m);
-		m.get(); // discard return value
+		call(new Message(method, arguments, true)); // discard return value
+	}
+	
+	public void vSyncSend(Method method, Object[] arguments) {
+		vSyncSend(handle(method),arguments);
 	}
 	
 	/**
@@ -84,34 +123,136 @@ public final class Actor extends Thread {
 	 * @param arguments
 	 *            --- the message "arguments"
 	 */
-	public Object syncSend(Method method, Object[] arguments) {
+	public Object syncSend(MethodHandle method, Object[] arguments) {
 		arguments[0] = this;
-		Message m = new Message(method,arguments,true);
-		queue.add(m);
-		return m.get();
+		return call(new Message(method,arguments,true));
+	}
+	
+	public Object syncSend(Method method, Object[] arguments) {
+		return syncSend(handle(method),arguments);
+	}
+	
+	/**
+	 * Caches the handles of methods sent indirectly (i.e. via function
+	 * references), since these are not known at compile time.
+	 */
+	private static final ConcurrentHashMap<Method,MethodHandle> handles = new ConcurrentHashMap<Method,MethodHandle>();
+	
+	private static MethodHandle handle(Method method) {
+		MethodHandle handle = handles.get(method);
+		if(handle == null) {
+			handle = IO.functionHandle(method);
+			handles.putIfAbsent(method, handle);
+		}
+		return handle;
 	}
 		
+	private void post(Message m) {
+		if(mailbox.offer(m, !m.synchronous)) {
+			Scheduler.get().schedule(this);
+		}
+	}
+	
+	/**
+	 * Send a synchronous message and wait for its result. If the sender is
+	 * running on one of the scheduler's workers, and this actor is idle, then
+	 * the message is processed directly on the sender's thread. This avoids
+	 * the cost of handing the message to another thread and back. Likewise, if
+	 * the task processing this actor has not yet been started, the sender may
+	 * run it rather than wait for it.
+	 */
+	private Object call(Message m) {
+		if(Scheduler.get().isWorker() && mailbox.isEmpty() && claim()) {
+			mailbox.consumer = Thread.currentThread();
+			try {
+				dispatch(m);
+			} finally {
+				release();
+			}
+		} else {
+			post(m);
+			while(!m.ready && Scheduler.get().help(this)) {
+				// the message may lie beyond the batch just processed
+			}
+		}
+		return m.get();
+	}
+
+	/**
+	 * Process messages indefinitely, blocking whilst the mailbox is empty.
+	 * This is used by schedulers which dedicate a thread to each actor.
+	 */
 	public void run() {		
 		// this is where the action happens
+		mailbox.consumer = Thread.currentThread();
 		while(1==1) {
-			try {
-				Message m = queue.take();
-				Object r = m.method.invoke(null, m.arguments);
-				if(m.synchronous){
-					m.set(r);
-				} 
-			} catch(InterruptedException e) {
-				// do nothing I guess
-			} catch(IllegalAccessException e) {
-				// do nothing I guess
-			} catch(InvocationTargetException ex) {
-				// not sure what to do!
-				Throwable e = ex.getCause();
-				if(e instanceof RuntimeException) {
-					RuntimeException re = (RuntimeException) e;
-					throw re;
-				}
-				// do nothing I guess
+			Message m = mailbox.take();
+			int count = 0;
+			do {
+				dispatch(m);
+			} while(++count < Mailbox.BATCH && (m = mailbox.poll()) != null);
+		}
+	}
+	
+	/**
+	 * Attempt to claim this actor for processing its mailbox. This succeeds
+	 * only if the actor is not already scheduled.
+	 */
+	boolean claim() {
+		return scheduled.compareAndSet(false, true);
+	}
+	
+	/**
+	 * Process a batch of messages, and then release this actor. If messages
+	 * remain, the actor is rescheduled, thus giving other actors a turn on this
+	 * thread. This is used by schedulers which multiplex actors over threads,
+	 * and must only be called after successfully claiming the actor.
+	 */
+	void drain() {
+		Message m;
+		int count = 0;
+		mailbox.consumer = Thread.currentThread();
+		try {
+			while(count++ < Mailbox.BATCH && (m = mailbox.poll()) != null) {
+				dispatch(m);
+			}
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Release this actor after processing some of its messages, rescheduling
+	 * it if any remain.
+	 */
+	private void release() {
+		mailbox.consumer = null;
+		scheduled.set(false);
+		// a message may have arrived after the mailbox was last polled, but
+		// before this actor was released.
+		if(!mailbox.isEmpty()) {
+			Scheduler.get().schedule(this);
+		}
+	}
+	
+	/**
+	 * Process a single message. If it fails, and the message is synchronous,
+	 * then the failure is passed back to the sender. Otherwise, there is no one
+	 * waiting on the message, so the failure is reported through the current
+	 * thread's handler and this actor carries on with its next message.
+	 */
+	private void dispatch(Message m) {
+		try {
+			Object r = (Object) m.method.invokeExact(m.arguments);
+			if(m.synchronous){
+				m.set(r);
+			} 
+		} catch(Throwable e) {
+			if(m.synchronous) {
+				m.fail(e);
+			} else {
+				Thread t = Thread.currentThread();
+				t.getUncaughtExceptionHandler().uncaughtException(t, e);
 			}
 		}
 	}
@@ -131,33 +272,83 @@ public final class Actor extends Thread {
 		return system;
 	}
 	
-	private final static class Message {
-		public final Method method;
+	private final static class Message implements ForkJoinPool.ManagedBlocker {
+		public final MethodHandle method;
 		public final Object[] arguments;
 		public final boolean synchronous;
 		public volatile boolean ready = false;
 		public volatile Object result;
+		public volatile Throwable failure;
 		
-		public Message(Method method, Object[] arguments, boolean synchronous) {
+		public Message(MethodHandle method, Object[] arguments, boolean synchronous) {
 			this.method = method;
 			this.arguments = arguments;
 			this.synchronous = synchronous;			
 		}				
 		
-		public synchronized Object get() {
-			while(!ready) {
-				try {
-					wait();
-				} catch(InterruptedException e) {				
+		/**
+		 * The thread waiting for the result of this message, if any.
+		 */
+		private volatile Thread waiter;
+		
+		/**
+		 * Wait for the result of this message. Only the waiting thread is
+		 * parked, and it is unparked directly by the thread setting the
+		 * result. If the caller is itself running on a pool of threads, then
+		 * the pool is permitted to compensate for the blocked thread. If the
+		 * message failed, then its failure is rethrown on the waiting thread.
+		 */
+		public Object get() {
+			if(!ready) {
+				waiter = Thread.currentThread();
+				while(!ready) {
+					try {
+						ForkJoinPool.managedBlock(this);
+					} catch(InterruptedException e) {				
+					}
 				}
+				waiter = null;
+			}
+			Throwable e = failure;
+			if(e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			} else if(e instanceof Error) {
+				throw (Error) e;
+			} else if(e != null) {
+				throw new RuntimeException(e);
 			}
 			return result;
 		}
 		
-		public synchronized void set(Object result) {
+		public boolean isReleasable() {
+			return ready;
+		}
+		
+		public boolean block() {
+			while(!ready) {
+				LockSupport.park(this);
+			}
+			return true;
+		}
+		
+		public void set(Object result) {
 			this.result = result; 
+			complete();
+		}
+		
+		public void fail(Throwable failure) {
+			this.failure = failure;
+			complete();
+		}
+		
+		private void complete() {
 			this.ready = true;
-			notifyAll();
+			// the waiter is read after ready is set, so either it observes
+			// ready, or it is unparked here.
+			Thread w = waiter;
+			if(w != null) {
+				LockSupport.unpark(w);
+			}
 		}
 	}
 }
@@ -28,46 +28,65 @@ package wyjc.runtime;
 import java.math.BigInteger;
 import java.math.BigDecimal;
 
+/**
+ * <p>
+ * Represents Whiley's <code>real</code> type at runtime, as a normalised
+ * fraction. Most rationals seen in practice are small fractions, whose
+ * numerator and denominator fit comfortably into a <code>long</code>. Such
+ * rationals are held using <code>long</code>s, and the operations on them use
+ * primitive arithmetic. Only when this would overflow do we fall back to the
+ * (much slower) <code>BigInteger</code> operations.
+ * </p>
+ * 
+ * <p>
+ * Every rational has exactly one representation: it is held using
+ * <code>long</code>s if and only if its (normalised) numerator and
+ * denominator both fit. Thus, rationals can still be compared for equality
+ * field by field.
+ * </p>
+ * 
+ * @author djp
+ * 
+ */
 public final class BigRational extends Number implements Comparable<BigRational> {	
-	private static final BigRational[] cache = new BigRational[20];
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final BigRational[] cache = new BigRational[CACHE_HIGH - CACHE_LOW + 1];
 
+	static {
+		for (int i = 0; i != cache.length; ++i) {
+			cache[i] = new BigRational(i + CACHE_LOW, 1, null, null);
+		}
+	}
+
+	/**
+	 * Small numerators and denominators lie strictly within these bounds. The
+	 * bounds are symmetric, so that negating a small value always gives a
+	 * small value (thus, each rational still has exactly one representation).
+	 */
+	private static final long SMALL_MAX = 1L << 62;
+	private static final long SMALL_MIN = -SMALL_MAX;
+	
 	public static final BigRational MONE = BigRational.valueOf(-1);
 	public static final BigRational ZERO = BigRational.valueOf(0);
 	public static final BigRational ONE = BigRational.valueOf(1);
 	
-	private final BigInteger numerator;
-	private final BigInteger denominator;
+	/**
+	 * The numerator and denominator of a small rational. These are only
+	 * meaningful when <code>bigNum</code> is <code>null</code>.
+	 */
+	private final long num;
+	private final long den;
+	
+	/**
+	 * The numerator and denominator of a rational which is not small, or
+	 * <code>null</code> otherwise.
+	 */
+	private final BigInteger bigNum;
+	private final BigInteger bigDen;
 
 	public BigRational(String val) {		
-		int idx = val.indexOf('.');
-		if(idx > 0) {
-			String lhs = val.substring(0,idx);
-			String rhs = val.substring(idx+1);
-			BigInteger num = new BigInteger(lhs + rhs);			
-			BigInteger den = BigInteger.valueOf(10).pow(rhs.length());			
-			BigInteger gcd = num.gcd(den);			
-			if(!gcd.equals(BigInteger.ONE)) {
-				num = num.divide(gcd);
-				den = den.divide(gcd);
-			}
-			
-			// normalise sign.
-			BigInteger zero = BigInteger.ZERO;
-			if(zero.compareTo(num) > 0 && zero.compareTo(den) >= 0) {
-				num = num.negate();
-				den = den.negate();
-			} else if(zero.compareTo(den) == 0) {
-				num = BigInteger.ZERO;
-				den = BigInteger.ZERO;
-			}
-			
-			// done, assign final fields.
-			numerator = num;
-			denominator = den;			
-		} else {
-			numerator = new BigInteger(val);
-			denominator = BigInteger.valueOf(1);
-		}		
+		this(parse(val));
 	}
 	
 	public BigRational(BigDecimal dec) {
@@ -75,55 +94,50 @@ public final class BigRational extends Number implements Comparable<BigRational>
 	}
 	
 	public BigRational(BigInteger numerator) {
-		this.numerator = numerator;
-		this.denominator = BigInteger.ONE;
+		this(valueOf(numerator));
 	}
 	
 	public BigRational(BigInteger numerator, BigInteger denominator) {			
-		BigInteger gcd = numerator.gcd(denominator);		
-		if(!gcd.equals(BigInteger.ONE)) {
-			numerator = numerator.divide(gcd);
-			denominator = denominator.divide(gcd);
-		}
-		
-		// normalise sign.
-		BigInteger zero = BigInteger.ZERO;
-		if(zero.compareTo(denominator) > 0) {
-			numerator = numerator.negate();
-			denominator = denominator.negate();
-		} else if(zero.compareTo(denominator) == 0) {
-			numerator = BigInteger.ZERO;
-			denominator = BigInteger.ZERO;
-		}
-		
-		// done, assign final fields.
-		this.numerator = numerator;
-		this.denominator = denominator;
+		this(normalise(numerator, denominator));
 	}
 
 	public BigRational(int numerator, int denominator) {
-		this(BigInteger.valueOf(numerator),BigInteger.valueOf(denominator));
+		this(valueOf((long) numerator, (long) denominator));
 	}
 	
 	public BigRational(byte[] numbytes) {
-		this.numerator = new BigInteger(numbytes);
-		this.denominator = BigInteger.ONE;
+		this(valueOf(new BigInteger(numbytes)));
 	}
 	
 	public BigRational(byte[] numbytes, byte[] denbytes) {
 		this(new BigInteger(numbytes), new BigInteger(denbytes));
 	}
 	
+	private BigRational(BigRational r) {
+		this(r.num, r.den, r.bigNum, r.bigDen);
+	}
+	
+	private BigRational(long num, long den, BigInteger bigNum, BigInteger bigDen) {
+		this.num = num;
+		this.den = den;
+		this.bigNum = bigNum;
+		this.bigDen = bigDen;
+	}
+	
+	private boolean isSmall() {
+		return bigNum == null;
+	}
+	
 	public BigInteger numerator() {
-		return numerator;
+		return isSmall() ? WyInt.valueOf(num) : bigNum;
 	}
 	
 	public BigInteger denominator() {
-		return denominator;
+		return isSmall() ? WyInt.valueOf(den) : bigDen;
 	}
 	
 	public boolean isInteger() {		
-		return denominator.equals(BigInteger.ONE);
+		return isSmall() ? den == 1 : bigDen.equals(BigInteger.ONE);
 	}
 	
 	/**
@@ -132,8 +146,7 @@ public final class BigRational extends Number implements Comparable<BigRational>
 	 * very imprecise.</b>
 	 */
 	public int intValue() {
-		long l = numerator.longValue();
-		return (int) (l / denominator.longValue());
+		return (int) longValue();
 	}
 	
 	/**
@@ -142,43 +155,67 @@ public final class BigRational extends Number implements Comparable<BigRational>
 	 * very imprecise.</b>
 	 */
 	public long longValue() {
-		long l = numerator.longValue();
-		return l / denominator.longValue();
+		if(isSmall()) {
+			return num / den;
+		}
+		long l = bigNum.longValue();
+		return l / bigDen.longValue();
 	}
 	
 	public float floatValue() {
-		float l = numerator.floatValue();
-		return l / denominator.floatValue();
+		return (float) doubleValue();
 	}
 	
 	public double doubleValue() {
-		double l = numerator.doubleValue();
-		return l / denominator.doubleValue();
+		if(isSmall()) {
+			return (double) num / (double) den;
+		}
+		double l = bigNum.doubleValue();
+		return l / bigDen.doubleValue();
 	}
 	
 	public boolean equals(Object o) {
 		if (o instanceof BigRational) {
 			BigRational r = (BigRational) o;
-			return numerator.equals(r.numerator)
-					&& denominator.equals(r.denominator);
+			if(isSmall()) {
+				return r.isSmall() && num == r.num && den == r.den;
+			}
+			return !r.isSmall() && bigNum.equals(r.bigNum)
+					&& bigDen.equals(r.bigDen);
 		}
 		return false;
 	}
 	
 	public int hashCode() {
-		return numerator.hashCode() + denominator.hashCode();
+		if(isSmall()) {
+			return (int) (num ^ (num >>> 32)) * 31 + (int) (den ^ (den >>> 32));
+		}
+		return bigNum.hashCode() + bigDen.hashCode();
 	}
 	
 	public int compareTo(BigRational r) {
-		BigInteger lhs = numerator.multiply(r.denominator);
-		BigInteger rhs = r.numerator.multiply(denominator);
+		if(isSmall() && r.isSmall()) {
+			if(den == r.den) {
+				return num < r.num ? -1 : (num == r.num ? 0 : 1);
+			}
+			try {
+				long lhs = Math.multiplyExact(num, r.den);
+				long rhs = Math.multiplyExact(r.num, den);
+				return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+			} catch(ArithmeticException e) {
+				// overflow, so fall through
+			}
+		}
+		BigInteger lhs = numerator().multiply(r.denominator());
+		BigInteger rhs = r.numerator().multiply(denominator());
 		return lhs.compareTo(rhs);
 	}
 	
 	public BigDecimal round(int maxplaces) {
 		BigDecimal number = BigDecimal.ZERO;
 		int scale = 0;
-		BigInteger num = numerator;
+		BigInteger num = numerator();
+		BigInteger denominator = denominator();
 						
 		while(maxplaces != scale && !num.equals(BigInteger.ZERO)) {			
 			if(num.compareTo(denominator) < 0) {				
@@ -201,7 +238,7 @@ public final class BigRational extends Number implements Comparable<BigRational>
      */ 
 	public String toString() {		
 		if(isInteger()) {
-			return numerator.toString() + ".0";
+			return numerator().toString() + ".0";
 		} else {
 			BigDecimal bd = round(10);
 			BigRational br = new BigRational(bd);
@@ -213,7 +250,7 @@ public final class BigRational extends Number implements Comparable<BigRational>
 				return s;
 			} else {
 
-				return "(" + numerator + "/" + denominator + ")";
+				return "(" + numerator() + "/" + denominator() + ")";
 			}
 		}
 	}
@@ -223,24 +260,46 @@ public final class BigRational extends Number implements Comparable<BigRational>
 	// =========================================================
 	
 	public BigRational add(int r) {
-		BigInteger num = numerator.add(denominator.multiply(BigInteger.valueOf(r)));
-		return new BigRational(num,denominator);
+		return add((long) r);
 	}
 	
 	public BigRational add(long r) {
-		BigInteger num = numerator.add(denominator.multiply(BigInteger.valueOf(r)));
-		return new BigRational(num,denominator);
+		if(isSmall()) {
+			try {
+				return valueOf(Math.addExact(num, Math.multiplyExact(den, r)), den);
+			} catch(ArithmeticException e) {
+				// overflow, so fall through
+			}
+		}
+		BigInteger num = numerator().add(denominator().multiply(BigInteger.valueOf(r)));
+		return normalise(num,denominator());
 	}
 	
 	public BigRational add(final BigInteger r) {
-		BigInteger num = numerator.add(denominator.multiply(r));
-		return new BigRational(num,denominator);
+		if(r.bitLength() < 63) {
+			return add(r.longValue());
+		}
+		BigInteger num = numerator().add(denominator().multiply(r));
+		return normalise(num,denominator());
 	}
 	
 	public BigRational add(final BigRational r) {
-		BigInteger num = numerator.multiply(r.denominator).add(r.numerator.multiply(denominator));
-		BigInteger den = denominator.multiply(r.denominator);
-		return new BigRational(num,den);
+		if(isSmall() && r.isSmall()) {
+			try {
+				if(den == r.den) {
+					return valueOf(Math.addExact(num, r.num), den);
+				}
+				long n = Math.addExact(Math.multiplyExact(num, r.den),
+						Math.multiplyExact(r.num, den));
+				return valueOf(n, Math.multiplyExact(den, r.den));
+			} catch(ArithmeticException e) {
+				// overflow, so fall through
+			}
+		}
+		BigInteger num = numerator().multiply(r.denominator()).add(
+				r.numerator().multiply(denominator()));
+		BigInteger den = denominator().multiply(r.denominator());
+		return normalise(num,den);
 	}
 	
 	// =========================================================
@@ -248,25 +307,46 @@ public final class BigRational extends Number implements Comparable<BigRational>
 	// =========================================================
 	
 	public BigRational subtract(int r) {
-		BigInteger num = numerator.subtract(denominator.multiply(BigInteger.valueOf(r)));
-		return new BigRational(num,denominator);
+		return subtract((long) r);
 	}
 	
 	public BigRational subtract(long r) {
-		BigInteger num = numerator.subtract(denominator.multiply(BigInteger.valueOf(r)));
-		return new BigRational(num,denominator);
+		if(isSmall()) {
+			try {
+				return valueOf(Math.subtractExact(num, Math.multiplyExact(den, r)), den);
+			} catch(ArithmeticException e) {
+				// overflow, so fall through
+			}
+		}
+		BigInteger num = numerator().subtract(denominator().multiply(BigInteger.valueOf(r)));
+		return normalise(num,denominator());
 	}
 	
 	public BigRational subtract(final BigInteger r) {
-		BigInteger num = numerator.subtract(denominator.multiply(r));
-		return new BigRational(num,denominator);
+		if(r.bitLength() < 63) {
+			return subtract(r.longValue());
+		}
+		BigInteger num = numerator().subtract(denominator().multiply(r));
+		return normalise(num,denominator());
 	}
 	
 	public BigRational subtract(final BigRational r) {
-		BigInteger num = numerator.multiply(r.denominator).subtract(
-				r.numerator.multiply(denominator));
-		BigInteger den = denominator.multiply(r.denominator);
-		return new BigRational(num, den);
+		if(isSmall() && r.isSmall()) {
+			try {
+				if(den == r.den) {
+					return valueOf(Math.subtractExact(num, r.num), den);
+				}
+				long n = Math.subtractExact(Math.multiplyExact(num, r.den),
+						Math.multiplyExact(r.num, den));
+				return valueOf(n, Math.multiplyExact(den, r.den));
+			} catch(ArithmeticException e) {
+				// overflow, so fall through
+			}
+		}
+		BigInteger num = numerator().multiply(r.denominator()).subtract(
+				r.numerator().multiply(denominator()));
+		BigInteger den = denominator().multiply(r.denominator());
+		return normalise(num, den);
 	}
 	
 	// =========================================================
@@ -274,24 +354,41 @@ public final class BigRational extends Number implements Comparable<BigRational>
 	// =========================================================
 	
 	public BigRational multiply(int r) {
-		BigInteger num = numerator.multiply(BigInteger.valueOf(r));
-		return new BigRational(num,denominator);
+		return multiply((long) r);
 	}
 	
 	public BigRational multiply(long r) {
-		BigInteger num = numerator.multiply(BigInteger.valueOf(r));
-		return new BigRational(num,denominator);
+		if(isSmall()) {
+			try {
+				return valueOf(Math.multiplyExact(num, r), den);
+			} catch(ArithmeticException e) {
+				// overflow, so fall through
+			}
+		}
+		BigInteger num = numerator().multiply(BigInteger.valueOf(r));
+		return normalise(num,denominator());
 	}
 	
 	public BigRational multiply(final BigInteger r) {
-		BigInteger num = numerator.multiply(r);
-		return new BigRational(num,denominator);
+		if(r.bitLength() < 63) {
+			return multiply(r.longValue());
+		}
+		BigInteger num = numerator().multiply(r);
+		return normalise(num,denominator());
 	}
 			
 	public BigRational multiply(final BigRational r) {
-		BigInteger num = numerator.multiply(r.numerator);
-		BigInteger den = denominator.multiply(r.denominator);
-		return new BigRational(num, den);
+		if(isSmall() && r.isSmall()) {
+			try {
+				return valueOf(Math.multiplyExact(num, r.num),
+						Math.multiplyExact(den, r.den));
+			} catch(ArithmeticException e) {
+				// overflow, so fall through
+			}
+		}
+		BigInteger num = numerator().multiply(r.numerator());
+		BigInteger den = denominator().multiply(r.denominator());
+		return normalise(num, den);
 	}
 	
 	// =========================================================
@@ -299,46 +396,75 @@ public final class BigRational extends Number implements Comparable<BigRational>
 	// =========================================================
 	
 	public BigRational divide(int r) {
-		BigInteger den = denominator.multiply(BigInteger.valueOf(r));
-		return new BigRational(numerator,den);
+		return divide((long) r);
 	}
 	
 	public BigRational divide(long r) {
-		BigInteger den = denominator.multiply(BigInteger.valueOf(r));
-		return new BigRational(numerator,den);
+		if(isSmall()) {
+			try {
+				return valueOf(num, Math.multiplyExact(den, r));
+			} catch(ArithmeticException e) {
+				// overflow, so fall through
+			}
+		}
+		BigInteger den = denominator().multiply(BigInteger.valueOf(r));
+		return normalise(numerator(),den);
 	}
 	
 	public BigRational divide(BigInteger r) {
-		BigInteger den = denominator.multiply(r);
-		return new BigRational(numerator,den);
+		if(r.bitLength() < 63) {
+			return divide(r.longValue());
+		}
+		BigInteger den = denominator().multiply(r);
+		return normalise(numerator(),den);
 	}
 	
 	public BigRational divide(final BigRational r) {		
-		BigInteger num = numerator.multiply(r.denominator);
-		BigInteger den = denominator.multiply(r.numerator);
-		return new BigRational(num, den);
+		if(isSmall() && r.isSmall()) {
+			try {
+				return valueOf(Math.multiplyExact(num, r.den),
+						Math.multiplyExact(den, r.num));
+			} catch(ArithmeticException e) {
+				// overflow, so fall through
+			}
+		}
+		BigInteger num = numerator().multiply(r.denominator());
+		BigInteger den = denominator().multiply(r.numerator());
+		return normalise(num, den);
 	}
 	
 	public BigRational intDivide(final BigRational r) {
-		BigInteger num = numerator.divide(r.numerator);		
-		return new BigRational(num);
+		if(isSmall() && r.isSmall()) {
+			// the division by zero check is deliberately not caught here
+			return valueOf(num / r.num);
+		}
+		BigInteger num = numerator().divide(r.numerator());		
+		return valueOf(num);
 	}
 	
 	public BigRational intRemainder(final BigRational r) {
-		BigInteger num = numerator.remainder(r.numerator);		
-		return new BigRational(num);
+		if(isSmall() && r.isSmall()) {
+			return valueOf(num % r.num);
+		}
+		BigInteger num = numerator().remainder(r.numerator());		
+		return valueOf(num);
 	}
 	
 	// =========================================================
 	// ========================= OTHER =========================
 	// =========================================================
 	public BigRational negate() {
-		return new BigRational(numerator.negate(),denominator);
+		if(isSmall()) {
+			// a small numerator can always be negated
+			return den == 1 ? valueOf(-num) : new BigRational(-num, den, null, null);
+		}
+		return normalise(bigNum.negate(),bigDen);
 	}
 	
 	public BigRational ceil() {		
-		BigInteger i = numerator;
-		BigInteger d = numerator.compareTo(BigInteger.ZERO) >= 0 ? BigInteger.ONE : BigInteger.valueOf(-1);
+		BigInteger i = numerator();
+		BigInteger denominator = denominator();
+		BigInteger d = i.compareTo(BigInteger.ZERO) >= 0 ? BigInteger.ONE : BigInteger.valueOf(-1);
 		while (!i.divideAndRemainder(denominator)[1].equals(BigInteger.ZERO)) {
 			i = i.add(d);
 		}		
@@ -346,8 +472,9 @@ public final class BigRational extends Number implements Comparable<BigRational>
 	}
 	
 	public BigRational floor() {
-		BigInteger i = numerator;
-		BigInteger d = numerator.compareTo(BigInteger.ZERO) < 0 ? BigInteger.ONE : BigInteger.valueOf(-1);
+		BigInteger i = numerator();
+		BigInteger denominator = denominator();
+		BigInteger d = i.compareTo(BigInteger.ZERO) < 0 ? BigInteger.ONE : BigInteger.valueOf(-1);
 		while (!i.divideAndRemainder(denominator)[1].equals(BigInteger.ZERO)) {
 			i = i.add(d);
 		}		
@@ -355,45 +482,132 @@ public final class BigRational extends Number implements Comparable<BigRational>
 	}
 	
 	public static BigRational valueOf(int num, int den) {		
-		return new BigRational(BigInteger.valueOf(num),BigInteger.valueOf(den));		
+		return valueOf((long) num, (long) den);		
 	}
 	
+	/**
+	 * Construct the rational <code>num/den</code>, normalising it using
+	 * primitive arithmetic.
+	 * 
+	 * @param num
+	 * @param den
+	 * @return
+	 */
 	public static BigRational valueOf(long num, long den) {		
-		return new BigRational(BigInteger.valueOf(num),BigInteger.valueOf(den));		
+		if(num == Long.MIN_VALUE || den == Long.MIN_VALUE) {
+			// cannot take the absolute value of these
+			return normalise(BigInteger.valueOf(num),BigInteger.valueOf(den));
+		} else if(den == 0) {
+			return new BigRational(0, 0, null, null);
+		}
+		long gcd = gcd(Math.abs(num), Math.abs(den));
+		num /= gcd;
+		den /= gcd;
+		// normalise sign.
+		if(den < 0) {
+			num = -num;
+			den = -den;
+		}
+		if(den == 1) {
+			return valueOf(num);
+		} else if(isSmall(num) && isSmall(den)) {
+			return new BigRational(num, den, null, null);
+		} else {
+			return new BigRational(0, 0, BigInteger.valueOf(num), BigInteger.valueOf(den));
+		}
 	}
 
 	public static BigRational valueOf(BigInteger num) {		
-		return new BigRational(num);		
+		if(num.bitLength() < 63) {
+			return valueOf(num.longValue());
+		}
+		return new BigRational(0, 0, num, BigInteger.ONE);		
 	}
 	
 	public static BigRational valueOf(int x) {
-		if(x > -10 && x <= 10) {
-			int idx = x + 9;
-			BigRational r = cache[idx];
-			if(r == null) {
-				r = new BigRational(BigInteger.valueOf(x));
-				cache[idx] = r;
-			}
-			return r;
+		return valueOf((long) x);
+	}
+	
+	public static BigRational valueOf(long x) {
+		if(x >= CACHE_LOW && x <= CACHE_HIGH) {
+			return cache[(int) x - CACHE_LOW];
+		} else if(isSmall(x)) {
+			return new BigRational(x, 1, null, null);
 		} else {
-			return new BigRational(BigInteger.valueOf(x));
+			return new BigRational(0, 0, BigInteger.valueOf(x), BigInteger.ONE);
 		}
 	}
 	
-	public static BigRational valueOf(long x) {
-		if(x > -10 && x <= 10) {
-			int idx = (int) x + 9;
-			BigRational r = cache[idx];
-			if(r == null) {
-				r = new BigRational(BigInteger.valueOf(x));
-				cache[idx] = r;
-			}
-			return r;
+	private static boolean isSmall(long x) {
+		return x > SMALL_MIN && x < SMALL_MAX;
+	}
+	
+	/**
+	 * Construct the rational <code>num/den</code>, normalising it using
+	 * <code>BigInteger</code> arithmetic. The result is small if possible.
+	 * 
+	 * @param num
+	 * @param den
+	 * @return
+	 */
+	private static BigRational normalise(BigInteger num, BigInteger den) {
+		if(den.signum() == 0) {
+			return new BigRational(0, 0, null, null);
+		}
+		BigInteger gcd = num.gcd(den);		
+		if(!gcd.equals(BigInteger.ONE)) {
+			num = num.divide(gcd);
+			den = den.divide(gcd);
+		}
+		// normalise sign.
+		if(den.signum() < 0) {
+			num = num.negate();
+			den = den.negate();
+		}
+		if(num.bitLength() < 63 && den.bitLength() < 63) {
+			return valueOf(num.longValue(), den.longValue());
+		}
+		return new BigRational(0, 0, num, den);
+	}
+	
+	private static BigRational parse(String val) {
+		int idx = val.indexOf('.');
+		if(idx > 0) {
+			String lhs = val.substring(0,idx);
+			String rhs = val.substring(idx+1);
+			BigInteger num = new BigInteger(lhs + rhs);			
+			BigInteger den = BigInteger.TEN.pow(rhs.length());			
+			return normalise(num, den);
 		} else {
-			return new BigRational(BigInteger.valueOf(x));
+			return valueOf(new BigInteger(val));
 		}
 	}
 	
+	/**
+	 * Compute the greatest common divisor of two non-negative longs, using
+	 * the binary GCD algorithm. This avoids division, which is slow compared
+	 * with shifts and subtraction.
+	 */
+	private static long gcd(long a, long b) {
+		if(a == 0) {
+			return b;
+		} else if(b == 0) {
+			return a;
+		}
+		int shift = Long.numberOfTrailingZeros(a | b);
+		a >>= Long.numberOfTrailingZeros(a);
+		do {
+			b >>= Long.numberOfTrailingZeros(b);
+			if(a > b) {
+				long t = a;
+				a = b;
+				b = t;
+			}
+			b -= a;
+		} while(b != 0);
+		return a << shift;
+	}
+	
 	public static void main(String[] args) {
 		BigRational r = new BigRational(10,5);
 		System.out.println("GOT: " + r);
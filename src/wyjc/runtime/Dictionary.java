@@ -1,20 +1,51 @@
 package wyjc.runtime;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 
-
-public final class Dictionary extends java.util.HashMap<Object,Object> {	
+/**
+ * A persistent dictionary, backed by a hash array mapped trie. Updating a
+ * shared dictionary copies only the path to the entry being updated, rather
+ * than the whole dictionary. The reference counts of keys and values indicate
+ * how many trie nodes (rather than dictionaries) reference them.
+ * 
+ * @author djp
+ * 
+ */
+public final class Dictionary extends java.util.AbstractMap<Object,Object> {	
 	/**
 	 * The reference count is use to indicate how many variables are currently
 	 * referencing this compound structure. This is useful for making imperative
 	 * updates more efficient. In particular, when the <code>refCount</code> is
 	 * <code>1</code> we can safely perform an in-place update of the structure.
 	 */
-	int refCount = 100; // TODO: implement proper reference counting
+	int refCount = 1;
+
+	/**
+	 * The root of the trie, which is <code>null</code> for the empty
+	 * dictionary.
+	 */
+	private HashTrie.Node root;
+	
+	private int size;
+	
+	/**
+	 * The token identifying those nodes which this dictionary may update
+	 * in-place.
+	 */
+	private Object edit = new Object();
 
+	/**
+	 * A type which this dictionary is known to have, or <code>null</code>. This is
+	 * set when the dictionary passes a runtime type test, so that repeating the test
+	 * does not require every entry to be checked again. It is cleared whenever
+	 * the dictionary is updated.
+	 */
+	Type witness;
+	
 	// ================================================================================
 	// Generic Operations
 	// ================================================================================	 	
@@ -23,25 +54,100 @@ public final class Dictionary extends java.util.HashMap<Object,Object> {
 		
 	}
 	
-	Dictionary(Dictionary dict) {
-		super(dict);
+	/**
+	 * Construct a dictionary which shares the given trie. Neither dictionary
+	 * may update the shared nodes in-place.
+	 */
+	private Dictionary(HashTrie.Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean containsKey(Object key) {
+		return HashTrie.get(root, key) != HashTrie.NOT_FOUND;
+	}
+	
+	public Object get(Object key) {
+		Object r = HashTrie.get(root, key);
+		return r == HashTrie.NOT_FOUND ? null : r;
+	}
+	
+	public Object put(Object key, Object value) {
+		HashTrie.Box box = new HashTrie.Box();
+		root = HashTrie.put(root, edit, key, value, box);
+		if(box.added) {
+			size++;
+		}
+		witness = null;
+		return box.old == HashTrie.NOT_FOUND ? null : box.old;
+	}
+	
+	public Object remove(Object key) {
+		HashTrie.Box box = new HashTrie.Box();
+		root = HashTrie.remove(root, edit, key, box);
+		if(box.removed) {
+			size--;
+			witness = null;
+		}
+		return box.old == HashTrie.NOT_FOUND ? null : box.old;
+	}
+	
+	public java.util.Set<Map.Entry<Object,Object>> entrySet() {
+		return new AbstractSet<Map.Entry<Object,Object>>() {
+			public int size() {
+				return size;
+			}
+			
+			public Iterator<Map.Entry<Object,Object>> iterator() {
+				return new HashTrie.Iter(root) {
+					public Object next() {
+						advance();
+						return new AbstractMap.SimpleImmutableEntry(key, value);
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Create a new dictionary which shares this dictionary's trie. Since the
+	 * nodes are now reachable from both, this dictionary relinquishes its
+	 * claim on them.
+	 * 
+	 * @return
+	 */
+	private Dictionary share() {
+		edit = new Object();
+		return new Dictionary(root, size);
 	}
 	
 	public String toString() {
-		String r = "{";
-		boolean firstTime=true;
-		ArrayList<Comparable> ss = new ArrayList(this.keySet());
-		Collections.sort(ss);
+		StringBuilder out = new StringBuilder();
+		str(out);
+		return out.toString();
+	}
 
-		for(Object key : ss) {
-			if(!firstTime) {
-				r = r + ", ";
+	/**
+	 * Entries are written in sorted order of their keys, so that the output
+	 * does not depend on their layout in the trie.
+	 */
+	void str(StringBuilder out) {
+		Object[] keys = keySet().toArray();
+		Arrays.sort(keys, Util.COMPARATOR);
+		out.append('{');
+		for(int i=0;i!=keys.length;++i) {
+			if(i != 0) {
+				out.append(", ");
 			}
-			firstTime=false;
-			Object val = get(key);			
-			r = r + Util.str(key) + "->" + val;
+			Util.str(keys[i], out);
+			out.append("->");
+			Util.str(get(keys[i]), out);
 		}
-		return r + "}";
+		out.append('}');
 	} 
 	
 	// ================================================================================
@@ -52,23 +158,57 @@ public final class Dictionary extends java.util.HashMap<Object,Object> {
 		return dict.get(key);
 	}
 	
-	public static Dictionary put(Dictionary dict, Object key, Object value) {
+	/**
+	 * Get a value which is to be updated in-place. The dictionary must already
+	 * be unshared. The path to the value is first made exclusive to this
+	 * dictionary, so that the reference count of the value accurately reflects
+	 * whether or not it is shared.
+	 * 
+	 * @param dict
+	 * @param key
+	 * @return
+	 */
+	public static Object getUnshared(Dictionary dict, Object key) {
+		if(!dict.containsKey(key)) {
+			return null;
+		}
+		dict.root = HashTrie.editablePath(dict.root, dict.edit, key);
+		return dict.get(key);
+	}
+	
+	/**
+	 * Ensure that the given dictionary is not shared with any other variable
+	 * or structure. If it is, then a copy is taken which the caller then owns.
+	 * The copy shares its trie with the original, so this takes constant time;
+	 * nodes are subsequently copied only as they are updated.
+	 * 
+	 * @param dict
+	 * @return
+	 */
+	public static Dictionary unshare(Dictionary dict) {
 		if(dict.refCount > 1) {
-			Dictionary ndict = new Dictionary(dict);
-			HashMap<Object,Object> tmp = ndict;
-			for(Map.Entry e : tmp.entrySet()) {
-				Util.incRefs(e.getKey());
-				Util.incRefs(e.getValue());
-			}
-			dict = ndict;
+			dict.refCount--;
+			dict = dict.share();
 		}
+		return dict;
+	}
+	
+	public static Dictionary put(Dictionary dict, Object key, Object value) {
+		dict = unshare(dict);
 		Object val = dict.put(key, value);
-		if(val != null) {
+		if(val != value) {
 			Util.decRefs(val);			
-		} else {
-			Util.incRefs(key);
 		}
-		Util.incRefs(value);		
+		return dict;
+	}
+	
+	/**
+	 * Write back a value which was extracted from this dictionary for
+	 * updating. Unlike put, the old value is not released, since either it is
+	 * the value being written back, or it was released when unshared.
+	 */
+	public static Dictionary update(Dictionary dict, Object key, Object value) {
+		dict.put(key, value);
 		return dict;
 	}
 	
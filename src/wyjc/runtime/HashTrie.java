@@ -0,0 +1,452 @@
+package wyjc.runtime;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * A persistent hash array mapped trie, which provides the backing store for
+ * both <code>Set</code> and <code>Dictionary</code>. Each node maps five bits
+ * of the hash onto at most 32 entries, using a bitmap to avoid allocating
+ * empty slots. An entry is either a key-value pair, or a subnode (in which
+ * case the key slot holds <code>SUBNODE</code>). Keys whose hashes collide
+ * completely are held in a collision node.
+ * </p>
+ *
+ * <p>
+ * As for <code>List</code>, every node is tagged with an edit token and may
+ * only be updated in-place by the structure holding that token; otherwise, the
+ * path to the node being updated is copied. Thus, an insertion into a shared
+ * trie copies O(log n) nodes, rather than the whole structure. The elements of
+ * a copied node are now referenced from both nodes, and their reference counts
+ * are incremented accordingly.
+ * </p>
+ *
+ * @author djp
+ *
+ */
+final class HashTrie {
+
+	/**
+	 * Marks a slot whose partner holds a subnode, rather than a value.
+	 */
+	private static final Object SUBNODE = new Object();
+
+	/**
+	 * Used to indicate that a key was not found.
+	 */
+	static final Object NOT_FOUND = new Object();
+
+	/**
+	 * Records the outcome of an update to the trie.
+	 */
+	static final class Box {
+		/**
+		 * Indicates the number of entries changed.
+		 */
+		boolean added;
+		boolean removed;
+
+		/**
+		 * The value previously associated with the key, or
+		 * <code>NOT_FOUND</code>.
+		 */
+		Object old = NOT_FOUND;
+	}
+
+	static int hash(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equals(Object k1, Object k2) {
+		return k1 == k2 || (k1 != null && k1.equals(k2));
+	}
+
+	private static int mask(int hash, int shift) {
+		return (hash >>> shift) & 31;
+	}
+
+	private static int bitpos(int hash, int shift) {
+		return 1 << mask(hash, shift);
+	}
+
+	// ================================================================================
+	// Trie Operations
+	// ================================================================================
+
+	static Object get(Node root, Object key) {
+		if(root == null) {
+			return NOT_FOUND;
+		}
+		return root.find(0, hash(key), key);
+	}
+
+	static Node put(Node root, Object edit, Object key, Object value, Box box) {
+		int hash = hash(key);
+		if(root == null) {
+			root = new BitmapNode(edit, 0, new Object[2]);
+		}
+		return root.put(edit, 0, hash, key, value, box);
+	}
+
+	static Node remove(Node root, Object edit, Object key, Box box) {
+		if(root == null) {
+			return null;
+		}
+		return root.remove(edit, 0, hash(key), key, box);
+	}
+
+	/**
+	 * Copy any nodes on the path to the given key which cannot be updated
+	 * in-place using the given token. The key must be present.
+	 */
+	static Node editablePath(Node root, Object edit, Object key) {
+		return root.editablePath(edit, 0, hash(key), key);
+	}
+
+	static abstract class Node {
+		final Object edit;
+
+		/**
+		 * Holds consecutive key-value pairs.
+		 */
+		Object[] array;
+
+		Node(Object edit, Object[] array) {
+			this.edit = edit;
+			this.array = array;
+		}
+
+		/**
+		 * Return the number of key-value pairs held in this node.
+		 */
+		abstract int pairs();
+
+		abstract Object find(int shift, int hash, Object key);
+
+		abstract Node put(Object edit, int shift, int hash, Object key,
+				Object value, Box box);
+
+		abstract Node remove(Object edit, int shift, int hash, Object key,
+				Box box);
+
+		abstract Node editablePath(Object edit, int shift, int hash, Object key);
+
+		/**
+		 * Return a copy of the given array, whose elements are now shared.
+		 */
+		Object[] share(Object[] array, int length) {
+			Object[] r = Arrays.copyOf(array, length);
+			for(int i=0;i!=pairs()*2;i+=2) {
+				if(array[i] != SUBNODE) {
+					Util.incRefs(array[i]);
+					Util.incRefs(array[i+1]);
+				}
+			}
+			return r;
+		}
+	}
+
+	private static final class BitmapNode extends Node {
+		int bitmap;
+
+		BitmapNode(Object edit, int bitmap, Object[] array) {
+			super(edit, array);
+			this.bitmap = bitmap;
+		}
+
+		int pairs() {
+			return Integer.bitCount(bitmap);
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		private BitmapNode editable(Object edit) {
+			if(this.edit == edit) {
+				return this;
+			}
+			return new BitmapNode(edit, bitmap, share(array, array.length));
+		}
+
+		Object find(int shift, int hash, Object key) {
+			int bit = bitpos(hash, shift);
+			if((bitmap & bit) == 0) {
+				return NOT_FOUND;
+			}
+			int idx = index(bit) * 2;
+			Object k = array[idx];
+			if(k == SUBNODE) {
+				return ((Node) array[idx+1]).find(shift + 5, hash, key);
+			} else if(HashTrie.equals(key, k)) {
+				return array[idx+1];
+			} else {
+				return NOT_FOUND;
+			}
+		}
+
+		Node put(Object edit, int shift, int hash, Object key, Object value,
+				Box box) {
+			int bit = bitpos(hash, shift);
+			int idx = index(bit) * 2;
+			if((bitmap & bit) != 0) {
+				Object k = array[idx];
+				Object v = array[idx+1];
+				if(k == SUBNODE) {
+					Node n = ((Node) v).put(edit, shift + 5, hash, key, value, box);
+					if(n == v) {
+						return this;
+					}
+					BitmapNode r = editable(edit);
+					r.array[idx+1] = n;
+					return r;
+				} else if(HashTrie.equals(key, k)) {
+					box.old = v;
+					if(v == value) {
+						return this;
+					}
+					BitmapNode r = editable(edit);
+					r.array[idx+1] = value;
+					return r;
+				} else {
+					box.added = true;
+					Node n = create(edit, shift + 5, k, v, hash, key, value);
+					BitmapNode r = editable(edit);
+					r.array[idx] = SUBNODE;
+					r.array[idx+1] = n;
+					return r;
+				}
+			} else {
+				box.added = true;
+				int n = pairs();
+				BitmapNode r = editable(edit);
+				if(r.array.length < (n + 1) * 2) {
+					r.array = Arrays.copyOf(r.array, Math.min(64, (n + 1) * 4));
+				}
+				System.arraycopy(r.array, idx, r.array, idx + 2, (n * 2) - idx);
+				r.array[idx] = key;
+				r.array[idx+1] = value;
+				r.bitmap |= bit;
+				return r;
+			}
+		}
+
+		Node remove(Object edit, int shift, int hash, Object key, Box box) {
+			int bit = bitpos(hash, shift);
+			if((bitmap & bit) == 0) {
+				return this;
+			}
+			int idx = index(bit) * 2;
+			Object k = array[idx];
+			Object v = array[idx+1];
+			if(k == SUBNODE) {
+				Node n = ((Node) v).remove(edit, shift + 5, hash, key, box);
+				if(n == v) {
+					return this;
+				} else if(n != null) {
+					BitmapNode r = editable(edit);
+					r.array[idx+1] = n;
+					return r;
+				}
+			} else if(HashTrie.equals(key, k)) {
+				box.removed = true;
+				box.old = v;
+			} else {
+				return this;
+			}
+			// at this point, the entry at idx is to be removed
+			if(bitmap == bit) {
+				return null;
+			}
+			int n = pairs();
+			BitmapNode r = editable(edit);
+			System.arraycopy(r.array, idx + 2, r.array, idx, (n * 2) - idx - 2);
+			r.array[n*2 - 2] = null;
+			r.array[n*2 - 1] = null;
+			r.bitmap ^= bit;
+			return r;
+		}
+
+		Node editablePath(Object edit, int shift, int hash, Object key) {
+			BitmapNode r = editable(edit);
+			int idx = index(bitpos(hash, shift)) * 2;
+			if(r.array[idx] == SUBNODE) {
+				r.array[idx+1] = ((Node) r.array[idx+1]).editablePath(edit,
+						shift + 5, hash, key);
+			}
+			return r;
+		}
+
+		/**
+		 * Create a node holding two entries whose hashes agree up to the given
+		 * shift.
+		 */
+		private static Node create(Object edit, int shift, Object k1, Object v1,
+				int h2, Object k2, Object v2) {
+			int h1 = hash(k1);
+			if(h1 == h2) {
+				return new CollisionNode(edit, h1, 2, new Object[] { k1, v1, k2, v2 });
+			}
+			Box box = new Box();
+			Node n = new BitmapNode(edit, 0, new Object[4]);
+			n = n.put(edit, shift, h1, k1, v1, box);
+			return n.put(edit, shift, h2, k2, v2, box);
+		}
+	}
+
+	private static final class CollisionNode extends Node {
+		final int hash;
+		int count;
+
+		CollisionNode(Object edit, int hash, int count, Object[] array) {
+			super(edit, array);
+			this.hash = hash;
+			this.count = count;
+		}
+
+		int pairs() {
+			return count;
+		}
+
+		private int indexOf(Object key) {
+			for(int i=0;i!=count*2;i+=2) {
+				if(HashTrie.equals(key, array[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private CollisionNode editable(Object edit) {
+			if(this.edit == edit) {
+				return this;
+			}
+			return new CollisionNode(edit, hash, count, share(array, array.length));
+		}
+
+		Object find(int shift, int hash, Object key) {
+			int idx = indexOf(key);
+			return idx < 0 ? NOT_FOUND : array[idx+1];
+		}
+
+		Node put(Object edit, int shift, int hash, Object key, Object value,
+				Box box) {
+			if(hash != this.hash) {
+				// nest this node inside a bitmap node, and try again
+				BitmapNode n = new BitmapNode(edit, bitpos(this.hash, shift),
+						new Object[] { SUBNODE, this, null, null });
+				return n.put(edit, shift, hash, key, value, box);
+			}
+			int idx = indexOf(key);
+			if(idx >= 0) {
+				box.old = array[idx+1];
+				if(array[idx+1] == value) {
+					return this;
+				}
+				CollisionNode r = editable(edit);
+				r.array[idx+1] = value;
+				return r;
+			}
+			box.added = true;
+			CollisionNode r = editable(edit);
+			if(r.array.length < (count + 1) * 2) {
+				r.array = Arrays.copyOf(r.array, (count + 1) * 2);
+			}
+			r.array[count*2] = key;
+			r.array[count*2 + 1] = value;
+			r.count++;
+			return r;
+		}
+
+		Node remove(Object edit, int shift, int hash, Object key, Box box) {
+			int idx = indexOf(key);
+			if(idx < 0) {
+				return this;
+			}
+			box.removed = true;
+			box.old = array[idx+1];
+			if(count == 1) {
+				return null;
+			}
+			CollisionNode r = editable(edit);
+			System.arraycopy(r.array, idx + 2, r.array, idx, (count * 2) - idx - 2);
+			r.array[count*2 - 2] = null;
+			r.array[count*2 - 1] = null;
+			r.count--;
+			return r;
+		}
+
+		Node editablePath(Object edit, int shift, int hash, Object key) {
+			return editable(edit);
+		}
+	}
+
+	/**
+	 * Iterates the key-value pairs of a trie. The iterator is positioned on a
+	 * pair by <code>advance()</code>, after which <code>key</code> and
+	 * <code>value</code> may be read.
+	 */
+	static abstract class Iter implements Iterator {
+		// The depth of a trie is bounded by the 32 bits of the hash, plus
+		// one for a collision node.
+		private final Node[] nodes = new Node[8];
+		private final int[] indices = new int[8];
+		private int top = -1;
+		Object key;
+		Object value;
+
+		Iter(Node root) {
+			if(root != null) {
+				nodes[++top] = root;
+				indices[top] = 0;
+				seek();
+			}
+		}
+
+		/**
+		 * Position the iterator on the next key-value pair, if there is one.
+		 */
+		private void seek() {
+			while(top >= 0) {
+				Node node = nodes[top];
+				int idx = indices[top];
+				if(idx == node.pairs() * 2) {
+					top--;
+				} else if(node.array[idx] == SUBNODE) {
+					indices[top] = idx + 2;
+					nodes[++top] = (Node) node.array[idx+1];
+					indices[top] = 0;
+				} else {
+					return;
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return top >= 0;
+		}
+
+		/**
+		 * Move onto the next pair, setting <code>key</code> and
+		 * <code>value</code> accordingly.
+		 */
+		void advance() {
+			if(top < 0) {
+				throw new NoSuchElementException();
+			}
+			int idx = indices[top];
+			Object[] array = nodes[top].array;
+			key = array[idx];
+			value = array[idx+1];
+			indices[top] = idx + 2;
+			seek();
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
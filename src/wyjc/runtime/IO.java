@@ -28,47 +28,56 @@ package wyjc.runtime;
 import java.math.*;
 import java.util.*;
 import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class IO {
-	public static Actor openReader(String filename) {
+	public static Actor openReader(WyString filename) {
 		Record r = new Record();
 		try {			
-			FileInputStream fin = new FileInputStream(filename);
+			FileInputStream fin = new FileInputStream(filename.toString());
 			r.put("fileName", filename);
 			r.put("$fin", fin);
 			Actor p = new Actor(r);
 			p.start();
 			return p;
 		} catch(FileNotFoundException e) {
-			r.put("msg", e.getMessage());			
+			r.put("msg", WyString.valueOf(e.getMessage()));			
 		}
 		return null;
 	}
 	
-	public static Actor openWriter(String filename) {
+	public static Actor openWriter(WyString filename) {
 		Record r = new Record();
 		try {			
-			FileOutputStream fout = new FileOutputStream(filename);
+			FileOutputStream fout = new FileOutputStream(filename.toString());
 			r.put("fileName", filename);
 			r.put("$fout", fout);			
 			Actor p = new Actor(r);
 			p.start();
 			return p;
 		} catch(FileNotFoundException e) {
-			r.put("msg", e.getMessage());	
+			r.put("msg", WyString.valueOf(e.getMessage()));	
 		}
 		return null;
 	}
 	
 	public static void closeFile(Actor p) {
-		FileInputStream fin = (FileInputStream) ((HashMap) p.state())
+		FileInputStream fin = (FileInputStream) ((Record) p.state())
 				.get("$fin");		
+		ReadAhead stream = (ReadAhead) ((Record) p.state()).get("$stream");
+		if(stream != null) {
+			stream.close();
+		}
 		try {
 			if(fin != null) {
 				fin.close();
 			} else {
-				FileOutputStream fout = (FileOutputStream) ((HashMap) p.state())
+				FileOutputStream fout = (FileOutputStream) ((Record) p.state())
 				.get("$fout");		
 				fout.close();
 			}
@@ -77,57 +86,172 @@ public class IO {
 		}
 	}
 	
+	/**
+	 * Read at most <code>max</code> bytes from the given file. The bytes are
+	 * returned as a compact list, rather than being boxed individually.
+	 */
 	public static List readFile(Actor p, BigInteger max) {		
-		FileInputStream fin = (FileInputStream) ((HashMap) p.state())
+		FileInputStream fin = (FileInputStream) ((Record) p.state())
 				.get("$fin");
+		ReadAhead stream = (ReadAhead) ((Record) p.state()).get("$stream");
+		if(stream != null) {
+			// the stream has already consumed bytes from the file
+			return stream.readChunk(max.intValue());
+		}
 		
-		List r = new List();
-		byte[] bytes = new byte[max.intValue()];		
+		ByteBuffer buffer = ByteBuffer.allocate(max.intValue());
 		try {
-			int nbytes = fin.read(bytes);
-			for(int i=0;i!=nbytes;++i) {				
-				r.add(bytes[i]);
-			}
+			fin.getChannel().read(buffer);
 		} catch (IOException ioe) {
 			// what to do here??
 		}
-		
-		return r;		
+		buffer.flip();
+		return List.bytes(buffer);		
 	}
 	
-	private static final int CHUNK_SIZE = 1024;
+	private static final int CHUNK_SIZE = 8192;
+	
+	/**
+	 * Indicates whether files read in their entirety should be memory-mapped,
+	 * rather than copied onto the heap. This is determined by the system
+	 * property <code>wyjc.io.mmap</code>.
+	 */
+	private static final boolean MMAP = Boolean.getBoolean("wyjc.io.mmap");
+	
+	/**
+	 * Read the remainder of the given file in one pass. Where the size of the
+	 * file is known, a buffer of exactly that size is filled (or mapped)
+	 * directly; otherwise (e.g. for a pipe), the buffer grows as necessary.
+	 * Either way, the bytes are returned as a compact list, rather than being
+	 * boxed individually. Since a list cannot hold more than
+	 * <code>Integer.MAX_VALUE</code> elements, a larger file cannot be read
+	 * this way; likewise, an error reading the file is reported rather than
+	 * returning only those bytes read before it.
+	 */
 	public static List readFile(Actor p) {		
-		FileInputStream fin = (FileInputStream) ((HashMap) p.state())
+		FileInputStream fin = (FileInputStream) ((Record) p.state())
 				.get("$fin");
+		ReadAhead stream = (ReadAhead) ((Record) p.state()).get("$stream");
+		if(stream != null) {
+			// the stream has already consumed bytes from the file
+			return stream.readAll();
+		}
 		
-		List r = new List();				
 		try {
-			int nbytes = 0;
-			do {
-				byte[] bytes = new byte[CHUNK_SIZE];
-				nbytes = fin.read(bytes);
-				for(int i=0;i!=nbytes;++i) {
-					r.add(bytes[i]);
+			FileChannel channel = fin.getChannel();
+			long remaining = remaining(channel);
+			if (remaining > Integer.MAX_VALUE) {
+				throw tooLarge();
+			} else if (MMAP && remaining > 0) {
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+						channel.position(), remaining);
+				channel.position(channel.position() + remaining);
+				return List.bytes(buffer);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(remaining > 0 ? (int) remaining
+					: CHUNK_SIZE);
+			while(channel.read(buffer) >= 0) {
+				if(!buffer.hasRemaining()) {
+					if(remaining > 0) {
+						break; // everything expected has been read
+					}
+					buffer = grow(buffer);
 				}
-			} while(nbytes == CHUNK_SIZE);			
+			}
+			buffer.flip();
+			return List.bytes(buffer);
 		} catch (IOException ioe) {
-			// what to do here??
+			throw new RuntimeException("Error Reading File: " + ioe, ioe);
+		}
+	}
+	
+	/**
+	 * Determine how many bytes remain in the given file.
+	 * 
+	 * @return the number remaining, or zero if this is unknown (e.g. for a
+	 *         pipe, which cannot be positioned).
+	 */
+	private static long remaining(FileChannel channel) {
+		try {
+			return channel.size() - channel.position();
+		} catch (IOException ioe) {
+			return 0;
 		}
-		
-		return r;		
+	}
+	
+	private static ByteBuffer grow(ByteBuffer buffer) {
+		if(buffer.capacity() == Integer.MAX_VALUE) {
+			throw tooLarge();
+		}
+		ByteBuffer r = ByteBuffer.allocate((int) Math.min(
+				buffer.capacity() * 2L, Integer.MAX_VALUE));
+		buffer.flip();
+		r.put(buffer);
+		return r;
+	}
+	
+	private static RuntimeException tooLarge() {
+		return new RuntimeException("File Too Large: more than "
+				+ Integer.MAX_VALUE + " bytes");
+	}
+	
+	/**
+	 * Read the next line from the given file, excluding its terminator. The
+	 * file is read in chunks by a background thread, so that memory use does
+	 * not depend on the size of the file.
+	 * 
+	 * @return the line, or <code>null</code> at the end of the file.
+	 */
+	public static WyString readLine(Actor p) {
+		String line = stream(p).readLine();
+		return line == null ? null : WyString.valueOf(line);
+	}
+	
+	/**
+	 * Read the next chunk of at most <code>max</code> bytes from the given
+	 * file. As for <code>readLine</code>, the file is read in chunks by a
+	 * background thread.
+	 * 
+	 * @return the bytes, which are empty only at the end of the file.
+	 */
+	public static List readChunk(Actor p, BigInteger max) {
+		return stream(p).readChunk(max.intValue());
+	}
+	
+	/**
+	 * Get the stream reading the given file, creating it on first use. Once
+	 * created, all reads from the file must go through the stream, since it
+	 * reads ahead of them.
+	 */
+	private static ReadAhead stream(Actor p) {
+		Record r = (Record) p.state();
+		ReadAhead stream = (ReadAhead) r.get("$stream");
+		if(stream == null) {
+			FileInputStream fin = (FileInputStream) r.get("$fin");
+			stream = new ReadAhead(fin.getChannel());
+			r.put("$stream", stream);
+		}
+		return stream;
 	}
 	
 	public static void writeFile(Actor p, List bytes) {		
-		FileOutputStream fout = (FileOutputStream) ((HashMap) p.state())
+		FileOutputStream fout = (FileOutputStream) ((Record) p.state())
 				.get("$fout");
-				
-		try {
+		
+		ByteBuffer buffer = bytes.byteBuffer();
+		if(buffer == null) {
 			byte[] bs = new byte[bytes.size()];
 			for(int i=0;i!=bs.length;++i) {
 				Byte r = (Byte) bytes.get(i); 
 				bs[i] = r.byteValue();
 			}
-			fout.write(bs);			
+			buffer = ByteBuffer.wrap(bs);
+		}
+		try {
+			FileChannel channel = fout.getChannel();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
 		} catch (IOException ioe) {
 			// what to do here??
 		}		
@@ -137,6 +261,30 @@ public class IO {
 		System.out.flush();
 	}
 	
+	/**
+	 * Get a handle for the given function, which accepts its arguments as an
+	 * array and returns an Object (which is null for a void function). This is
+	 * used to dispatch messages without reflection.
+	 * 
+	 * @param clazz
+	 * @param name
+	 * @return
+	 */
+	public static MethodHandle functionHandle(String clazz, String name) {
+		return functionHandle(functionRef(clazz,name));
+	}
+	
+	public static MethodHandle functionHandle(Method method) {
+		try {
+			MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+			return handle.asSpreader(Object[].class,
+					method.getParameterTypes().length).asType(
+					MethodType.methodType(Object.class, Object[].class));
+		} catch(IllegalAccessException e) {
+			throw new RuntimeException("Method Not Accessible: " + method);
+		}
+	}
+	
 	public static Method functionRef(String clazz, String name) {
 		try {
 			Class cl = Class.forName(clazz);
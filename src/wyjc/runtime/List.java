@@ -1,107 +1,897 @@
 package wyjc.runtime;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-
-public final class List extends java.util.ArrayList {		
+/**
+ * <p>
+ * A persistent list implementation. The elements of a list are held in small
+ * chunks (leaves) of at most <code>CHUNK</code> elements, which form the
+ * leaves of a height-balanced binary tree. Each internal node records the
+ * number of elements beneath it, so that indexing, appending, prepending,
+ * slicing and concatenation all take O(log n) time. Crucially, the latter
+ * operations share structure with their operands, rather than copying them.
+ * </p>
+ *
+ * <p>
+ * Every node is tagged with an <i>edit</i> token. A list may only update a
+ * node in-place when the node carries the list's own token; otherwise, the
+ * node may be shared with another list and is copied first (along with the
+ * path leading to it). Whenever a list gives out its nodes to another list,
+ * it takes a fresh token and thereby relinquishes its claim to update them
+ * in-place.
+ * </p>
+ *
+ * <p>
+ * The reference count of an element indicates how many leaves (rather than
+ * lists) reference it. Hence, sharing a leaf between lists does not require
+ * the counts of its elements to be incremented, but copying a leaf does.
+ * Before an element is extracted for updating in-place, the leaf holding it
+ * is first made exclusive to the list (see <code>getUnshared()</code>).
+ * </p>
+ *
+ * <p>
+ * Finally, a list constructed from a range (e.g. <code>0..n</code>), or from
+ * the bytes of a file, is held in a <i>compact</i> form, and its elements are
+ * computed as required. Such a list is converted into a tree only when it is
+ * updated.
+ * </p>
+ *
+ * @author djp
+ *
+ */
+public final class List extends java.util.AbstractList implements java.util.RandomAccess {
 	/**
 	 * The reference count is use to indicate how many variables are currently
 	 * referencing this compound structure. This is useful for making imperative
 	 * updates more efficient. In particular, when the <code>refCount</code> is
 	 * <code>1</code> we can safely perform an in-place update of the structure.
 	 */
-	int refCount = 100; // TODO: implement proper reference counting
-	
+	int refCount = 1;
+
+	/**
+	 * The maximum number of elements held in a single leaf.
+	 */
+	private static final int CHUNK = 32;
+
+	/**
+	 * The root of the tree, which is <code>null</code> for the empty list.
+	 */
+	private Node root;
+
+	/**
+	 * The token identifying those nodes which this list may update in-place.
+	 */
+	private Object edit = new Object();
+
+	/**
+	 * The compact form of this list, or <code>null</code> if its elements are
+	 * held in the tree.
+	 */
+	private Compact compact;
+
+	/**
+	 * A type which this list is known to have, or <code>null</code>. This is
+	 * set when the list passes a runtime type test, so that repeating the test
+	 * does not require every element to be checked again. It is cleared whenever
+	 * the list is updated.
+	 */
+	Type witness;
+
+	/**
+	 * The leaf most recently reached by reading the elements of this list in
+	 * order, or <code>null</code>. This allows a loop over the list to read
+	 * each element in constant time, rather than descending the tree every
+	 * time. It is cleared whenever the tree changes.
+	 */
+	private Finger finger;
+
 	// ================================================================================
 	// Generic Operations
-	// ================================================================================	 	
-	
+	// ================================================================================
+
 	public List() {
-		super();				
+		super();
 	}
-	
-	public List(int size) {
-		super(size);			
-	}
-	
+
 	List(java.util.Collection items) {
-		super(items);			
+		super();
+		for(Object item : items) {
+			add(item);
+		}
+	}
+
+	/**
+	 * Construct a list which shares the given tree. Neither list may update
+	 * the shared nodes in-place.
+	 */
+	private List(Node root) {
+		this.root = root;
+	}
+
+	private List(Compact compact) {
+		this.compact = compact;
+	}
+
+	public int size() {
+		if(compact != null) {
+			return compact.size;
+		}
+		return root == null ? 0 : root.size;
 	}
-	
+
+	public Object get(int index) {
+		if(index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+		} else if(compact != null) {
+			return compact.get(index);
+		}
+		Finger f = finger;
+		if(f != null && index >= f.start && index - f.start < f.leaf.size) {
+			return f.leaf.items[index - f.start];
+		}
+		Node node = root;
+		int start = 0;
+		while(node instanceof Branch) {
+			Branch b = (Branch) node;
+			if(index - start < b.left.size) {
+				node = b.left;
+			} else {
+				start += b.left.size;
+				node = b.right;
+			}
+		}
+		Leaf leaf = (Leaf) node;
+		if(leaf != root && (f == null || start == f.start + f.leaf.size)) {
+			// only sequential reads move the finger, so that random reads
+			// do not allocate
+			finger = new Finger(leaf, start);
+		}
+		return leaf.items[index - start];
+	}
+
+	public Object set(int index, Object value) {
+		if(index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+		}
+		Leaf leaf = editableLeaf(index);
+		int offset = index - leafStart;
+		Object old = leaf.items[offset];
+		leaf.items[offset] = value;
+		witness = null;
+		return old;
+	}
+
+	public boolean add(Object item) {
+		materialize();
+		witness = null;
+		finger = null;
+		if(root == null) {
+			root = new Leaf(edit, item);
+			return true;
+		}
+		// find the rightmost leaf
+		Node node = root;
+		while(node instanceof Branch) {
+			node = ((Branch)node).right;
+		}
+		if(node.size < CHUNK) {
+			root = addLast(root, item);
+		} else {
+			root = join(root, new Leaf(edit, item), edit);
+		}
+		modCount++;
+		return true;
+	}
+
+	public void add(int index, Object item) {
+		materialize();
+		int size = size();
+		if(index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		} else if(index == size) {
+			add(item);
+		} else {
+			Node lhs = slice(root, 0, index, edit);
+			Node rhs = slice(root, index, size, edit);
+			root = join(join(lhs, new Leaf(edit, item), edit), rhs, edit);
+			modCount++;
+			witness = null;
+			finger = null;
+		}
+	}
+
+	public Iterator iterator() {
+		if(compact != null) {
+			return super.iterator();
+		}
+		return new Iter(root);
+	}
+
+	public boolean contains(Object o) {
+		if(compact != null) {
+			return compact.indexOf(o) >= 0;
+		}
+		return super.contains(o);
+	}
+
 	public String toString() {
-		String r = "[";
+		StringBuilder out = new StringBuilder();
+		str(out);
+		return out.toString();
+	}
+
+	void str(StringBuilder out) {
+		out.append('[');
 		boolean firstTime=true;
 		for(Object o : this) {
 			if(!firstTime) {
-				r += ", ";
+				out.append(", ");
 			}
 			firstTime=false;
-			r += Util.str(o);
+			Util.str(o, out);
 		}
-		return r + "]";
+		out.append(']');
 	}
-	
+
 	// ================================================================================
 	// List Operations
-	// ================================================================================	 
-		
-	public static Object get(List list, BigInteger index) {		
+	// ================================================================================
+
+	public static Object get(List list, BigInteger index) {
 		return list.get(index.intValue());
 	}
-			
-	public static List set(List list, final BigInteger index, final Object value) {
-		if(list.refCount > 1) {			
+
+	public static Object get(List list, int index) {
+		return list.get(index);
+	}
+
+	/**
+	 * Get an element which is to be updated in-place. The list must already
+	 * be unshared. The leaf holding the element is first made exclusive to
+	 * this list, so that the reference count of the element accurately
+	 * reflects whether or not it is shared.
+	 *
+	 * @param list
+	 * @param index
+	 * @return
+	 */
+	public static Object getUnshared(List list, BigInteger index) {
+		int i = index.intValue();
+		if(i < 0 || i >= list.size()) {
+			throw new IndexOutOfBoundsException("index: " + i + ", size: " + list.size());
+		}
+		Leaf leaf = list.editableLeaf(i);
+		return leaf.items[i - list.leafStart];
+	}
+
+	/**
+	 * Ensure that the given list is not shared with any other variable or
+	 * structure. If it is, then a copy is taken which the caller then owns.
+	 * The copy shares its tree with the original, so this takes constant
+	 * time; nodes are subsequently copied only as they are updated.
+	 *
+	 * @param list
+	 * @return
+	 */
+	public static List unshare(List list) {
+		if(list.refCount > 1) {
 			// in this case, we need to clone the list in question
 			list.refCount--;
-			List nlist = new List(list);
-			for(Object item : nlist) {
-				Util.incRefs(item);
-			}
-			list = nlist;
+			list = list.share();
 		}
+		return list;
+	}
+
+	public static List set(List list, final BigInteger index, final Object value) {
+		list = unshare(list);
 		Object v = list.set(index.intValue(),value);
-		Util.decRefs(v);
-		Util.incRefs(value);
+		if(v != value) {
+			Util.decRefs(v);
+		}
+		return list;
+	}
+
+	/**
+	 * Write back a value which was extracted from this list for updating.
+	 * Unlike set, the old value is not released, since either it is the value
+	 * being written back, or it was released when unshared.
+	 */
+	public static List update(List list, final BigInteger index, final Object value) {
+		list.set(index.intValue(),value);
 		return list;
 	}
-	
+
 	public static List sublist(final List list, final BigInteger start, final BigInteger end) {
 		int st = start.intValue();
 		int en = end.intValue();
-		List r = new List(en-st);
-		for (int i = st; i != en; ++i) {
-			r.add(list.get(i));
+		if(st < 0 || en > list.size() || st > en) {
+			throw new IndexOutOfBoundsException("start: " + st + ", end: " + en
+					+ ", size: " + list.size());
 		}
-		return r;		
+		if(list.compact != null) {
+			return new List(list.compact.slice(st, en));
+		}
+		List r = new List();
+		list.edit = new Object();
+		r.root = slice(list.root, st, en, r.edit);
+		return r;
 	}
-	
+
 	public static BigInteger length(List list) {
 		return BigInteger.valueOf(list.size());
 	}
-	
-	public static List append(final List lhs, final List rhs) {		
-		List r = new List(lhs);
-		r.addAll(rhs);
+
+	public static List append(final List lhs, final List rhs) {
+		lhs.materialize();
+		rhs.materialize();
+		List r = new List();
+		lhs.edit = new Object();
+		rhs.edit = new Object();
+		r.root = join(lhs.root, rhs.root, r.edit);
 		return r;
 	}
-	
+
 	public static List append(final List list, final Object item) {
-		List r = new List(list);
+		List r = list.share();
 		r.add(item);
 		return r;
 	}
-	
+
 	public static List append(final Object item, final List list) {
-		List r = new List(list);
-		r.add(0,item);
+		list.materialize();
+		List r = new List();
+		list.edit = new Object();
+		r.root = join(new Leaf(r.edit, item), list.root, r.edit);
 		return r;
 	}
-	
+
 	public static int size(final List list) {
 		return list.size();
 	}
-	
+
 	public static java.util.Iterator iterator(List list) {
 		return list.iterator();
-	}		
+	}
+
+	/**
+	 * Construct the list of integers from <code>start</code> (inclusive) to
+	 * <code>end</code> (exclusive), which is descending if <code>end</code> is
+	 * below <code>start</code>. The elements are not materialised.
+	 *
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	static List range(long start, long end) {
+		return new List(new Range(start, end));
+	}
+
+	/**
+	 * Construct a list of bytes which holds the remaining contents of the
+	 * given buffer. The buffer is not copied, and must not subsequently be
+	 * modified.
+	 *
+	 * @param buffer
+	 * @return
+	 */
+	static List bytes(ByteBuffer buffer) {
+		return new List(new Bytes(buffer, buffer.position(), buffer.remaining()));
+	}
+
+	/**
+	 * Construct a list of bytes which holds <code>size</code> bytes of the
+	 * given buffer, starting from <code>offset</code>. As above, the buffer is
+	 * not copied, and the bytes held must not subsequently be modified.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param size
+	 * @return
+	 */
+	static List bytes(ByteBuffer buffer, int offset, int size) {
+		return new List(new Bytes(buffer, offset, size));
+	}
+
+	/**
+	 * Construct a view of the given list, whose elements are coerced to the
+	 * given type as they are accessed. The list is shared with the view, so
+	 * subsequent updates to it are not visible through the view.
+	 *
+	 * @param list
+	 * @param element
+	 * @return
+	 */
+	static List coerced(List list, Type element) {
+		return new List(new Coerced(list.share(), element, 0, list.size()));
+	}
+
+	/**
+	 * Get the contents of this list as a buffer, if it is a list of bytes held
+	 * in compact form.
+	 *
+	 * @return the buffer, or <code>null</code> if this list is not held as
+	 *         bytes.
+	 */
+	ByteBuffer byteBuffer() {
+		if(compact instanceof Bytes) {
+			Bytes b = (Bytes) compact;
+			ByteBuffer r = b.buffer.duplicate();
+			r.limit(b.offset + b.size);
+			r.position(b.offset);
+			return r;
+		}
+		return null;
+	}
+
+	// ================================================================================
+	// Tree Operations
+	// ================================================================================
+
+	/**
+	 * Create a new list which shares this list's tree. Since the nodes are now
+	 * reachable from both lists, this list relinquishes its claim on them.
+	 *
+	 * @return
+	 */
+	private List share() {
+		if(compact != null) {
+			return new List(compact);
+		}
+		edit = new Object();
+		return new List(root);
+	}
+
+	/**
+	 * Convert a compact list into a tree, prior to it being updated. The
+	 * elements are now held by the tree, as well as by the compact form
+	 * (which may be shared with other lists) and so their reference counts
+	 * are incremented.
+	 */
+	private void materialize() {
+		if(compact != null) {
+			Compact r = compact;
+			compact = null;
+			for(int i=0;i!=r.size;++i) {
+				add(Util.incRefs(r.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * The index of the first element in the leaf most recently returned by
+	 * <code>editableLeaf()</code>.
+	 */
+	private int leafStart;
+
+	/**
+	 * Find the leaf holding the given element, copying any nodes on the path
+	 * to it which this list cannot update in-place.
+	 *
+	 * @param index
+	 * @return
+	 */
+	private Leaf editableLeaf(int index) {
+		materialize();
+		finger = null;
+		root = editable(root, edit);
+		Node node = root;
+		int start = 0;
+		while(node instanceof Branch) {
+			Branch b = (Branch) node;
+			if(index - start < b.left.size) {
+				node = b.left = editable(b.left, edit);
+			} else {
+				start += b.left.size;
+				node = b.right = editable(b.right, edit);
+			}
+		}
+		leafStart = start;
+		return (Leaf) node;
+	}
+
+	/**
+	 * Append an item onto the rightmost leaf of the tree, which must have space
+	 * for it. Nodes on the right spine are copied as necessary.
+	 */
+	private Node addLast(Node node, Object item) {
+		node = editable(node, edit);
+		if(node instanceof Branch) {
+			Branch b = (Branch) node;
+			b.right = addLast(b.right, item);
+		} else {
+			Leaf l = (Leaf) node;
+			if(l.items.length == l.size) {
+				l.items = Arrays.copyOf(l.items, Math.min(CHUNK, l.size * 2));
+			}
+			l.items[l.size] = item;
+		}
+		node.size++;
+		return node;
+	}
+
+	/**
+	 * Return a version of the given node which can be updated in-place using
+	 * the given token. If the node belongs to another token, then it is
+	 * copied. The elements of a copied leaf are now referenced from both
+	 * leaves, and their reference counts are incremented accordingly.
+	 */
+	private static Node editable(Node node, Object edit) {
+		if(node.edit == edit) {
+			return node;
+		} else if(node instanceof Branch) {
+			Branch b = (Branch) node;
+			return new Branch(edit, b.left, b.right);
+		} else {
+			Leaf l = (Leaf) node;
+			Object[] items = Arrays.copyOf(l.items, l.items.length);
+			for(int i=0;i!=l.size;++i) {
+				Util.incRefs(items[i]);
+			}
+			return new Leaf(edit, items, l.size);
+		}
+	}
+
+	/**
+	 * Concatenate two trees, either of which may be <code>null</code>. The
+	 * operands are not modified, and the result shares their nodes. This
+	 * takes time proportional to the difference in their heights.
+	 */
+	private static Node join(Node lhs, Node rhs, Object edit) {
+		if(lhs == null) {
+			return rhs;
+		} else if(rhs == null) {
+			return lhs;
+		}
+		int lh = lhs.height();
+		int rh = rhs.height();
+		if(lh > rh + 1) {
+			Branch b = (Branch) lhs;
+			return balance(b.left, join(b.right, rhs, edit), edit);
+		} else if(rh > lh + 1) {
+			Branch b = (Branch) rhs;
+			return balance(join(lhs, b.left, edit), b.right, edit);
+		} else if(lhs instanceof Leaf && rhs instanceof Leaf
+				&& lhs.size + rhs.size <= CHUNK) {
+			// merge small leaves to prevent the tree degenerating.
+			Leaf l = (Leaf) lhs;
+			Leaf r = (Leaf) rhs;
+			Object[] items = new Object[l.size + r.size];
+			System.arraycopy(l.items, 0, items, 0, l.size);
+			System.arraycopy(r.items, 0, items, l.size, r.size);
+			for(Object item : items) {
+				Util.incRefs(item);
+			}
+			return new Leaf(edit, items, items.length);
+		} else {
+			return new Branch(edit, lhs, rhs);
+		}
+	}
+
+	/**
+	 * Construct a branch from two trees whose heights differ by at most two,
+	 * performing a rotation if they differ by exactly two.
+	 */
+	private static Node balance(Node lhs, Node rhs, Object edit) {
+		int lh = lhs.height();
+		int rh = rhs.height();
+		if(lh > rh + 1) {
+			Branch l = (Branch) lhs;
+			if(l.left.height() >= l.right.height()) {
+				return new Branch(edit, l.left, new Branch(edit, l.right, rhs));
+			} else {
+				Branch lr = (Branch) l.right;
+				return new Branch(edit, new Branch(edit, l.left, lr.left),
+						new Branch(edit, lr.right, rhs));
+			}
+		} else if(rh > lh + 1) {
+			Branch r = (Branch) rhs;
+			if(r.right.height() >= r.left.height()) {
+				return new Branch(edit, new Branch(edit, lhs, r.left), r.right);
+			} else {
+				Branch rl = (Branch) r.left;
+				return new Branch(edit, new Branch(edit, lhs, rl.left),
+						new Branch(edit, rl.right, r.right));
+			}
+		} else {
+			return new Branch(edit, lhs, rhs);
+		}
+	}
+
+	/**
+	 * Extract the elements between <code>start</code> (inclusive) and
+	 * <code>end</code> (exclusive) of the given tree. Whole subtrees falling
+	 * within the range are shared, rather than copied.
+	 */
+	private static Node slice(Node node, int start, int end, Object edit) {
+		if(start == end) {
+			return null;
+		} else if(start == 0 && end == node.size) {
+			return node;
+		} else if(node instanceof Leaf) {
+			Leaf l = (Leaf) node;
+			Object[] items = Arrays.copyOfRange(l.items, start, end);
+			for(Object item : items) {
+				Util.incRefs(item);
+			}
+			return new Leaf(edit, items, items.length);
+		}
+		Branch b = (Branch) node;
+		int split = b.left.size;
+		if(end <= split) {
+			return slice(b.left, start, end, edit);
+		} else if(start >= split) {
+			return slice(b.right, start - split, end - split, edit);
+		} else {
+			return join(slice(b.left, start, split, edit),
+					slice(b.right, 0, end - split, edit), edit);
+		}
+	}
+
+	private static abstract class Node {
+		/**
+		 * The token of the list permitted to update this node in-place.
+		 */
+		final Object edit;
+
+		/**
+		 * The number of elements held beneath this node.
+		 */
+		int size;
+
+		Node(Object edit, int size) {
+			this.edit = edit;
+			this.size = size;
+		}
+
+		abstract int height();
+	}
+
+	private static final class Leaf extends Node {
+		Object[] items;
+
+		Leaf(Object edit, Object[] items, int size) {
+			super(edit,size);
+			this.items = items;
+		}
+
+		Leaf(Object edit, Object item) {
+			super(edit,1);
+			this.items = new Object[] { item, null };
+		}
+
+		int height() {
+			return 0;
+		}
+	}
+
+	/**
+	 * A leaf, together with the index of its first element.
+	 */
+	private static final class Finger {
+		final Leaf leaf;
+		final int start;
+
+		Finger(Leaf leaf, int start) {
+			this.leaf = leaf;
+			this.start = start;
+		}
+	}
+
+	private static final class Branch extends Node {
+		Node left;
+		Node right;
+		final int height;
+
+		Branch(Object edit, Node left, Node right) {
+			super(edit, left.size + right.size);
+			this.left = left;
+			this.right = right;
+			this.height = 1 + Math.max(left.height(), right.height());
+		}
+
+		int height() {
+			return height;
+		}
+	}
+
+	/**
+	 * An immutable sequence whose elements are computed on demand. Since it is
+	 * immutable, it may be freely shared between lists.
+	 */
+	private static abstract class Compact {
+		final int size;
+
+		Compact(int size) {
+			this.size = size;
+		}
+
+		abstract Object get(int index);
+
+		abstract int indexOf(Object o);
+
+		abstract Compact slice(int from, int to);
+	}
+
+	/**
+	 * A sequence of consecutive integers, either ascending or descending.
+	 */
+	private static final class Range extends Compact {
+		final long start;
+		final long end;
+		final int dir;
+
+		Range(long start, long end) {
+			super((int) (start < end ? end - start : start - end));
+			this.start = start;
+			this.end = end;
+			this.dir = start < end ? 1 : -1;
+		}
+
+		Object get(int index) {
+			return WyInt.valueOf(start + ((long) dir * index));
+		}
+
+		int indexOf(Object o) {
+			if(!(o instanceof BigInteger) || ((BigInteger) o).bitLength() > 63) {
+				return -1;
+			}
+			long v = ((BigInteger) o).longValue();
+			if(dir > 0 && start <= v && v < end) {
+				return (int) (v - start);
+			} else if(dir < 0 && end < v && v <= start) {
+				return (int) (start - v);
+			}
+			return -1;
+		}
+
+		Range slice(int from, int to) {
+			long s = start + ((long) dir * from);
+			long e = start + ((long) dir * to);
+			return new Range(s, e);
+		}
+	}
+
+	/**
+	 * A sequence of bytes held in a buffer, which may be memory-mapped. Only
+	 * absolute accesses are made, hence the buffer's position is irrelevant.
+	 * Since <code>Byte.valueOf()</code> returns cached instances, no elements
+	 * are allocated.
+	 */
+	private static final class Bytes extends Compact {
+		final ByteBuffer buffer;
+		final int offset;
+
+		Bytes(ByteBuffer buffer, int offset, int size) {
+			super(size);
+			this.buffer = buffer;
+			this.offset = offset;
+		}
+
+		Object get(int index) {
+			return Byte.valueOf(buffer.get(offset + index));
+		}
+
+		int indexOf(Object o) {
+			if(o instanceof Byte) {
+				byte b = (Byte) o;
+				for(int i=0;i!=size;++i) {
+					if(buffer.get(offset + i) == b) {
+						return i;
+					}
+				}
+			}
+			return -1;
+		}
+
+		Compact slice(int from, int to) {
+			return new Bytes(buffer, offset + from, to - from);
+		}
+	}
+
+	/**
+	 * A view of part of another list, whose elements are coerced to a given
+	 * type as they are accessed. The list being viewed is held only by this
+	 * view (and its slices), and so is never updated. Each element is coerced
+	 * at most once, since the results are remembered (in a table shared with
+	 * the slices of this view).
+	 */
+	private static final class Coerced extends Compact {
+		final List list;
+		final Type element;
+		final int offset;
+		final AtomicReferenceArray<Object> coerced;
+
+		Coerced(List list, Type element, int offset, int size) {
+			this(list, element, offset, size, new AtomicReferenceArray<Object>(
+					list.size()));
+		}
+
+		private Coerced(List list, Type element, int offset, int size,
+				AtomicReferenceArray<Object> coerced) {
+			super(size);
+			this.list = list;
+			this.element = element;
+			this.offset = offset;
+			this.coerced = coerced;
+		}
+
+		Object get(int index) {
+			index += offset;
+			Object r = coerced.get(index);
+			if(r == null) {
+				r = Util.coerce(list.get(index), element);
+				coerced.set(index, r);
+			}
+			return r;
+		}
+
+		int indexOf(Object o) {
+			for(int i=0;i!=size;++i) {
+				Object v = get(i);
+				if(v == o || (v != null && v.equals(o))) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		Compact slice(int from, int to) {
+			return new Coerced(list, element, offset + from, to - from, coerced);
+		}
+	}
+
+	/**
+	 * Iterates the elements of a tree in order, using an explicit stack of
+	 * the right subtrees still to be visited.
+	 */
+	private static final class Iter implements Iterator {
+		private final Node[] stack = new Node[64];
+		private int top = 0;
+		private Leaf leaf;
+		private int index;
+
+		Iter(Node root) {
+			if(root != null) {
+				descend(root);
+			}
+		}
+
+		private void descend(Node node) {
+			while(node instanceof Branch) {
+				Branch b = (Branch) node;
+				stack[top++] = b.right;
+				node = b.left;
+			}
+			leaf = (Leaf) node;
+			index = 0;
+		}
+
+		public boolean hasNext() {
+			return leaf != null && index < leaf.size;
+		}
+
+		public Object next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Object r = leaf.items[index++];
+			if(index == leaf.size) {
+				if(top > 0) {
+					descend(stack[--top]);
+				} else {
+					leaf = null;
+				}
+			}
+			return r;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
 }
@@ -0,0 +1,287 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.runtime;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * The mailbox of an actor. This is a lock-free queue which permits many
+ * threads to send messages concurrently, but only one thread (i.e. that
+ * running the actor) to receive them.
+ * </p>
+ *
+ * <p>
+ * The number of messages a mailbox may hold is given by the system property
+ * <code>wyjc.mailbox.capacity</code> (default 1024). What happens when a
+ * message is sent to a full mailbox is determined by the system property
+ * <code>wyjc.mailbox.policy</code>, which may be one of the following:
+ * </p>
+ * <ul>
+ * <li><b>block</b> (the default) --- the sender is parked until the receiver
+ * takes a message from the mailbox. However, the thread processing the
+ * mailbox never blocks on it, since it would then be waiting on itself.</li>
+ * <li><b>drop</b> --- an asynchronous message is discarded. Synchronous
+ * messages are never discarded, since their senders are waiting for them.</li>
+ * <li><b>grow</b> --- the mailbox is unbounded.</li>
+ * </ul>
+ * <p>
+ * In the latter two cases, a message which is not discarded (or blocked) is
+ * accepted regardless, and so may exceed the capacity.
+ * </p>
+ * <p>
+ * Finally, the system property <code>wyjc.mailbox.batch</code> (default 64)
+ * determines how many messages an actor processes before yielding its thread
+ * to other actors (when they are multiplexed over a pool of threads).
+ * </p>
+ *
+ * @author djp
+ *
+ */
+final class Mailbox<T> {
+	static final int CAPACITY = Integer.getInteger("wyjc.mailbox.capacity", 1024);
+	static final int BATCH = Integer.getInteger("wyjc.mailbox.batch", 64);
+
+	private static final int BLOCK = 0;
+	private static final int DROP = 1;
+	private static final int GROW = 2;
+
+	private static final int POLICY = policy(System.getProperty(
+			"wyjc.mailbox.policy", "block"));
+
+	private static int policy(String policy) {
+		if(policy.equals("block")) {
+			return BLOCK;
+		} else if(policy.equals("drop")) {
+			return DROP;
+		} else if(policy.equals("grow")) {
+			return GROW;
+		} else {
+			throw new IllegalArgumentException("unknown mailbox policy: " + policy);
+		}
+	}
+
+	private static final AtomicReferenceFieldUpdater<Mailbox, Node> TAIL = AtomicReferenceFieldUpdater
+			.newUpdater(Mailbox.class, Node.class, "tail");
+
+	/**
+	 * The node preceding the first message. This is only updated by the
+	 * receiver, but may be read by any thread.
+	 */
+	private volatile Node<T> head;
+
+	/**
+	 * The last node in the queue, onto which senders append.
+	 */
+	private volatile Node<T> tail;
+
+	/**
+	 * The number of messages in the mailbox, including those which senders
+	 * have reserved space for but not yet appended.
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * The senders waiting for space in the mailbox, in the order they began
+	 * waiting.
+	 */
+	private final ConcurrentLinkedQueue<Thread> senders = new ConcurrentLinkedQueue<Thread>();
+
+	/**
+	 * The receiver, if it is waiting for a message to arrive.
+	 */
+	private volatile Thread receiver;
+
+	/**
+	 * The thread currently processing messages from this mailbox, if any.
+	 * This thread never blocks when sending to a full mailbox, since it would
+	 * then be waiting on itself.
+	 */
+	volatile Thread consumer;
+
+	public Mailbox() {
+		head = tail = new Node<T>(null);
+	}
+
+	/**
+	 * Place a message into this mailbox, applying the overflow policy if it
+	 * is full.
+	 *
+	 * @param item
+	 *            --- the message to send.
+	 * @param droppable
+	 *            --- whether the message may be discarded.
+	 * @return false if the message was discarded.
+	 */
+	public boolean offer(T item, boolean droppable) {
+		if(POLICY == GROW || !reserve()) {
+			if(POLICY == DROP && droppable) {
+				return false;
+			} else if(POLICY == BLOCK && Thread.currentThread() != consumer) {
+				awaitSpace();
+			} else {
+				size.incrementAndGet();
+			}
+		}
+		Node<T> node = new Node<T>(item);
+		Node<T> prev = TAIL.getAndSet(this, node);
+		prev.next = node;
+		Thread r = receiver;
+		if(r != null) {
+			LockSupport.unpark(r);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the next message from this mailbox, or return null if there is
+	 * none. This must only be called by the receiver.
+	 *
+	 * @return
+	 */
+	public T poll() {
+		Node<T> next = head.next;
+		if(next == null) {
+			return null;
+		}
+		head = next;
+		T item = next.item;
+		next.item = null;
+		size.decrementAndGet();
+		if(POLICY == BLOCK && !senders.isEmpty()) {
+			signal();
+		}
+		return item;
+	}
+
+	/**
+	 * Remove the next message from this mailbox, waiting for one to arrive if
+	 * necessary. This must only be called by the receiver.
+	 *
+	 * @return
+	 */
+	public T take() {
+		T item = poll();
+		while(item == null) {
+			receiver = Thread.currentThread();
+			// a message may have arrived before the receiver was set
+			item = poll();
+			if(item == null) {
+				LockSupport.park(this);
+				item = poll();
+			}
+			receiver = null;
+		}
+		return item;
+	}
+
+	public boolean isEmpty() {
+		return head.next == null;
+	}
+
+	/**
+	 * Reserve space for one message, provided this mailbox is not full.
+	 *
+	 * @return false if the mailbox is full.
+	 */
+	private boolean reserve() {
+		while(true) {
+			int n = size.get();
+			if(n >= CAPACITY) {
+				return false;
+			} else if(size.compareAndSet(n, n + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Wake the longest waiting sender, if there is space for it.
+	 */
+	private void signal() {
+		Thread sender = senders.peek();
+		if(sender != null && size.get() < CAPACITY) {
+			LockSupport.unpark(sender);
+		}
+	}
+
+	/**
+	 * Park the current thread until it reserves space in this mailbox. The
+	 * sender is registered before it tries to reserve space, and the receiver
+	 * signals after it frees space. Therefore, either the sender succeeds, or
+	 * it is subsequently unparked. If the sender is itself running on a pool
+	 * of threads, then the pool is permitted to compensate for it.
+	 */
+	private void awaitSpace() {
+		Thread sender = Thread.currentThread();
+		Reservation r = new Reservation();
+		senders.add(sender);
+		try {
+			ForkJoinPool.managedBlock(r);
+		} catch(InterruptedException e) {
+			// proceed anyway
+		} finally {
+			senders.remove(sender);
+		}
+		if(!r.reserved) {
+			size.incrementAndGet();
+		}
+		// several messages may have been taken whilst this sender was waiting,
+		// in which case the next sender may also proceed.
+		signal();
+	}
+
+	private final class Reservation implements ForkJoinPool.ManagedBlocker {
+		boolean reserved;
+
+		public boolean isReleasable() {
+			if(!reserved) {
+				reserved = reserve();
+			}
+			return reserved;
+		}
+
+		public boolean block() {
+			while(!isReleasable()) {
+				LockSupport.park(Mailbox.this);
+			}
+			return true;
+		}
+	}
+
+	private static final class Node<T> {
+		T item;
+		volatile Node<T> next;
+
+		Node(T item) {
+			this.item = item;
+		}
+	}
+}
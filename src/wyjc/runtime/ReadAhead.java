@@ -0,0 +1,290 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.runtime;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Reads a file incrementally, in fixed-size chunks. A background thread
+ * reads ahead of the consumer, filling at most <code>DEPTH</code> chunks
+ * before waiting for them to be consumed. Chunks are recycled once consumed,
+ * so the memory used is constant regardless of the size of the file. The
+ * exception is a chunk which <code>readChunk</code> has returned part of,
+ * since the list returned is a view of the chunk rather than a copy.
+ * </p>
+ *
+ * <p>
+ * The chunk size is given by the system property
+ * <code>wyjc.io.chunk</code> (default 64KB). Only one thread may consume
+ * from a stream (i.e. the actor owning the file).
+ * </p>
+ *
+ * <p>
+ * A stream should be closed, or read to the end of its file. Otherwise, the
+ * background thread waits for its chunks to be consumed until the stream is
+ * garbage collected, at which point the thread gives up and its chunks are
+ * released.
+ * </p>
+ *
+ * @author djp
+ *
+ */
+final class ReadAhead {
+	private static final int CHUNK = Integer.getInteger("wyjc.io.chunk", 65536);
+	private static final int DEPTH = 2;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Marks the end of the file in the queue of filled chunks.
+	 */
+	private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+	private final Filler filler;
+	private final Thread reader;
+
+	/**
+	 * The chunk currently being consumed.
+	 */
+	private ByteBuffer current;
+	private boolean eof;
+
+	/**
+	 * Indicates whether part of the current chunk has been returned as a
+	 * list, in which case it cannot be recycled.
+	 */
+	private boolean shared;
+
+	/**
+	 * Accumulates the bytes of a line. This is reused between lines.
+	 */
+	private byte[] line = new byte[256];
+
+	public ReadAhead(ReadableByteChannel channel) {
+		this.filler = new Filler(channel, this);
+		this.reader = new Thread(filler, "wyjc-readahead");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Read the next line, excluding its terminator.
+	 *
+	 * @return the line, or <code>null</code> at the end of the file.
+	 */
+	public String readLine() {
+		int len = 0;
+		boolean consumed = false;
+		ByteBuffer buffer;
+		while((buffer = current()) != null) {
+			consumed = true;
+			while(buffer.hasRemaining()) {
+				byte b = buffer.get();
+				if(b == '\n') {
+					return decode(len);
+				} else if(len == line.length) {
+					line = Arrays.copyOf(line, len * 2);
+				}
+				line[len++] = b;
+			}
+		}
+		return consumed ? decode(len) : null;
+	}
+
+	/**
+	 * Read at most <code>max</code> bytes, which may be fewer than remain in
+	 * the file. The bytes are not copied; instead, the list returned is a view
+	 * of the current chunk.
+	 *
+	 * @param max
+	 * @return the bytes, which are empty only at the end of the file.
+	 */
+	public List readChunk(int max) {
+		ByteBuffer buffer = current();
+		if(buffer == null) {
+			return new List();
+		}
+		int size = Math.min(max, buffer.remaining());
+		List bytes = List.bytes(buffer, buffer.position(), size);
+		buffer.position(buffer.position() + size);
+		shared = true;
+		return bytes;
+	}
+
+	/**
+	 * Read the remainder of the file.
+	 *
+	 * @return
+	 */
+	public List readAll() {
+		ByteBuffer all = ByteBuffer.allocate(0);
+		ByteBuffer buffer;
+		while((buffer = current()) != null) {
+			if(all.remaining() < buffer.remaining()) {
+				ByteBuffer r = ByteBuffer.allocate(Math.max(all.capacity() * 2,
+						all.position() + buffer.remaining()));
+				all.flip();
+				r.put(all);
+				all = r;
+			}
+			all.put(buffer);
+		}
+		all.flip();
+		return List.bytes(all);
+	}
+
+	public void close() {
+		filler.closed = true;
+		reader.interrupt();
+	}
+
+	private String decode(int len) {
+		if(len > 0 && line[len - 1] == '\r') {
+			len--;
+		}
+		return new String(line, 0, len, UTF8);
+	}
+
+	/**
+	 * Get the chunk being consumed, moving onto the next if it is exhausted.
+	 * Exhausted chunks are handed back to the reading thread, unless they are
+	 * shared.
+	 *
+	 * @return the chunk, or <code>null</code> at the end of the file.
+	 */
+	private ByteBuffer current() {
+		if(current != null) {
+			if(current.hasRemaining()) {
+				return current;
+			}
+			if(!shared) {
+				filler.free.offer(current);
+			}
+			current = null;
+			shared = false;
+		}
+		if(eof) {
+			return null;
+		}
+		try {
+			ByteBuffer buffer = filler.filled.take();
+			if(buffer == EOF) {
+				eof = true;
+				IOException failure = filler.failure;
+				if(failure != null) {
+					throw new RuntimeException("Error Reading File: " + failure,
+							failure);
+				}
+				return null;
+			}
+			current = buffer;
+			return buffer;
+		} catch(InterruptedException e) {
+			eof = true;
+			return null;
+		}
+	}
+
+	/**
+	 * Fills chunks from the file on the reading thread. This refers to the
+	 * stream it fills only weakly, so that an abandoned stream can be
+	 * collected, after which the thread ends.
+	 */
+	private static final class Filler implements Runnable {
+		/**
+		 * How long to wait for a chunk to be consumed, before checking whether
+		 * the stream has been abandoned.
+		 */
+		private static final long PATIENCE = 1000;
+
+		final ReadableByteChannel channel;
+		final ArrayBlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<ByteBuffer>(DEPTH);
+		final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+		final WeakReference<ReadAhead> owner;
+		volatile boolean closed;
+		volatile IOException failure;
+
+		Filler(ReadableByteChannel channel, ReadAhead owner) {
+			this.channel = channel;
+			this.owner = new WeakReference<ReadAhead>(owner);
+		}
+
+		/**
+		 * Fill chunks from the file until its end is reached, or the stream is
+		 * closed or abandoned. An error reading the file is passed on to the
+		 * consumer once the chunks before it have been consumed.
+		 */
+		public void run() {
+			try {
+				try {
+					int n = 0;
+					while(!closed && n >= 0) {
+						ByteBuffer buffer = free.poll();
+						if(buffer == null) {
+							buffer = ByteBuffer.allocate(CHUNK);
+						} else {
+							buffer.clear();
+						}
+						while(buffer.hasRemaining() && (n = channel.read(buffer)) >= 0) {
+							// keep reading until the chunk is full
+						}
+						buffer.flip();
+						if(buffer.hasRemaining() && !put(buffer)) {
+							return;
+						}
+					}
+				} catch(IOException e) {
+					failure = e;
+				}
+				put(EOF);
+			} catch(InterruptedException e) {
+				// stream was closed
+			}
+		}
+
+		/**
+		 * Hand a chunk to the consumer, waiting until there is space for it.
+		 *
+		 * @return false if the stream was abandoned whilst waiting.
+		 */
+		private boolean put(ByteBuffer buffer) throws InterruptedException {
+			while(!filled.offer(buffer, PATIENCE, TimeUnit.MILLISECONDS)) {
+				if(owner.get() == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -1,95 +1,400 @@
 package wyjc.runtime;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-public final class Record extends HashMap<String,Object> implements Comparable<Record> {	
+/**
+ * <p>
+ * A record value. Rather than holding a hash table per record, each record
+ * refers to a shared <i>shape</i> which describes its (sorted) field names,
+ * and holds its field values in a compact array indexed accordingly.
+ * </p>
+ *
+ * <p>
+ * Since the static type of a record is known at compile time, the compiler
+ * determines the index of each field it accesses. However, the runtime shape
+ * may differ from the static type (e.g. for unions of records), so the index
+ * is always checked against the shape before being used. Field names are
+ * interned, hence this check is a single comparison.
+ * </p>
+ *
+ * @author djp
+ *
+ */
+public final class Record extends AbstractMap<String,Object> implements Comparable<Record> {
 	/**
 	 * The reference count is use to indicate how many variables are currently
 	 * referencing this compound structure. This is useful for making imperative
 	 * updates more efficient. In particular, when the <code>refCount</code> is
 	 * <code>1</code> we can safely perform an in-place update of the structure.
 	 */
-	int refCount = 100; // TODO: implement proper reference counting
-	
-	public Record() {}
-	
-	Record(HashMap<String,Object> r) {
-		super(r);
-	}
-	
+	int refCount = 1;
+
+	private Shape shape;
+
+	private Object[] values;
+
+	/**
+	 * Caches the structural hash of this record, where zero indicates it has
+	 * not yet been computed. This is cleared whenever a field is updated.
+	 */
+	private int hash;
+
+	public Record() {
+		this.shape = Shape.EMPTY;
+		this.values = new Object[0];
+	}
+
+	/**
+	 * Construct a record with the given layout, which lists its field names in
+	 * sorted order separated by commas. The field values are subsequently
+	 * initialised using <code>set()</code>.
+	 *
+	 * @param layout
+	 */
+	public Record(String layout) {
+		this.shape = Shape.get(layout);
+		this.values = new Object[shape.fields.length];
+	}
+
+	private Record(Shape shape, Object[] values) {
+		this.shape = shape;
+		this.values = values;
+	}
+
 	// ================================================================================
 	// Generic Operations
-	// ================================================================================	 	
-		
+	// ================================================================================
+
+	public int size() {
+		return values.length;
+	}
+
+	public boolean containsKey(Object key) {
+		return shape.indexOf(key) >= 0;
+	}
+
+	public Object get(Object key) {
+		int index = shape.indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	public Object put(String field, Object value) {
+		int index = shape.indexOf(field);
+		hash = 0;
+		if(index >= 0) {
+			Object old = values[index];
+			values[index] = value;
+			return old;
+		}
+		// in this case, the record is changing shape
+		Shape nshape = shape.extend(field);
+		index = nshape.indexOf(field);
+		Object[] nvalues = new Object[values.length + 1];
+		System.arraycopy(values, 0, nvalues, 0, index);
+		System.arraycopy(values, index, nvalues, index + 1, values.length - index);
+		nvalues[index] = value;
+		shape = nshape;
+		values = nvalues;
+		return null;
+	}
+
+	/**
+	 * Initialise the field at the given index of this record's shape.
+	 *
+	 * @param index
+	 * @param value
+	 */
+	public void set(int index, Object value) {
+		values[index] = value;
+		hash = 0;
+	}
+
+	public java.util.Set<Map.Entry<String,Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String,Object>>() {
+			public int size() {
+				return values.length;
+			}
+
+			public Iterator<Map.Entry<String,Object>> iterator() {
+				return new Iterator<Map.Entry<String,Object>>() {
+					private int index = 0;
+
+					public boolean hasNext() {
+						return index < values.length;
+					}
+
+					public Map.Entry<String,Object> next() {
+						if(index >= values.length) {
+							throw new NoSuchElementException();
+						}
+						Map.Entry<String, Object> r = new AbstractMap.SimpleImmutableEntry(
+								shape.fields[index], values[index]);
+						index++;
+						return r;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	public boolean equals(Object o) {
+		if(o instanceof Record) {
+			Record r = (Record) o;
+			if(hash != 0 && r.hash != 0 && hash != r.hash) {
+				return false;
+			} else if(r.shape == shape) {
+				return Arrays.equals(values, r.values);
+			}
+		}
+		return super.equals(o);
+	}
+
+	public int hashCode() {
+		int h = hash;
+		if(h == 0) {
+			// must agree with AbstractMap.hashCode()
+			String[] fields = shape.fields;
+			for(int i=0;i!=values.length;++i) {
+				Object v = values[i];
+				h += fields[i].hashCode() ^ (v == null ? 0 : v.hashCode());
+			}
+			hash = h;
+		}
+		return h;
+	}
+
 	public String toString() {
-		String r = "{";
-		boolean firstTime = true;
-
-		ArrayList<String> ss = new ArrayList<String>(keySet());
-		Collections.sort(ss);
-		for (String s : ss) {
-			if (!firstTime) {
-				r = r + ",";
+		StringBuilder out = new StringBuilder();
+		str(out);
+		return out.toString();
+	}
+
+	void str(StringBuilder out) {
+		out.append('{');
+		String[] fields = shape.fields;
+		for (int i=0;i!=values.length;++i) {
+			if (i != 0) {
+				out.append(',');
 			}
-			firstTime = false;
-			r = r + s + ":" + Util.str(get(s));
+			out.append(fields[i]).append(':');
+			Util.str(values[i], out);
 		}
-		return r + "}";
+		out.append('}');
 	}
-	
+
+	/**
+	 * Compare records by their fields in sorted order. Corresponding field
+	 * names are compared first, followed by their values.
+	 */
 	public int compareTo(Record t) {
-		ArrayList<String> mKeys = new ArrayList<String>(keySet());
-		ArrayList<String> tKeys = new ArrayList<String>(t.keySet());
-		Collections.sort(mKeys);
-		Collections.sort(tKeys);
-
-		for(int i=0;i!=Math.min(mKeys.size(),tKeys.size());++i) {
-			String mk = mKeys.get(i);
-			String tk = tKeys.get(i);
-			int c = mk.compareTo(tk);
-			if(c != 0) {
-				return c;
+		String[] mFields = shape.fields;
+		String[] tFields = t.shape.fields;
+		int n = Math.min(mFields.length, tFields.length);
+
+		for(int i=0;i!=n;++i) {
+			if(mFields[i] != tFields[i]) {
+				int c = mFields[i].compareTo(tFields[i]);
+				if(c != 0) {
+					return c;
+				}
 			}
-			String mv = get(mk).toString();
-			String tv = get(tk).toString();
-			c = mv.compareTo(tv);
+			int c = Util.compare(values[i], t.values[i]);
 			if(c != 0) {
 				return c;
 			}
 		}
 
-		if(mKeys.size() < tKeys.size()) {
+		if(mFields.length < tFields.length) {
 			return -1;
-		} else if(mKeys.size() > tKeys.size()) {
+		} else if(mFields.length > tFields.length) {
 			return 1;
 		} else {
 			return 0;
 		}
 	}
-	
+
 	// ================================================================================
 	// Record Operations
-	// ================================================================================	 	
+	// ================================================================================
 
 	public static Object get(final Record record, final String field) {
 		return record.get(field);
 	}
-	
-	public static Record put(Record record, final String field, final Object value) {		
+
+	/**
+	 * Get the given field of a record, which is expected to be found at the
+	 * given index. If the record's shape does not match, then the field is
+	 * looked up by name instead.
+	 *
+	 * @param record
+	 * @param field
+	 *            --- interned field name.
+	 * @param index
+	 * @return
+	 */
+	public static Object get(final Record record, final String field, final int index) {
+		String[] fields = record.shape.fields;
+		if(index >= 0 && index < fields.length && fields[index] == field) {
+			return record.values[index];
+		}
+		return record.get(field);
+	}
+
+	/**
+	 * Ensure that the given record is not shared with any other variable or
+	 * structure. If it is, then a copy is taken which the caller then owns.
+	 *
+	 * @param record
+	 * @return
+	 */
+	public static Record unshare(Record record) {
 		if(record.refCount > 1) {
-			Record nrecord = new Record(record);
-			for(Object e : nrecord.values()) {
+			record.refCount--;
+			Record nrecord = new Record(record.shape, record.values.clone());
+			for(Object e : nrecord.values) {
 				Util.incRefs(e);
 			}
 			record = nrecord;
 		}
+		return record;
+	}
+
+	public static Record put(Record record, final String field, final Object value) {
+		record = unshare(record);
 		Object val = record.put(field, value);
-		Util.decRefs(val);
-		Util.incRefs(value);		
+		if(val != value) {
+			Util.decRefs(val);
+		}
+		return record;
+	}
+
+	public static Record put(Record record, final String field,
+			final int index, final Object value) {
+		record = unshare(record);
+		String[] fields = record.shape.fields;
+		Object val;
+		if(index >= 0 && index < fields.length && fields[index] == field) {
+			val = record.values[index];
+			record.values[index] = value;
+			record.hash = 0;
+		} else {
+			val = record.put(field, value);
+		}
+		if(val != value) {
+			Util.decRefs(val);
+		}
+		return record;
+	}
+
+	/**
+	 * Write back a value which was extracted from this record for updating.
+	 * Unlike put, the old value is not released, since either it is the value
+	 * being written back, or it was released when unshared.
+	 */
+	public static Record update(Record record, final String field, final Object value) {
+		record.put(field, value);
+		return record;
+	}
+
+	public static Record update(Record record, final String field,
+			final int index, final Object value) {
+		String[] fields = record.shape.fields;
+		if(index >= 0 && index < fields.length && fields[index] == field) {
+			record.values[index] = value;
+			record.hash = 0;
+		} else {
+			record.put(field, value);
+		}
 		return record;
 	}
-	
+
 	public static int size(Record record) {
 		return record.size();
-	}	
+	}
+
+	/**
+	 * A shape describes the fields of a record, which are held in sorted
+	 * order. Shapes are interned, so that records with the same fields share
+	 * the same shape.
+	 *
+	 * @author djp
+	 *
+	 */
+	static final class Shape {
+		private static final ConcurrentHashMap<String,Shape> shapes = new ConcurrentHashMap<String,Shape>();
+
+		static final Shape EMPTY = get("");
+
+		/**
+		 * The (interned) field names, in sorted order.
+		 */
+		final String[] fields;
+
+		/**
+		 * Caches the shapes obtained by adding a field to this shape.
+		 */
+		private final ConcurrentHashMap<String,Shape> extensions = new ConcurrentHashMap<String,Shape>();
+
+		private Shape(String[] fields) {
+			this.fields = fields;
+		}
+
+		/**
+		 * Get the shape for a given layout, which lists the field names in
+		 * sorted order separated by commas.
+		 */
+		static Shape get(String layout) {
+			Shape shape = shapes.get(layout);
+			if(shape == null) {
+				String[] fields = layout.length() == 0 ? new String[0] : layout.split(",");
+				for(int i=0;i!=fields.length;++i) {
+					fields[i] = fields[i].intern();
+				}
+				shape = new Shape(fields);
+				Shape s = shapes.putIfAbsent(layout, shape);
+				if(s != null) {
+					shape = s;
+				}
+			}
+			return shape;
+		}
+
+		int indexOf(Object field) {
+			if(field instanceof String) {
+				return Arrays.binarySearch(fields, (String) field);
+			}
+			return -1;
+		}
+
+		/**
+		 * Get the shape obtained by adding the given field to this shape.
+		 */
+		Shape extend(String field) {
+			Shape shape = extensions.get(field);
+			if(shape == null) {
+				String[] nfields = Arrays.copyOf(fields, fields.length + 1);
+				nfields[fields.length] = field;
+				Arrays.sort(nfields);
+				shape = get(layout(nfields));
+				extensions.putIfAbsent(field, shape);
+			}
+			return shape;
+		}
+
+		static String layout(String[] fields) {
+			StringBuilder r = new StringBuilder();
+			for(int i=0;i!=fields.length;++i) {
+				if(i != 0) {
+					r.append(',');
+				}
+				r.append(fields[i]);
+			}
+			return r.toString();
+		}
+	}
 }
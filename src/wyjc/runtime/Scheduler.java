@@ -0,0 +1,214 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.runtime;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * <p>
+ * A scheduler determines how actors are executed. The scheduler used by a
+ * program is chosen by the system property <code>wyjc.scheduler</code>, which
+ * may be one of the following:
+ * </p>
+ * <ul>
+ * <li><b>thread</b> (the default) --- each actor runs on its own (daemon)
+ * thread, which blocks whilst its mailbox is empty.</li>
+ * <li><b>virtual</b> --- each actor runs on its own virtual thread. This
+ * requires a JVM which supports virtual threads; otherwise, ordinary threads
+ * are used instead.</li>
+ * <li><b>pool</b> --- actors are multiplexed over a fixed pool of threads. An
+ * actor is submitted to the pool only when it has messages to process, and so
+ * holds no thread whilst idle. The number of threads is given by the system
+ * property <code>wyjc.scheduler.threads</code>, which defaults to the number
+ * of available processors.</li>
+ * </ul>
+ *
+ * @author djp
+ *
+ */
+public abstract class Scheduler {
+
+	/**
+	 * Begin executing a newly created actor.
+	 *
+	 * @param actor
+	 */
+	public abstract void start(Actor actor);
+
+	/**
+	 * Signal that a message has been placed into the given actor's mailbox.
+	 *
+	 * @param actor
+	 */
+	public abstract void schedule(Actor actor);
+
+	/**
+	 * Determine whether the current thread is one of this scheduler's
+	 * workers. If so, a synchronous message sent to an idle actor may be
+	 * processed directly on the current thread.
+	 *
+	 * @return
+	 */
+	public abstract boolean isWorker();
+
+	/**
+	 * Attempt to process the given actor's pending messages on the current
+	 * thread, rather than waiting for some other thread to do so.
+	 *
+	 * @param actor
+	 * @return true if any messages were processed.
+	 */
+	public abstract boolean help(Actor actor);
+
+	private static final Scheduler scheduler = create(System.getProperty(
+			"wyjc.scheduler", "thread"));
+
+	/**
+	 * Get the scheduler being used by this program.
+	 *
+	 * @return
+	 */
+	public static Scheduler get() {
+		return scheduler;
+	}
+
+	private static Scheduler create(String kind) {
+		if(kind.equals("pool")) {
+			int threads = Integer.getInteger("wyjc.scheduler.threads", Runtime
+					.getRuntime().availableProcessors());
+			return new Pool(threads);
+		} else if(kind.equals("virtual")) {
+			return new Threads(true);
+		} else if(kind.equals("thread")) {
+			return new Threads(false);
+		} else {
+			throw new IllegalArgumentException("unknown scheduler: " + kind);
+		}
+	}
+
+	/**
+	 * Runs each actor on a dedicated thread, which executes the actor's
+	 * (blocking) message loop.
+	 */
+	private static final class Threads extends Scheduler {
+		private Object builder;
+		private Method unstarted;
+
+		public Threads(boolean virtual) {
+			if(virtual) {
+				// Virtual threads are accessed reflectively, since they are
+				// not available on all platforms we support.
+				try {
+					builder = Thread.class.getMethod("ofVirtual").invoke(null);
+					unstarted = Class.forName("java.lang.Thread$Builder")
+							.getMethod("unstarted", Runnable.class);
+				} catch(ReflectiveOperationException e) {
+					builder = null;
+				}
+			}
+		}
+
+		public void start(Actor actor) {
+			Thread thread = null;
+			if(builder != null) {
+				try {
+					thread = (Thread) unstarted.invoke(builder, actor);
+				} catch(ReflectiveOperationException e) {
+					// fall through and use an ordinary thread
+				}
+			}
+			if(thread == null) {
+				thread = new Thread(actor);
+				thread.setDaemon(true);
+			}
+			thread.start();
+		}
+
+		public void schedule(Actor actor) {
+			// the actor's thread is already waiting on its mailbox
+		}
+
+		public boolean isWorker() {
+			// each actor is bound to its own thread
+			return false;
+		}
+
+		public boolean help(Actor actor) {
+			return false;
+		}
+	}
+
+	/**
+	 * Multiplexes actors over a fixed pool of threads. An actor is submitted
+	 * to the pool whenever it has messages to process and is not already
+	 * running.
+	 */
+	private static final class Pool extends Scheduler {
+		private final ForkJoinPool pool;
+
+		public Pool(int threads) {
+			// worker threads are daemons, hence don't prevent termination
+			pool = new ForkJoinPool(threads,
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		}
+
+		public void start(Actor actor) {
+			// nothing to do until a message arrives
+		}
+
+		public void schedule(final Actor actor) {
+			if(actor.claim()) {
+				ForkJoinTask<?> task = ForkJoinTask.adapt(new Runnable() {
+					public void run() {
+						actor.drain();
+					}
+				});
+				actor.task = task;
+				pool.execute(task);
+			}
+		}
+
+		public boolean isWorker() {
+			Thread thread = Thread.currentThread();
+			return thread instanceof ForkJoinWorkerThread
+					&& ((ForkJoinWorkerThread) thread).getPool() == pool;
+		}
+
+		public boolean help(Actor actor) {
+			// A task can only be reclaimed by the worker which queued it, and
+			// only if it has not since been started or stolen.
+			ForkJoinTask<?> task = (ForkJoinTask<?>) actor.task;
+			if(task != null && isWorker() && task.tryUnfork()) {
+				task.invoke();
+				return true;
+			}
+			return false;
+		}
+	}
+}
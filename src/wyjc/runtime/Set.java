@@ -4,15 +4,44 @@ import java.math.BigInteger;
 import java.util.*;
 
 
-public final class Set extends java.util.HashSet {	
+/**
+ * A persistent set, backed by a hash array mapped trie. Operations such as
+ * union and difference share structure with their operands, so adding a
+ * single element to a shared set takes O(log n) time, rather than requiring
+ * the whole set to be copied.
+ *
+ * @author djp
+ *
+ */
+public final class Set extends java.util.AbstractSet {	
 	/**
 	 * The reference count is use to indicate how many variables are currently
 	 * referencing this compound structure. This is useful for making imperative
 	 * updates more efficient. In particular, when the <code>refCount</code> is
 	 * <code>1</code> we can safely perform an in-place update of the structure.
 	 */
-	int refCount = 100; // TODO: implement proper reference counting
+	int refCount = 1;
 
+	/**
+	 * The root of the trie, which is <code>null</code> for the empty set.
+	 */
+	private HashTrie.Node root;
+	
+	private int size;
+	
+	/**
+	 * The token identifying those nodes which this set may update in-place.
+	 */
+	private Object edit = new Object();
+
+	/**
+	 * A type which this set is known to have, or <code>null</code>. This is
+	 * set when the set passes a runtime type test, so that repeating the test
+	 * does not require every element to be checked again. It is cleared whenever
+	 * the set is updated.
+	 */
+	Type witness;
+	
 	// ================================================================================
 	// Generic Operations
 	// ================================================================================	 	
@@ -21,24 +50,84 @@ public final class Set extends java.util.HashSet {
 			
 	}
 	
-	private Set(java.util.Collection c) {
-		super(c);
+	/**
+	 * Construct a set which shares the given trie. Neither set may update the
+	 * shared nodes in-place.
+	 */
+	private Set(HashTrie.Node root, int size) {
+		this.root = root;
+		this.size = size;
 	}	
 	
+	public int size() {
+		return size;
+	}
+	
+	public boolean contains(Object o) {
+		return HashTrie.get(root, o) != HashTrie.NOT_FOUND;
+	}
+	
+	public boolean add(Object o) {
+		HashTrie.Box box = new HashTrie.Box();
+		root = HashTrie.put(root, edit, o, Boolean.TRUE, box);
+		if(box.added) {
+			size++;
+		}
+		witness = null;
+		return box.added;
+	}
+	
+	public boolean remove(Object o) {
+		HashTrie.Box box = new HashTrie.Box();
+		root = HashTrie.remove(root, edit, o, box);
+		if(box.removed) {
+			size--;
+			witness = null;
+		}
+		return box.removed;
+	}
+	
+	public Iterator iterator() {
+		return new HashTrie.Iter(root) {
+			public Object next() {
+				advance();
+				return key;
+			}
+		};
+	}
+	
+	/**
+	 * Create a new set which shares this set's trie. Since the nodes are now
+	 * reachable from both sets, this set relinquishes its claim on them.
+	 * 
+	 * @return
+	 */
+	private Set share() {
+		edit = new Object();
+		return new Set(root, size);
+	}
+	
 	public String toString() {
-		String r = "{";
-		boolean firstTime=true;
-		ArrayList<Comparable> ss = new ArrayList<Comparable>(this);
-		Collections.sort(ss);
+		StringBuilder out = new StringBuilder();
+		str(out);
+		return out.toString();
+	}
 
-		for(Object o : ss) {
-			if(!firstTime) {
-				r = r + ", ";
+	/**
+	 * Elements are written in sorted order, so that the output does not
+	 * depend on their layout in the trie.
+	 */
+	void str(StringBuilder out) {
+		Object[] elements = toArray();
+		Arrays.sort(elements, Util.COMPARATOR);
+		out.append('{');
+		for(int i=0;i!=elements.length;++i) {
+			if(i != 0) {
+				out.append(", ");
 			}
-			firstTime=false;
-			r = r + Util.str(o);
+			Util.str(elements[i], out);
 		}
-		return r + "}";
+		out.append('}');
 	} 
 
 	// ================================================================================
@@ -54,36 +143,60 @@ public final class Set extends java.util.HashSet {
 	}
 	
 	public static Set union(Set lhs, Set rhs) {
-		Set set = new Set(lhs);
-		set.addAll(rhs);
+		if(lhs.size() < rhs.size()) {
+			Set tmp = lhs;
+			lhs = rhs;
+			rhs = tmp;
+		}
+		Set set = lhs.share();
+		for(Object o : rhs) {
+			set.add(o);
+		}
 		return set;
 	}
 	
 	public static Set union(Set lhs, Object rhs) {
-		Set set = new Set(lhs);
+		Set set = lhs.share();
 		set.add(rhs);
 		return set;
 	}
 	
 	public static Set union(Object lhs, Set rhs) {
-		Set set = new Set(rhs);
+		Set set = rhs.share();
 		set.add(lhs);
 		return set;
 	}
 	
 	public static Set difference(Set lhs, Set rhs) {
-		Set set = new Set(lhs);
-		set.removeAll(rhs);
+		Set set;
+		if(rhs.size() < lhs.size()) {
+			set = lhs.share();
+			for(Object o : rhs) {
+				set.remove(o);
+			}
+		} else {
+			set = new Set();
+			for(Object o : lhs) {
+				if(!rhs.contains(o)) {
+					set.add(o);
+				}
+			}
+		}
 		return set;
 	}
 	
 	public static Set difference(Set lhs, Object rhs) {
-		Set set = new Set(lhs);
+		Set set = lhs.share();
 		set.remove(rhs);
 		return set;
 	}	
 	
 	public static Set intersect(Set lhs, Set rhs) {
+		if(lhs.size() > rhs.size()) {
+			Set tmp = lhs;
+			lhs = rhs;
+			rhs = tmp;
+		}
 		Set set = new Set(); 		
 		for(Object o : lhs) {
 			if(rhs.contains(o)) {
@@ -10,7 +10,7 @@ public final class Tuple extends java.util.ArrayList {
 	 * updates more efficient. In particular, when the <code>refCount</code> is
 	 * <code>1</code> we can safely perform an in-place update of the structure.
 	 */
-	int refCount = 100; // TODO: implement proper reference counting
+	int refCount = 1;
 	
 	// ================================================================================
 	// Generic Operations
@@ -33,16 +33,22 @@ public final class Tuple extends java.util.ArrayList {
 	}
 		
 	public String toString() {
-		String r = "(";
+		StringBuilder out = new StringBuilder();
+		str(out);
+		return out.toString();
+	}
+
+	void str(StringBuilder out) {
+		out.append('(');
 		boolean firstTime=true;
 		for(Object o : this) {
 			if(!firstTime) {
-				r += ",";
+				out.append(',');
 			}
 			firstTime=false;
-			r += Util.str(o);
+			Util.str(o, out);
 		}
-		return r + ")";
+		out.append(')');
 	}
 	
 	// ================================================================================
@@ -64,8 +70,9 @@ public final class Tuple extends java.util.ArrayList {
 			list = nlist;
 		}
 		Object v = list.set(index.intValue(),value);
-		Util.decRefs(v);
-		Util.incRefs(value);
+		if(v != value) {
+			Util.decRefs(v);
+		}
 		return list;
 	}
 	
@@ -2,6 +2,7 @@ package wyjc.runtime;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Type {
 	public static final byte K_VOID = 0;
@@ -120,11 +121,47 @@ public class Type {
 		}
 	}
 	
+	/**
+	 * The types parsed so far, indexed by their string representation.
+	 */
+	private static final ConcurrentHashMap<String,Type> types = new ConcurrentHashMap<String,Type>();
+	
+	/**
+	 * Parse a type from its string representation. Types are interned, so
+	 * that every class testing against a given type shares one instance.
+	 * Thus, a value which has already passed a test against that type can be
+	 * recognised by identity (see <code>Util.instanceOf</code>).
+	 * 
+	 * @param str
+	 * @return
+	 */
 	public static Type valueOf(String str) {
-		return new TypeParser(str).parse(new HashSet<String>());
+		Type type = types.get(str);
+		if(type == null) {
+			type = new TypeParser(str).parse(new HashSet<String>());
+			Type old = types.putIfAbsent(str, type);
+			if(old != null) {
+				type = old;
+			}
+		}
+		return type;
 	}
 	
 	private static Type substitute(Type type, String var, Type root) {
+		return substitute(type, var, root, new IdentityHashMap<Type,Type>());
+	}
+	
+	/**
+	 * Substitute the type variable <code>var</code> for <code>root</code>
+	 * throughout <code>type</code>. Since <code>type</code> may already
+	 * contain cycles (i.e. when a recursive type is nested inside another),
+	 * the types visited so far are recorded to ensure termination.
+	 */
+	private static Type substitute(Type type, String var, Type root,
+			IdentityHashMap<Type,Type> visited) {
+		if(visited.put(type, type) != null) {
+			return type;
+		}
 		switch(type.kind) {
 			case Type.K_ANY:				
 			case Type.K_VOID:				
@@ -145,20 +182,20 @@ public class Type {
 			case Type.K_LIST:
 			{
 				Type.List list = (Type.List) type;
-				list.element = substitute(list.element,var,root); 
+				list.element = substitute(list.element,var,root,visited); 
 				break;
 			}
 			case Type.K_SET:
 			{
 				Type.Set set = (Type.Set) type;
-				set.element = substitute(set.element,var,root); 
+				set.element = substitute(set.element,var,root,visited); 
 				break;
 			}
 			case Type.K_DICTIONARY:
 			{
 				Type.Dictionary dict = (Type.Dictionary) type;
-				dict.key = substitute(dict.key,var,root); 
-				dict.value = substitute(dict.value,var,root);
+				dict.key = substitute(dict.key,var,root,visited); 
+				dict.value = substitute(dict.value,var,root,visited);
 				break;
 			}
 			case Type.K_RECORD:
@@ -166,7 +203,7 @@ public class Type {
 				Type.Record rec = (Type.Record) type;
 				Type[] types = rec.types;
 				for(int i=0;i!=types.length;++i) {
-					types[i] = substitute(types[i],var,root);
+					types[i] = substitute(types[i],var,root,visited);
 				}
 				break;
 			}
@@ -175,7 +212,7 @@ public class Type {
 				Type.Union un = (Type.Union) type;
 				Type[] types = un.bounds;
 				for(int i=0;i!=types.length;++i) {
-					types[i] = substitute(types[i],var,root);
+					types[i] = substitute(types[i],var,root,visited);
 				}
 				break;
 			}
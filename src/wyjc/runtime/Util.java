@@ -27,6 +27,9 @@ package wyjc.runtime;
 
 import java.math.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
 
 import wyil.lang.Value;
@@ -54,34 +57,31 @@ public class Util {
 	private static int nset_clones = 0;
 	private static int nrecord_clones = 0;
 
-	public static String append(final String lhs, final String rhs) {		
-		return lhs + rhs;
+	public static WyString append(final WyString lhs, final WyString rhs) {		
+		return lhs.append(rhs);
 	}
 	
-	public static String append(final String lhs, final char rhs) {		
-		return lhs + rhs;
+	public static WyString append(final WyString lhs, final char rhs) {		
+		return lhs.append(rhs);
 	}
 	
-	public static String append(final char lhs, final String rhs) {		
-		return lhs + rhs;
+	public static WyString append(final char lhs, final WyString rhs) {		
+		return rhs.prepend(lhs);
 	}
 	
-	public static BigInteger stringlength(final String lhs) {
-		return BigInteger.valueOf(lhs.length());
+	public static BigInteger stringlength(final WyString lhs) {
+		return WyInt.valueOf(lhs.length());
 	}
 	
-	public static String substring(final String lhs, final BigInteger _start, final BigInteger _end) {
+	public static WyString substring(final WyString lhs, final BigInteger _start, final BigInteger _end) {
 		int start = _start.intValue();
 		int end = _end.intValue();
 		return lhs.substring(start,end);
 	}
 	
-	public static String set(final String lhs, BigInteger index, char value) {
-		int idx = index.intValue();		
-		// hmmm, not exactly efficient!
-		StringBuilder sb = new StringBuilder(lhs);
-		sb.setCharAt(idx, value);
-		return sb.toString();
+	public static WyString set(final WyString lhs, BigInteger index, char value) {
+		// this happens in place, unless the string is shared
+		return WyString.set(lhs, index.intValue(), value);
 	}
 	
 	public static int leftshift(int b1, BigInteger b2) {		
@@ -93,29 +93,26 @@ public class Util {
 	}
 	
 	public static List range(BigInteger start, BigInteger end) {
-		List l = new List();
+		// NOTE: bounds of at most 62 bits cannot overflow when subtracted
+		if (start.bitLength() < 63 && end.bitLength() < 63) {
+			long st = start.longValue();
+			long en = end.longValue();
+			if (Math.abs(en - st) <= Integer.MAX_VALUE) {
+				return List.range(st, en);
+			}
+		}
 		
-		long st = start.longValue();
-		long en = start.longValue();
-		if (BigInteger.valueOf(st).equals(start)
-				&& BigInteger.valueOf(en).equals(end)) {
-			int dir = st < en ? 1 : -1;
-			while(st != en) {
-				l.add(BigInteger.valueOf(st));
-				st = st + dir;
-			}					
+		List l = new List();
+		BigInteger dir;
+		if(start.compareTo(end) < 0) {
+			dir = BigInteger.ONE;
 		} else {
-			BigInteger dir;
-			if(start.compareTo(end) < 0) {
-				dir = BigInteger.ONE;
-			} else {
-				dir = BigInteger.valueOf(-1);
-			}
-			while(!start.equals(end)) {
-				l.add(start);
-				start = start.add(dir);
-			}	
+			dir = BigInteger.valueOf(-1);
 		}
+		while(!start.equals(end)) {
+			l.add(start);
+			start = start.add(dir);
+		}	
 		
 		return l;
 	}
@@ -128,9 +125,9 @@ public class Util {
 	 * @return
 	 */
 	public static List fromStringList(String[] args) {		
-		List r = new List(args.length);
+		List r = new List();
 		for(int i=0;i!=args.length;++i) {
-			r.add(args[i]);
+			r.add(WyString.valueOf(args[i]));
 		}		
 		return r;
 	}
@@ -147,40 +144,143 @@ public class Util {
 		return (o1 != null && o1.equals(o2)) || (o1 == o2);
 	}
 	
+	/**
+	 * Compare two Whiley values, giving a total order. Values of the same kind
+	 * are compared structurally (e.g. lists lexicographically), whilst values
+	 * of different kinds are ordered by kind. Numbers of different kinds are
+	 * compared by value.
+	 * 
+	 * @param o1
+	 * @param o2
+	 * @return
+	 */
+	public static int compare(Object o1, Object o2) {
+		if(o1 == o2) {
+			return 0;
+		} else if(o1 == null) {
+			return -1;
+		} else if(o2 == null) {
+			return 1;
+		} else if(o1 instanceof BigInteger && o2 instanceof BigInteger) {
+			return WyInt.compare((BigInteger) o1, (BigInteger) o2);
+		} else if(isNumber(o1) && isNumber(o2)) {
+			return toRational(o1).compareTo(toRational(o2));
+		} else if(o1 instanceof java.util.List && o2 instanceof java.util.List) {
+			// lists and tuples
+			Iterator i1 = ((java.util.List) o1).iterator();
+			Iterator i2 = ((java.util.List) o2).iterator();
+			while(i1.hasNext() && i2.hasNext()) {
+				int c = compare(i1.next(), i2.next());
+				if(c != 0) {
+					return c;
+				}
+			}
+			return i1.hasNext() ? 1 : (i2.hasNext() ? -1 : 0);
+		} else if(o1.getClass() == o2.getClass() && o1 instanceof Comparable) {
+			// strings, characters, bytes, booleans and records
+			return ((Comparable) o1).compareTo(o2);
+		} else if(o1 instanceof Set && o2 instanceof Set) {
+			return compare(sorted((Set) o1), sorted((Set) o2));
+		} else if(o1 instanceof Dictionary && o2 instanceof Dictionary) {
+			Dictionary d1 = (Dictionary) o1;
+			Dictionary d2 = (Dictionary) o2;
+			ArrayList k1 = sorted(d1.keySet());
+			ArrayList k2 = sorted(d2.keySet());
+			int c = compare(k1, k2);
+			for(int i = 0; c == 0 && i != k1.size(); ++i) {
+				Object key = k1.get(i);
+				c = compare(d1.get(key), d2.get(key));
+			}
+			return c;
+		} else {
+			return o1.getClass().getName().compareTo(o2.getClass().getName());
+		}
+	}
+	
+	/**
+	 * Orders Whiley values according to <code>compare()</code>.
+	 */
+	public static final Comparator<Object> COMPARATOR = new Comparator<Object>() {
+		public int compare(Object o1, Object o2) {
+			return Util.compare(o1, o2);
+		}
+	};
+	
+	private static ArrayList sorted(java.util.Collection items) {
+		ArrayList r = new ArrayList(items);
+		Collections.sort(r, COMPARATOR);
+		return r;
+	}
+	
+	private static boolean isNumber(Object o) {
+		return o instanceof BigInteger || o instanceof BigRational;
+	}
+	
+	private static BigRational toRational(Object o) {
+		if(o instanceof BigRational) {
+			return (BigRational) o;
+		} else {
+			return BigRational.valueOf((BigInteger) o);
+		}
+	}
+	
 	/**
 	 * Convert a given Whiley object into a string
 	 * @param o
 	 * @return
 	 */
 	public static String str(Object o) {
+		StringBuilder out = new StringBuilder();
+		str(o, out);
+		return out.toString();
+	}
+	
+	/**
+	 * Write a given Whiley object to a builder, in the same form as
+	 * <code>str(Object)</code>. Compound values write their elements directly
+	 * to the builder, rather than creating a string for each one. Thus, the
+	 * time taken is linear in the length of the output.
+	 * 
+	 * @param o
+	 * @param out
+	 */
+	public static void str(Object o, StringBuilder out) {
 		if(o == null) {
-			return "null";
-		} else if(o instanceof String) {
-			String s = (String) o;
-			return "\"" + s + "\"";
+			out.append("null");
+		} else if(o instanceof WyString) {
+			out.append('"');
+			((WyString) o).appendTo(out);
+			out.append('"');
 		} else if(o instanceof Character) {
-			Character s = (Character) o;
-			return "\'" + s + "\'";
+			out.append('\'').append(((Character) o).charValue()).append('\'');
 		} else if(o instanceof Byte) {
-			Byte b = (Byte) o;
-			return str(b.byteValue());
+			str(((Byte) o).byteValue(), out);
+		} else if(o instanceof List) {
+			((List) o).str(out);
+		} else if(o instanceof Set) {
+			((Set) o).str(out);
+		} else if(o instanceof Dictionary) {
+			((Dictionary) o).str(out);
+		} else if(o instanceof Record) {
+			((Record) o).str(out);
+		} else if(o instanceof Tuple) {
+			((Tuple) o).str(out);
 		} else {
-			return o.toString();
+			out.append(o);
 		}
 	}
 	
 	public static String str(byte b) {
-		String r = "b";
-		byte v = b;
-		for(int i=0;i!=8;++i) {
-			if((v&0x1) == 1) {
-				r = "1" + r;
-			} else {
-				r = "0" + r;
-			}
-			v = (byte) (v >>> 1);
+		StringBuilder out = new StringBuilder(9);
+		str(b, out);
+		return out.toString();
+	}
+	
+	private static void str(byte b, StringBuilder out) {
+		for(int i=7;i>=0;--i) {
+			out.append((b & (1 << i)) != 0 ? '1' : '0');
 		}
-		return r;
+		out.append('b');
 	}
 	
 	/**
@@ -189,7 +289,7 @@ public class Util {
 	 * 
 	 * @param list
 	 */
-	public static void debug(String str) {
+	public static void debug(WyString str) {
 		System.out.print(str);			
 	}
 		
@@ -212,6 +312,12 @@ public class Util {
 		} else if(obj instanceof Dictionary) {
 			Dictionary dict = (Dictionary) obj;
 			dict.refCount++;			
+		} else if(obj instanceof Tuple) {
+			Tuple tuple = (Tuple) obj;
+			tuple.refCount++;			
+		} else if(obj instanceof WyString) {
+			WyString str = (WyString) obj;
+			str.refCount++;
 		} 
 		return obj;
 	}
@@ -236,6 +342,16 @@ public class Util {
 		return obj;
 	}
 	
+	public static Tuple incRefs(Tuple obj) {
+		obj.refCount++;
+		return obj;
+	}
+	
+	public static WyString incRefs(WyString obj) {
+		obj.refCount++;
+		return obj;
+	}
+	
 	/**
 	 * Decrement the reference count for this object. In some cases, this may
 	 * have no effect. In other cases, the current reference count will be
@@ -255,6 +371,12 @@ public class Util {
 		} else if(obj instanceof Dictionary) {
 			Dictionary dict = (Dictionary) obj;
 			dict.refCount--;			
+		} else if(obj instanceof Tuple) {
+			Tuple tuple = (Tuple) obj;
+			tuple.refCount--;			
+		} else if(obj instanceof WyString) {
+			WyString str = (WyString) obj;
+			str.refCount--;
 		} 
 		return obj;
 	}
@@ -279,6 +401,16 @@ public class Util {
 		return obj;
 	}
 	
+	public static Tuple decRefs(Tuple obj) {
+		obj.refCount--;
+		return obj;
+	}
+	
+	public static WyString decRefs(WyString obj) {
+		obj.refCount--;
+		return obj;
+	}
+	
 	/**
 	 * The <code>instanceOf</code> method implements a runtime type test. 
 	 */
@@ -301,49 +433,11 @@ public class Util {
 			case Type.K_RATIONAL:
 				return obj instanceof BigRational;
 			case Type.K_STRING:
-				return obj instanceof String;
+				return obj instanceof WyString;
 			case Type.K_LIST:
-			{
-				if(obj instanceof List) {
-					List ol = (List) obj;
-					Type.List tl = (Type.List) t;
-					Type el = tl.element;
-					if(el.kind == Type.K_ANY) {
-						return true;
-					} else if(el.kind == Type.K_VOID) {
-						return ol.isEmpty();
-					} else {
-						for(Object elem : ol) { 
-							if(!instanceOf(elem,el)) {
-								return false;
-							}
-						}
-						return true;
-					}
-				}
-				break;
-			}
+				return obj instanceof List && instanceOf((List) obj, t);
 			case Type.K_SET:
-			{
-				if(obj instanceof Set) {
-					Set ol = (Set) obj;
-					Type.Set tl = (Type.Set) t;
-					Type el = tl.element;
-					if(el.kind == Type.K_ANY) {
-						return true;
-					} else if(el.kind == Type.K_VOID) {
-						return ol.isEmpty();
-					} else {
-						for(Object elem : ol) { 
-							if(!instanceOf(elem,el)) {
-								return false;
-							}
-						}
-						return true;
-					}
-				}
-				break;
-			}
+				return obj instanceof Set && instanceOf((Set) obj, t);
 			case Type.K_TUPLE:
 			{				
 				if(obj instanceof Tuple) {
@@ -363,30 +457,7 @@ public class Util {
 				break;
 			}
 			case Type.K_DICTIONARY:
-			{
-				if(obj instanceof Dictionary) {
-					Dictionary ol = (Dictionary) obj;
-					Type.Dictionary tl = (Type.Dictionary) t;
-					Type key = tl.key;
-					Type value = tl.value;
-					
-					if (key.kind == Type.K_ANY && value.kind == Type.K_ANY) {
-						return true;						
-					} else if(key.kind == Type.K_VOID || value.kind == Type.K_VOID) {
-						return ol.isEmpty();
-					} else {
-						for (java.util.Map.Entry<Object, Object> elem : ol
-								.entrySet()) {
-							if (!instanceOf(elem.getKey(), key)
-									|| !instanceOf(elem.getValue(), value)) {
-								return false;
-							}
-						}
-						return true;
-					}
-				}
-				break;
-			}
+				return obj instanceof Dictionary && instanceOf((Dictionary) obj, t);
 			case Type.K_RECORD:
 			{
 				if(obj instanceof Record) {
@@ -424,7 +495,16 @@ public class Util {
 		return false;
 	}
 
+	/**
+	 * Test whether every element of a list has a given type. When this
+	 * succeeds, the type is recorded as the list's witness, so that repeating
+	 * the test (with the same interned type) takes constant time until the
+	 * list is next updated.
+	 */
 	public static boolean instanceOf(List ol, Type t) {
+		if(ol.witness == t) {
+			return true;
+		}
 		Type.List tl = (Type.List) t;
 		Type el = tl.element;
 		if(el.kind == Type.K_ANY) {
@@ -437,11 +517,15 @@ public class Util {
 					return false;
 				}
 			}
+			ol.witness = t;
 			return true;
 		}		
 	}
 	
 	public static boolean instanceOf(Set ol, Type t) {
+		if(ol.witness == t) {
+			return true;
+		}
 		Type.Set tl = (Type.Set) t;
 		Type el = tl.element;
 		if(el.kind == Type.K_ANY) {
@@ -454,11 +538,15 @@ public class Util {
 					return false;
 				}
 			}
+			ol.witness = t;
 			return true;
 		}
 	}
 	
 	public static boolean instanceOf(Dictionary ol, Type t) {		
+		if(ol.witness == t) {
+			return true;
+		}
 		Type.Dictionary tl = (Type.Dictionary) t;
 		Type key = tl.key;
 		Type value = tl.value;
@@ -475,6 +563,7 @@ public class Util {
 					return false;
 				}
 			}
+			ol.witness = t;
 			return true;
 		}
 	}
@@ -528,8 +617,8 @@ public class Util {
 			return coerce((Dictionary)obj,t);
 		} else if(obj instanceof Record) {
 			return coerce((Record)obj,t);
-		} else if(obj instanceof String) {
-			return coerce((String)obj,t);
+		} else if(obj instanceof WyString) {
+			return coerce((WyString)obj,t);
 		} else if(obj instanceof Tuple) {
 			return coerce((Tuple)obj,t);
 		} 
@@ -537,6 +626,21 @@ public class Util {
 		return obj;
 	}
 	
+	/**
+	 * Coerce an element of a compound value, for storing in the new compound
+	 * value being constructed. If the coercion leaves the element unchanged,
+	 * then it is now shared by both compound values, and so its reference
+	 * count is incremented (otherwise, it could be updated in place through
+	 * either one).
+	 */
+	private static Object coerceElement(Object obj, Type t) {
+		Object r = coerce(obj,t);
+		if(r == obj) {
+			incRefs(r);
+		}
+		return r;
+	}
+	
 	public static Object coerce(BigInteger obj, Type t) {
 		if(t.kind == Type.K_UNION) {
 			Type.Union un = (Type.Union) t;
@@ -564,7 +668,7 @@ public class Util {
 				Tuple r = new Tuple();
 				int i = 0;
 				for(Object o : obj) {
-					r.add(coerce(o,types[i++]));
+					r.add(coerceElement(o,types[i++]));
 				}
 				return r;
 			}
@@ -574,18 +678,15 @@ public class Util {
 	
 	public static Object coerce(List obj, Type t) {		
 		if(t.kind == Type.K_LIST) {
+			// elements are only coerced when they are accessed
 			Type.List tl = (Type.List) t;
-			List r = new List(obj.size());
-			for(Object o : obj) {
-				r.add(coerce(o,tl.element));
-			}
-			return r;
+			return List.coerced(obj, tl.element);
 		} else if(t.kind == Type.K_DICTIONARY) {
 			Type.Dictionary tl = (Type.Dictionary) t;
 			Dictionary r = new Dictionary();			
 			for (int i = 0; i != obj.size(); ++i) {
 				Object key = coerce(BigInteger.valueOf(i),tl.key);
-				Object value = coerce(obj.get(i), tl.value);					
+				Object value = coerceElement(obj.get(i), tl.value);					
 				r.put(key, value);
 			}			
 			return r;
@@ -593,19 +694,19 @@ public class Util {
 			Type.Set tl = (Type.Set) t;
 			Set r = new Set();			
 			for (Object value : obj) {						
-				r.add(coerce(value, tl.element));
+				r.add(coerceElement(value, tl.element));
 			}			
 			return r;
 		}
 		throw new RuntimeException("invalid list coercion (" + obj + " => " + t + ")");
 	}
 	
-	public static Object coerce(String obj, Type t) {		
+	public static Object coerce(WyString obj, Type t) {		
 		if(t.kind == Type.K_STRING) {
 			return obj;
 		} else if(t.kind == Type.K_LIST) {
 			Type.List tl = (Type.List) t;
-			List r = new List(obj.length());
+			List r = new List();
 			for(int i=0;i!=obj.length();++i) {
 				Object index = BigInteger.valueOf(obj.charAt(i));				
 				r.add(coerce(index,tl.element));
@@ -620,7 +721,7 @@ public class Util {
 			Type.Set tl = (Type.Set) t;
 			Set r = new Set();
 			for(Object o : obj) {
-				r.add(coerce(o,tl.element));
+				r.add(coerceElement(o,tl.element));
 			}
 			return r;
 		} 
@@ -632,8 +733,8 @@ public class Util {
 			Type.Dictionary tl = (Type.Dictionary) t;
 			Dictionary r = new Dictionary();
 			for(Map.Entry<Object,Object> o : obj.entrySet()) {
-				Object key = coerce(o.getKey(),tl.key);
-				Object value = coerce(o.getValue(),tl.value); 
+				Object key = coerceElement(o.getKey(),tl.key);
+				Object value = coerceElement(o.getValue(),tl.value); 
 				r.put(key,value);
 			}
 			return r;
@@ -650,7 +751,7 @@ public class Util {
 			for(int i=0;i!=names.length;++i) {
 				String name = names[i];
 				Type type = types[i];
-				r.put(name,coerce(obj.get(name),type));
+				r.put(name,coerceElement(obj.get(name),type));
 			}
 			return r;
 		}
@@ -0,0 +1,170 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.runtime;
+
+import java.math.BigInteger;
+
+/**
+ * <p>
+ * Provides the arithmetic and comparison operations used for Whiley's
+ * <code>int</code> type. Whiley integers are unbounded and are represented as
+ * <code>BigInteger</code>s at runtime. However, the vast majority of integers
+ * seen in practice (e.g. loop counters, list indices, etc) fit comfortably
+ * into a <code>long</code>. Therefore, the operations here first check whether
+ * both operands are small and, if so, compute the result using primitive
+ * arithmetic. Only when this could overflow do we fall back to the (much
+ * slower) <code>BigInteger</code> operations.
+ * </p>
+ * 
+ * <p>
+ * In addition, results within a small range are drawn from a cache of
+ * preallocated values. This means that, for example, incrementing a loop
+ * counter over a short list does not allocate at all. Other results are still
+ * allocated as <code>BigInteger</code>s, since this remains the runtime
+ * representation of <code>int</code>. Variables whose values are known to fit
+ * into a <code>long</code> avoid this, since they are held unboxed by the
+ * compiled code (see <code>wyjc.io.UnboxingAnalysis</code>).
+ * </p>
+ * 
+ * @author djp
+ * 
+ */
+public final class WyInt {
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final BigInteger[] cache = new BigInteger[CACHE_HIGH - CACHE_LOW + 1];
+
+	static {
+		for (int i = 0; i != cache.length; ++i) {
+			cache[i] = BigInteger.valueOf(i + CACHE_LOW);
+		}
+	}
+
+	/**
+	 * The number of bits which an operand can occupy, such that the addition
+	 * or subtraction of two such operands cannot overflow a long.
+	 */
+	private static final int SMALL_BITS = 62;
+
+	private WyInt() {}
+
+	/**
+	 * Construct a Whiley integer from a long value, using the cache where
+	 * possible.
+	 * 
+	 * @param v
+	 * @return
+	 */
+	public static BigInteger valueOf(long v) {
+		if (v >= CACHE_LOW && v <= CACHE_HIGH) {
+			return cache[(int) v - CACHE_LOW];
+		}
+		return BigInteger.valueOf(v);
+	}
+
+	/**
+	 * Check whether a given integer fits into a long, such that adding or
+	 * subtracting it with another such integer cannot overflow.
+	 * 
+	 * @param v
+	 * @return
+	 */
+	public static boolean isSmall(BigInteger v) {
+		return v.bitLength() <= SMALL_BITS;
+	}
+
+	public static BigInteger add(BigInteger lhs, BigInteger rhs) {
+		if (isSmall(lhs) && isSmall(rhs)) {
+			return valueOf(lhs.longValue() + rhs.longValue());
+		}
+		return lhs.add(rhs);
+	}
+
+	public static BigInteger subtract(BigInteger lhs, BigInteger rhs) {
+		if (isSmall(lhs) && isSmall(rhs)) {
+			return valueOf(lhs.longValue() - rhs.longValue());
+		}
+		return lhs.subtract(rhs);
+	}
+
+	public static BigInteger multiply(BigInteger lhs, BigInteger rhs) {
+		// the magnitude of the product needs at most the sum of the bit lengths
+		// of its operands.
+		if ((lhs.bitLength() + rhs.bitLength()) <= SMALL_BITS) {
+			return valueOf(lhs.longValue() * rhs.longValue());
+		}
+		return lhs.multiply(rhs);
+	}
+
+	public static BigInteger divide(BigInteger lhs, BigInteger rhs) {
+		if (isSmall(lhs) && isSmall(rhs) && rhs.signum() != 0) {
+			// NOTE: long division truncates towards zero, as does BigInteger
+			return valueOf(lhs.longValue() / rhs.longValue());
+		}
+		return lhs.divide(rhs);
+	}
+
+	public static BigInteger remainder(BigInteger lhs, BigInteger rhs) {
+		if (isSmall(lhs) && isSmall(rhs) && rhs.signum() != 0) {
+			// NOTE: sign of result follows the dividend, as for BigInteger
+			return valueOf(lhs.longValue() % rhs.longValue());
+		}
+		return lhs.remainder(rhs);
+	}
+
+	public static BigInteger negate(BigInteger v) {
+		if (isSmall(v)) {
+			return valueOf(-v.longValue());
+		}
+		return v.negate();
+	}
+
+	/**
+	 * Compare two integers, returning a negative value, zero or a positive
+	 * value if the first is less than, equal to or greater than the second.
+	 * 
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static int compare(BigInteger lhs, BigInteger rhs) {
+		if (isSmall(lhs) && isSmall(rhs)) {
+			long l = lhs.longValue();
+			long r = rhs.longValue();
+			return l < r ? -1 : (l == r ? 0 : 1);
+		}
+		return lhs.compareTo(rhs);
+	}
+
+	public static boolean equals(BigInteger lhs, BigInteger rhs) {
+		if (lhs == rhs) {
+			return true;
+		} else if (isSmall(lhs) && isSmall(rhs)) {
+			return lhs.longValue() == rhs.longValue();
+		}
+		return lhs.equals(rhs);
+	}
+}
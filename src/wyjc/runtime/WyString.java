@@ -0,0 +1,270 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.runtime;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * <p>
+ * Represents Whiley's <code>string</code> type at runtime. The characters of
+ * a string are held in a buffer, which may have spare capacity beyond the end
+ * of the string. When a string is appended to, and it is the longest string
+ * using its buffer, the new characters are written into the spare capacity
+ * and the result simply shares the buffer. Since no string can observe
+ * characters beyond its own length, strings remain immutable. In this way,
+ * building a string by repeatedly appending to it takes amortised linear
+ * time, rather than quadratic time.
+ * </p>
+ * 
+ * <p>
+ * Strings are also reference counted, in the same way as lists. Thus, a
+ * string may be updated in place when its reference count is one, and its
+ * buffer is not shared with any other string. Otherwise, the update is
+ * applied to a copy, which is then not shared and can be updated in place
+ * subsequently.
+ * </p>
+ * 
+ * <p>
+ * Strings are only converted to and from <code>java.lang.String</code> at the
+ * boundaries of the runtime (e.g. when printed, or when naming a file).
+ * </p>
+ * 
+ * @author djp
+ * 
+ */
+public final class WyString implements CharSequence, Comparable<WyString> {
+	int refCount = 1;
+	private Buffer buffer;
+	private final int length;
+	private int hash;
+
+	private WyString(Buffer buffer, int length) {
+		this.buffer = buffer;
+		this.length = length;
+	}
+
+	public static WyString valueOf(String s) {
+		char[] chars = s.toCharArray();
+		return new WyString(new Buffer(chars, chars.length), chars.length);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public char charAt(int index) {
+		if(index >= length) {
+			throw new IndexOutOfBoundsException("index out of bounds: " + index);
+		}
+		return buffer.chars[index];
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		return substring(start, end);
+	}
+
+	public boolean equals(Object o) {
+		if(o == this) {
+			return true;
+		} else if(o instanceof WyString) {
+			WyString s = (WyString) o;
+			if(s.length != length) {
+				return false;
+			}
+			char[] lhs = buffer.chars;
+			char[] rhs = s.buffer.chars;
+			for(int i = 0; i != length; ++i) {
+				if(lhs[i] != rhs[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The hash code is the same as that for the equivalent
+	 * <code>java.lang.String</code>.
+	 */
+	public int hashCode() {
+		int h = hash;
+		if(h == 0) {
+			char[] chars = buffer.chars;
+			for(int i = 0; i != length; ++i) {
+				h = 31 * h + chars[i];
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	public int compareTo(WyString s) {
+		char[] lhs = buffer.chars;
+		char[] rhs = s.buffer.chars;
+		int n = Math.min(length, s.length);
+		for(int i = 0; i != n; ++i) {
+			if(lhs[i] != rhs[i]) {
+				return lhs[i] - rhs[i];
+			}
+		}
+		return length - s.length;
+	}
+
+	public String toString() {
+		return new String(buffer.chars, 0, length);
+	}
+
+	void appendTo(StringBuilder out) {
+		out.append(buffer.chars, 0, length);
+	}
+
+	// ================================================================
+	// Operations (see Util)
+	// ================================================================
+
+	WyString append(WyString s) {
+		return extend(s.buffer.chars, s.length);
+	}
+
+	WyString append(char c) {
+		return extend(c);
+	}
+
+	WyString prepend(char c) {
+		char[] chars = new char[length + 1];
+		chars[0] = c;
+		System.arraycopy(buffer.chars, 0, chars, 1, length);
+		return new WyString(new Buffer(chars, chars.length), chars.length);
+	}
+
+	/**
+	 * Update the character at a given index. This happens in place if the
+	 * string is not shared in any way.
+	 */
+	static WyString set(WyString s, int index, char value) {
+		if(index < 0 || index >= s.length) {
+			throw new IndexOutOfBoundsException("index out of bounds: " + index);
+		}
+		if(s.refCount > 1 || s.buffer.shared) {
+			if(s.refCount > 1) {
+				s.refCount--;
+			}
+			char[] chars = new char[s.length];
+			System.arraycopy(s.buffer.chars, 0, chars, 0, s.length);
+			s = new WyString(new Buffer(chars, chars.length), chars.length);
+		}
+		s.buffer.chars[index] = value;
+		s.hash = 0;
+		return s;
+	}
+
+	WyString substring(int start, int end) {
+		if(start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("invalid substring: " + start
+					+ ".." + end);
+		} else if(start == 0) {
+			// a prefix can simply share this string's buffer
+			buffer.shared = true;
+			return new WyString(buffer, end);
+		}
+		char[] chars = new char[end - start];
+		System.arraycopy(buffer.chars, start, chars, 0, chars.length);
+		return new WyString(new Buffer(chars, chars.length), chars.length);
+	}
+
+	private WyString extend(char[] src, int n) {
+		int nlength = length + n;
+		Buffer b = buffer;
+		if(nlength > b.chars.length || !b.claim(length, nlength)) {
+			b = grow(nlength);
+		}
+		System.arraycopy(src, 0, b.chars, length, n);
+		return new WyString(b, nlength);
+	}
+
+	private WyString extend(char c) {
+		int nlength = length + 1;
+		Buffer b = buffer;
+		if(nlength > b.chars.length || !b.claim(length, nlength)) {
+			b = grow(nlength);
+		}
+		b.chars[length] = c;
+		return new WyString(b, nlength);
+	}
+
+	/**
+	 * Copy this string into a new buffer with room for at least the given
+	 * number of characters. The buffer is sized so that repeated appends
+	 * take amortised constant time.
+	 */
+	private Buffer grow(int nlength) {
+		char[] chars = new char[Math.max(nlength, length + (length >> 1) + 16)];
+		System.arraycopy(buffer.chars, 0, chars, 0, length);
+		return new Buffer(chars, nlength);
+	}
+
+	/**
+	 * A buffer holds the characters of one or more strings, each of which is
+	 * a prefix of the buffer's used characters.
+	 */
+	private static final class Buffer {
+		private static final AtomicIntegerFieldUpdater<Buffer> USED = AtomicIntegerFieldUpdater
+				.newUpdater(Buffer.class, "used");
+
+		final char[] chars;
+
+		/**
+		 * The number of characters in use. Characters beyond this may be
+		 * claimed by the string whose length equals it.
+		 */
+		volatile int used;
+
+		/**
+		 * Indicates whether more than one string has used this buffer. If so,
+		 * its characters cannot be updated in place.
+		 */
+		volatile boolean shared;
+
+		Buffer(char[] chars, int used) {
+			this.chars = chars;
+			this.used = used;
+		}
+
+		/**
+		 * Claim the characters from <code>from</code> to <code>to</code>.
+		 * This succeeds only if no string has already claimed characters
+		 * beyond <code>from</code>.
+		 */
+		boolean claim(int from, int to) {
+			if(USED.compareAndSet(this, from, to)) {
+				shared = true;
+				return true;
+			}
+			return false;
+		}
+	}
+}
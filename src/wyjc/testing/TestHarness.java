@@ -81,6 +81,41 @@ public class TestHarness {
 		}
 	}
 	
+	/**
+	 * Compile and execute a test case using a given actor scheduler, whilst
+	 * comparing its output against the sample output.
+	 * 
+	 * @param name
+	 *            Name of the test to run.
+	 * @param scheduler
+	 *            Name of the scheduler to use (see
+	 *            <code>wyjc.runtime.Scheduler</code>).
+	 */
+	protected void runScheduledTest(String name, String scheduler) {
+		runTestWithOptions(name, "-Dwyjc.scheduler=" + scheduler);
+	}
+	
+	/**
+	 * Compile and execute a test case, passing the given options to the JVM,
+	 * whilst comparing its output against the sample output.
+	 * 
+	 * @param name
+	 *            Name of the test to run.
+	 * @param options
+	 *            Options for the JVM (e.g. system properties).
+	 */
+	protected void runTestWithOptions(String name, String... options) {
+		String fullName = srcPath + File.separatorChar + name + ".whiley";
+		
+		if (!compile("-wp", "lib/wyrt.jar", fullName)) {
+			fail("couldn't compile test!");
+		} else {
+			String output = execute(srcPath, name, options);
+			compare(output, outputPath + File.separatorChar + name + "."
+					+ outputExtension);
+		}
+	}
+	
 	protected void contextFailTest(String name) {				
 		name = srcPath + File.separatorChar + name + ".whiley";
 
@@ -89,13 +124,23 @@ public class TestHarness {
 		}
 	}
 		
-	protected void runtimeFailTest(String name) {				
+	/**
+	 * Compile and execute a test case, passing the given options to the JVM,
+	 * and check that it fails at runtime (rather than hanging, or completing
+	 * normally).
+	 * 
+	 * @param name
+	 *            Name of the test to run.
+	 * @param options
+	 *            Options for the JVM (e.g. system properties).
+	 */
+	protected void runtimeFailTest(String name, String... options) {				
 		String fullName = srcPath + File.separatorChar + name + ".whiley";
 		
-		if(compile("-wp", "lib/wyrt.jar",fullName)) { 
+		if(!compile("-wp", "lib/wyrt.jar",fullName)) { 
 			fail("couldn't compile test!");
 		} else {
-			String output = run(srcPath,name,"-wp", "lib/wyrt.jar");				
+			String output = execute(srcPath, name, options);				
 			if(output != null) {
 				fail("test should have failed at runtime!");
 			}
@@ -107,12 +152,25 @@ public class TestHarness {
 	}
 	
 	private static String run(String path, String name, String... args) {
+		return execute(path, name);
+	}
+	
+	/**
+	 * Execute a compiled test case, passing the given options to the JVM.
+	 * 
+	 * @return the output of the test, or null if it failed.
+	 */
+	private static String execute(String path, String name, String... options) {
 		try {
 			// We need to have
 			String classpath = "../../../" + File.pathSeparator + "."
 					+ File.pathSeparator + "../../../lib/wyrt.jar";
 			classpath = classpath.replace('/', File.separatorChar);
-			String tmp = "java -cp " + classpath + " " + name;
+			String tmp = "java -cp " + classpath;
+			for (String option : options) {
+				tmp = tmp + " " + option;
+			}
+			tmp = tmp + " " + name;
 			Process p = Runtime.getRuntime().exec(tmp, null, new File(path));
 
 			StringBuffer syserr = new StringBuffer();
@@ -29,6 +29,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( { RuntimeValidTests.class, StaticInvalidTests.class })
+@Suite.SuiteClasses( { RuntimeValidTests.class, StaticInvalidTests.class,
+		RuntimeInvalidTests.class })
 public class AllTests {
 }
@@ -105,11 +105,14 @@ public class RuntimeValidTests extends TestHarness {
  @Test public void Dictionary_Valid_4_RuntimeTest() { runTest("Dictionary_Valid_4"); }
  @Test public void Dictionary_Valid_5_RuntimeTest() { runTest("Dictionary_Valid_5"); }
  @Test public void Dictionary_Valid_6_RuntimeTest() { runTest("Dictionary_Valid_6"); }
+ @Test public void Dictionary_Valid_7_RuntimeTest() { runTest("Dictionary_Valid_7"); }
  @Test public void For_Valid_1_RuntimeTest() { runTest("For_Valid_1"); }
  @Test public void For_Valid_2_RuntimeTest() { runTest("For_Valid_2"); }
  @Test public void For_Valid_3_RuntimeTest() { runTest("For_Valid_3"); }
  @Test public void For_Valid_4_RuntimeTest() { runTest("For_Valid_4"); }
  @Test public void For_Valid_5_RuntimeTest() { runTest("For_Valid_5"); }
+ @Test public void For_Valid_7_RuntimeTest() { runTest("For_Valid_7"); }
+ @Test public void FileReader_Valid_1_RuntimeTest() { runTest("FileReader_Valid_1"); }
  @Test public void Function_Valid_1_RuntimeTest() { runTest("Function_Valid_1"); }
  @Test public void Function_Valid_2_RuntimeTest() { runTest("Function_Valid_2"); }
  @Test public void Function_Valid_3_RuntimeTest() { runTest("Function_Valid_3"); }
@@ -141,6 +144,7 @@ public class RuntimeValidTests extends TestHarness {
  @Test public void IntEquals_Valid_1_RuntimeTest() { runTest("IntEquals_Valid_1"); }
  @Test public void IntMul_Valid_1_RuntimeTest() { runTest("IntMul_Valid_1"); }
  @Test public void IntOp_Valid_1_RuntimeTest() { runTest("IntOp_Valid_1"); }
+ @Test public void IntOp_Valid_2_RuntimeTest() { runTest("IntOp_Valid_2"); }
  @Test public void ListAccess_Valid_1_RuntimeTest() { runTest("ListAccess_Valid_1"); }
  @Test public void ListAccess_Valid_2_RuntimeTest() { runTest("ListAccess_Valid_2"); }
  @Test public void ListAccess_Valid_3_RuntimeTest() { runTest("ListAccess_Valid_3"); }
@@ -153,6 +157,7 @@ public class RuntimeValidTests extends TestHarness {
  @Test public void ListAppend_Valid_7_RuntimeTest() { runTest("ListAppend_Valid_7"); }
  @Test public void ListAppend_Valid_8_RuntimeTest() { runTest("ListAppend_Valid_8"); }
  @Test public void ListAppend_Valid_9_RuntimeTest() { runTest("ListAppend_Valid_9"); }
+ @Test public void ListAppend_Valid_10_RuntimeTest() { runTest("ListAppend_Valid_10"); }
  @Test public void ListAssign_Valid_1_RuntimeTest() { runTest("ListAssign_Valid_1"); }
  @Test public void ListAssign_Valid_2_RuntimeTest() { runTest("ListAssign_Valid_2"); }
  @Test public void ListAssign_Valid_3_RuntimeTest() { runTest("ListAssign_Valid_3"); }
@@ -163,6 +168,8 @@ public class RuntimeValidTests extends TestHarness {
  @Test public void ListAssign_Valid_8_RuntimeTest() { runTest("ListAssign_Valid_8"); }
  @Test public void ListAssign_Valid_9_RuntimeTest() { runTest("ListAssign_Valid_9"); }
  @Test public void ListAssign_Valid_10_RuntimeTest() { runTest("ListAssign_Valid_10"); }
+ @Test public void ListAssign_Valid_11_RuntimeTest() { runTest("ListAssign_Valid_11"); }
+@Test public void ListAssign_Valid_12_RuntimeTest() { runTest("ListAssign_Valid_12"); }
  @Test public void ListConversion_Valid_1_RuntimeTest() { runTest("ListConversion_Valid_1"); }
  @Test public void ListElemOf_Valid_1_RuntimeTest() { runTest("ListElemOf_Valid_1"); }
  @Test public void ListEmpty_Valid_1_RuntimeTest() { runTest("ListEmpty_Valid_1"); }
@@ -192,12 +199,44 @@ public class RuntimeValidTests extends TestHarness {
  @Test public void Process_Valid_6_RuntimeTest() { runTest("Process_Valid_6"); }
  @Test public void Process_Valid_7_RuntimeTest() { runTest("Process_Valid_7"); }
  @Test public void Process_Valid_8_RuntimeTest() { runTest("Process_Valid_8"); } 
+ @Test public void Process_Valid_9_RuntimeTest() { runTest("Process_Valid_9"); }
+ @Test public void Process_Valid_10_RuntimeTest() { runTest("Process_Valid_10"); }
+ @Test public void Process_Valid_11_RuntimeTest() { runTest("Process_Valid_11"); }
+ @Test public void Process_Valid_12_RuntimeTest() { runTest("Process_Valid_12"); }
+ @Test public void Process_Valid_1_PoolTest() { runScheduledTest("Process_Valid_1","pool"); }
+ @Test public void Process_Valid_2_PoolTest() { runScheduledTest("Process_Valid_2","pool"); }
+ @Test public void Process_Valid_3_PoolTest() { runScheduledTest("Process_Valid_3","pool"); }
+ @Test public void Process_Valid_4_PoolTest() { runScheduledTest("Process_Valid_4","pool"); }
+ @Test public void Process_Valid_5_PoolTest() { runScheduledTest("Process_Valid_5","pool"); }
+ @Test public void Process_Valid_6_PoolTest() { runScheduledTest("Process_Valid_6","pool"); }
+ @Test public void Process_Valid_7_PoolTest() { runScheduledTest("Process_Valid_7","pool"); }
+ @Test public void Process_Valid_8_PoolTest() { runScheduledTest("Process_Valid_8","pool"); }
+ @Test public void Process_Valid_9_PoolTest() { runScheduledTest("Process_Valid_9","pool"); }
+ @Test public void Process_Valid_10_PoolTest() { runScheduledTest("Process_Valid_10","pool"); }
+ @Test public void Process_Valid_11_PoolTest() { runScheduledTest("Process_Valid_11","pool"); }
+ @Test public void Process_Valid_1_VirtualTest() { runScheduledTest("Process_Valid_1","virtual"); }
+ @Test public void Process_Valid_2_VirtualTest() { runScheduledTest("Process_Valid_2","virtual"); }
+ @Test public void Process_Valid_3_VirtualTest() { runScheduledTest("Process_Valid_3","virtual"); }
+ @Test public void Process_Valid_4_VirtualTest() { runScheduledTest("Process_Valid_4","virtual"); }
+ @Test public void Process_Valid_5_VirtualTest() { runScheduledTest("Process_Valid_5","virtual"); }
+ @Test public void Process_Valid_6_VirtualTest() { runScheduledTest("Process_Valid_6","virtual"); }
+ @Test public void Process_Valid_7_VirtualTest() { runScheduledTest("Process_Valid_7","virtual"); }
+ @Test public void Process_Valid_8_VirtualTest() { runScheduledTest("Process_Valid_8","virtual"); }
+ @Test public void Process_Valid_9_VirtualTest() { runScheduledTest("Process_Valid_9","virtual"); }
+ @Test public void Process_Valid_10_VirtualTest() { runScheduledTest("Process_Valid_10","virtual"); }
+ @Test public void Process_Valid_11_VirtualTest() { runScheduledTest("Process_Valid_11","virtual"); }
+ @Test public void Process_Valid_10_BlockTest() { runTestWithOptions("Process_Valid_10","-Dwyjc.mailbox.capacity=4","-Dwyjc.mailbox.policy=block"); }
+ @Test public void Process_Valid_10_BlockPoolTest() { runTestWithOptions("Process_Valid_10","-Dwyjc.mailbox.capacity=4","-Dwyjc.mailbox.policy=block","-Dwyjc.scheduler=pool"); }
+ @Test public void Process_Valid_10_GrowTest() { runTestWithOptions("Process_Valid_10","-Dwyjc.mailbox.capacity=4","-Dwyjc.mailbox.policy=grow"); }
+ @Test public void Process_Valid_12_DropTest() { runTestWithOptions("Process_Valid_12","-Dwyjc.mailbox.capacity=4","-Dwyjc.mailbox.policy=drop"); }
+ @Test public void Process_Valid_12_DropPoolTest() { runTestWithOptions("Process_Valid_12","-Dwyjc.mailbox.capacity=4","-Dwyjc.mailbox.policy=drop","-Dwyjc.scheduler=pool"); }
  @Test public void RealConst_Valid_1_RuntimeTest() { runTest("RealConst_Valid_1"); }
  @Test public void RealDiv_Valid_1_RuntimeTest() { runTest("RealDiv_Valid_1"); }
  @Test public void RealDiv_Valid_2_RuntimeTest() { runTest("RealDiv_Valid_2"); }
  @Test public void RealDiv_Valid_3_RuntimeTest() { runTest("RealDiv_Valid_3"); }
  @Test public void RealDiv_Valid_4_RuntimeTest() { runTest("RealDiv_Valid_4"); }
  @Test public void RealNeg_Valid_1_RuntimeTest() { runTest("RealNeg_Valid_1"); }
+@Test public void RealNeg_Valid_2_RuntimeTest() { runTest("RealNeg_Valid_2"); }
  @Test public void RealSplit_Valid_1_RuntimeTest() { runTest("RealSplit_Valid_1"); }
  @Test public void RealSub_Valid_1_RuntimeTest() { runTest("RealSub_Valid_1"); }
  @Test public void RealSub_Valid_2_RuntimeTest() { runTest("RealSub_Valid_2"); }
@@ -207,8 +246,11 @@ public class RuntimeValidTests extends TestHarness {
  @Test public void RecordAssign_Valid_3_RuntimeTest() { runTest("RecordAssign_Valid_3"); }
  @Test public void RecordAssign_Valid_4_RuntimeTest() { runTest("RecordAssign_Valid_4"); }
  @Test public void RecordAssign_Valid_5_RuntimeTest() { runTest("RecordAssign_Valid_5"); }
+ @Test public void RecordAssign_Valid_6_RuntimeTest() { runTest("RecordAssign_Valid_6"); }
+ @Test public void RecordAssign_Valid_7_RuntimeTest() { runTest("RecordAssign_Valid_7"); }
  @Test public void RecordConversion_Valid_1_RuntimeTest() { runTest("RecordConversion_Valid_1"); }
  @Test public void RecordDefine_Valid_1_RuntimeTest() { runTest("RecordDefine_Valid_1"); }
+ @Test public void RecordDefine_Valid_2_RuntimeTest() { runTest("RecordDefine_Valid_2"); }
  @Test public void RecursiveType_Valid_1_RuntimeTest() { runTest("RecursiveType_Valid_1"); }
  @Test public void RecursiveType_Valid_2_RuntimeTest() { runTest("RecursiveType_Valid_2"); }
  @Test public void RecursiveType_Valid_3_RuntimeTest() { runTest("RecursiveType_Valid_3"); }
@@ -230,6 +272,7 @@ public class RuntimeValidTests extends TestHarness {
  @Test public void Remainder_Valid_1_RuntimeTest() { runTest("Remainder_Valid_1"); }
  @Test public void Resolution_Valid_1_RuntimeTest() { runTest("Resolution_Valid_1"); }
  @Test public void SetAssign_Valid_1_RuntimeTest() { runTest("SetAssign_Valid_1"); }
+ @Test public void SetAssign_Valid_2_RuntimeTest() { runTest("SetAssign_Valid_2"); }
  @Test public void SetComprehension_Valid_1_RuntimeTest() { runTest("SetComprehension_Valid_1"); }
  @Test public void SetComprehension_Valid_2_RuntimeTest() { runTest("SetComprehension_Valid_2"); }
  @Test public void SetComprehension_Valid_3_RuntimeTest() { runTest("SetComprehension_Valid_3"); }
@@ -262,6 +305,7 @@ public class RuntimeValidTests extends TestHarness {
  @Test public void SetUnion_Valid_7_RuntimeTest() { runTest("SetUnion_Valid_7"); }
  @Test public void SetUnion_Valid_8_RuntimeTest() { runTest("SetUnion_Valid_8"); }
  @Test public void SetUnion_Valid_9_RuntimeTest() { runTest("SetUnion_Valid_9"); }
+ @Test public void SetUnion_Valid_10_RuntimeTest() { runTest("SetUnion_Valid_10"); }
  @Test public void Subtype_Valid_3_RuntimeTest() { runTest("Subtype_Valid_3"); }
  @Test public void Subtype_Valid_4_RuntimeTest() { runTest("Subtype_Valid_4"); }
  @Test public void Subtype_Valid_5_RuntimeTest() { runTest("Subtype_Valid_5"); }
@@ -339,4 +383,5 @@ public class RuntimeValidTests extends TestHarness {
  @Test public void While_Valid_4_RuntimeTest() { runTest("While_Valid_4"); }
  @Test public void While_Valid_5_RuntimeTest() { runTest("While_Valid_5"); }
  @Test public void While_Valid_6_RuntimeTest() { runTest("While_Valid_6"); }
+ @Test public void While_Valid_7_RuntimeTest() { runTest("While_Valid_7"); }
 }